@@ -4,8 +4,11 @@
  */
 package com.didalgo.intellij.chatgpt;
 
+import com.didalgo.intellij.chatgpt.chat.client.ChatClientHolder;
+import com.didalgo.intellij.chatgpt.chat.models.TokenizerRegistry;
 import com.didalgo.intellij.chatgpt.settings.GeneralSettings;
 import com.didalgo.intellij.chatgpt.ui.action.editor.ActionsUtil;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.startup.StartupActivity;
 import lombok.Getter;
@@ -21,7 +24,9 @@ public class StartupHandler implements StartupActivity {
     public void runActivity(@NotNull Project project) {
         try {
             initJacksonUtilsEagerly();
+            ApplicationManager.getApplication().executeOnPooledThread(TokenizerRegistry::warmUp);
             GeneralSettings.getInstance();
+            ChatClientHolder.refresh();
             ActionsUtil.refreshActions();
         } finally {
             fullyStarted = true;
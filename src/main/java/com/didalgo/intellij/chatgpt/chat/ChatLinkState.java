@@ -4,31 +4,33 @@
  */
 package com.didalgo.intellij.chatgpt.chat;
 
-import com.didalgo.gpt3.ChatFormatDescriptor;
-import com.didalgo.gpt3.GPT3Tokenizer;
-import com.didalgo.intellij.chatgpt.chat.messages.MessageSupport;
 import com.didalgo.intellij.chatgpt.chat.models.ModelType;
+import com.didalgo.intellij.chatgpt.chat.models.TokenEstimator;
+import com.didalgo.intellij.chatgpt.core.FrozenTextSubstitutor;
 import com.didalgo.intellij.chatgpt.core.TextSubstitutor;
+import com.didalgo.intellij.chatgpt.settings.GeneralSettings;
 import com.didalgo.intellij.chatgpt.text.TextContent;
 import com.intellij.openapi.application.ApplicationInfo;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.SystemMessage;
 import org.springframework.ai.chat.messages.UserMessage;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 
-import static com.didalgo.intellij.chatgpt.chat.ChatMessageUtils.countTokens;
-import static com.didalgo.intellij.chatgpt.chat.ChatMessageUtils.isRoleSystem;
+import static org.apache.commons.lang3.StringUtils.isEmpty;
 
 public class ChatLinkState implements ConversationContext {
 
-    private final LinkedList<Message> chatMessages = new LinkedList<>();
+    private final AtomicReference<ConversationHistory> history = new AtomicReference<>(ConversationHistory.EMPTY);
     private volatile List<? extends TextContent> lastSentTextFragments = List.of();
     private volatile TextSubstitutor textSubstitutor = TextSubstitutor.NONE;
+    private volatile FrozenTextSubstitutor frozenTextSubstitutor = new FrozenTextSubstitutor(TextSubstitutor.NONE);
     private final AssistantConfiguration configuration;
+    private final HistoryCompactor historyCompactor = new HistoryCompactor();
 
 
     public ChatLinkState(AssistantConfiguration configuration) {
@@ -45,6 +47,7 @@ public class ChatLinkState implements ConversationContext {
 
     public void setTextSubstitutor(TextSubstitutor textSubstitutor) {
         this.textSubstitutor = Objects.requireNonNull(textSubstitutor);
+        this.frozenTextSubstitutor = new FrozenTextSubstitutor(textSubstitutor);
     }
 
     public final TextSubstitutor getTextSubstitutor() {
@@ -68,15 +71,24 @@ public class ChatLinkState implements ConversationContext {
 
     @Override
     public void addChatMessage(Message message) {
-        synchronized (chatMessages) {
-            if (!chatMessages.isEmpty()) {
-                Message lastMessage = chatMessages.getLast();
-                if (Objects.equals(lastMessage.getMessageType(), message.getMessageType())) {
-                    chatMessages.removeLast();
-                }
-            }
-            chatMessages.add(message);
-        }
+        history.updateAndGet(history -> history.append(message));
+    }
+
+    public ConversationHistory getHistory() {
+        return history.get();
+    }
+
+    /**
+     * Restores the history of a conversation continued from a previous session.
+     *
+     * @param messages the restored messages, oldest first
+     * @return {@code true} if restored, {@code false} if the conversation has already started
+     */
+    public boolean restoreHistory(List<Message> messages) {
+        var restored = ConversationHistory.EMPTY;
+        for (Message message : messages)
+            restored = restored.append(message);
+        return history.compareAndSet(ConversationHistory.EMPTY, restored);
     }
 
     @Override
@@ -86,29 +98,51 @@ public class ChatLinkState implements ConversationContext {
 
     @Override
     public List<Message> getChatMessages(ModelType model, UserMessage userMessage) {
-        var chatMessages = new LinkedList<Message>();
+        List<ConversationHistory.Entry> entries = history.get().entries();
+        TokenEstimator tokenEstimator = model.getTokenEstimator();
+        var chatMessages = new ArrayList<Message>(entries.size() + 2);
+        int[] messageTokens = new int[entries.size() + 2];
 
         // Add the system prompt appropriately
-        boolean hasSystemMessage = addSystemPrompt(model, chatMessages);
-
-        // Add the rest of the messages
-        synchronized (this.chatMessages) {
-            if (!this.chatMessages.isEmpty())
-                chatMessages.addAll(this.chatMessages);
-
-            // Substitute template placeholders
+        if (addSystemPrompt(model, chatMessages)) {
             substitutePlaceholders(chatMessages);
+            messageTokens[0] = tokenEstimator.countMessageTokens(chatMessages.get(0));
+        }
 
-            // Trim messages if exceeding token limit
-            int maxTokens = model.getInputTokenLimit();
-            var tokenizer = model.getTokenizer();
-            var chatFormatDescriptor = model.getChatFormatDescriptor();
-            int removed = dropOldestMessagesToStayWithinTokenLimit(chatMessages, maxTokens, tokenizer, chatFormatDescriptor);
-            while (removed-- > 0)
-                this.chatMessages.remove(hasSystemMessage ? 1 : 0);
+        // Add the summary of the compacted history in its own message, keeping the system prompt stable
+        if (addHistorySummary(model, chatMessages))
+            messageTokens[chatMessages.size() - 1] = tokenEstimator.countMessageTokens(chatMessages.get(chatMessages.size() - 1));
+        int fixedMessages = chatMessages.size();
+
+        // Add the rest of the messages, with placeholders substituted and tokens counted once per message
+        TextSubstitutor substitutor = getEffectiveTextSubstitutor();
+        for (ConversationHistory.Entry entry : entries) {
+            Message message = entry.getResolvedMessage(substitutor);
+            messageTokens[chatMessages.size()] = entry.countTokens(message, tokenEstimator);
+            chatMessages.add(message);
+        }
 
-            return chatMessages;
+        // Trim messages if exceeding token limit
+        int tokenBudget = ContextWindowPacker.getPromptTokenBudget(model);
+        int removed = new ContextWindowPacker(tokenEstimator).pack(chatMessages, messageTokens, fixedMessages, tokenBudget);
+        if (removed > 0) {
+            List<ConversationHistory.Entry> droppedEntries = entries.subList(0, removed);
+            if (dropOldestChatMessages(droppedEntries) && isHistoryCompactionEnabled())
+                historyCompactor.compact(droppedEntries.stream().map(ConversationHistory.Entry::getMessage).toList());
         }
+
+        return chatMessages;
+    }
+
+    private boolean dropOldestChatMessages(List<ConversationHistory.Entry> droppedEntries) {
+        ConversationHistory current, trimmed;
+        do {
+            current = history.get();
+            trimmed = current.dropOldest(droppedEntries);
+            if (trimmed == current)
+                return false; // history has been modified concurrently
+        } while (!history.compareAndSet(current, trimmed));
+        return true;
     }
 
     private boolean addSystemPrompt(ModelType model, List<Message> messages) {
@@ -131,6 +165,15 @@ public class ChatLinkState implements ConversationContext {
     }
 
 
+    private boolean addHistorySummary(ModelType model, List<Message> messages) {
+        String summary = historyCompactor.getSummary();
+        if (summary == null)
+            return false;
+
+        messages.add(newSystemMessageWithUserMessageFallbackIfUnsupported(model, "Summary of the earlier conversation:\n" + summary));
+        return true;
+    }
+
     private Message newSystemMessageWithUserMessageFallbackIfUnsupported(ModelType model, String content) {
         if (model.supportsSystemMessage()) {
             return new SystemMessage(content);
@@ -140,32 +183,28 @@ public class ChatLinkState implements ConversationContext {
     }
 
     public void substitutePlaceholders(List<Message> chatMessages) {
-        ChatMessageUtils.substitutePlaceholders(chatMessages, getTextSubstitutor());
+        ChatMessageUtils.substitutePlaceholders(chatMessages, getEffectiveTextSubstitutor());
     }
 
-    public int dropOldestMessagesToStayWithinTokenLimit(List<Message> messages, int maxTokens, GPT3Tokenizer tokenizer, ChatFormatDescriptor formatDescriptor) {
-        // here we assume ratio at most 2/3 available tokens for input prompt with context history,
-        // and at least 1/3 tokens for output
-        int tokenLimit = maxTokens/3*2;
-        int tokenCount;
-        int removed = 0;
-        boolean hasSystemMessage = !messages.isEmpty() && isRoleSystem(messages.get(0));
-        int oldestMessageIndex = hasSystemMessage? 1: 0;
+    private TextSubstitutor getEffectiveTextSubstitutor() {
+        return isPromptCachingEnabled() ? frozenTextSubstitutor : getTextSubstitutor();
+    }
 
-        while ((tokenCount = countTokens(messages, tokenizer, formatDescriptor)) > tokenLimit && oldestMessageIndex < messages.size() - 1) {
-            messages.remove(oldestMessageIndex);
-            removed++;
-        }
+    protected boolean isPromptCachingEnabled() {
+        return GeneralSettings.getInstance().isEnablePromptCaching();
+    }
 
-        if (tokenCount > tokenLimit) {
-            var lastMessage = messages.get(oldestMessageIndex);
-            // TODO: calculation is currently wrong
-            var lastMsgCutoff = lastMessage.getText().length() - tokenLimit;
-            if (lastMsgCutoff > 0)
-                messages.set(oldestMessageIndex,
-                        MessageSupport.substring(lastMessage, lastMsgCutoff));
-        }
-        return removed;
+    /**
+     * Tells whether the dropped history is to be summarized, i.e. compaction is turned on, and its
+     * assistant is enabled and has an API key, if it needs one.
+     */
+    protected boolean isHistoryCompactionEnabled() {
+        var settings = GeneralSettings.getInstance();
+        var assistant = settings.getHistoryCompactionAssistant();
+        if (!settings.isEnableHistoryCompaction() || assistant == null || assistant.getFamily() == null || !assistant.isEnabled(settings))
+            return false;
+
+        return assistant.getFamily().isApiKeyOptional() || !isEmpty(settings.getAssistantOptions(assistant).getApiKeyMasked());
     }
 
     @Override
@@ -175,7 +214,9 @@ public class ChatLinkState implements ConversationContext {
 
     @Override
     public void clear() {
-        chatMessages.clear();
+        history.set(ConversationHistory.EMPTY);
+        historyCompactor.clear();
+        frozenTextSubstitutor = new FrozenTextSubstitutor(getTextSubstitutor());
         setLastPostedCodeFragments(List.of());
     }
 }
@@ -5,6 +5,7 @@
 package com.didalgo.intellij.chatgpt.chat;
 
 import org.reactivestreams.Subscription;
+import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.model.Generation;
@@ -111,10 +112,11 @@ public abstract class ChatMessageEvent extends EventObject {
             return subscription;
         }
 
-        public ResponseArriving responseArriving(ChatResponse responseChunk, List<Generation> partialResponseChoices) {
+        public ResponseArriving responseArriving(ChatResponse responseChunk, String delta, int offset, CharSequence partialResponse) {
             requireNonNull(responseChunk, "responseChunk");
-            requireNonNull(partialResponseChoices, "partialResponseChoices");
-            return new ResponseArriving(this, responseChunk, partialResponseChoices);
+            requireNonNull(delta, "delta");
+            requireNonNull(partialResponse, "partialResponse");
+            return new ResponseArriving(this, responseChunk, delta, offset, partialResponse);
         }
 
         public ResponseArrived responseArrived(ChatResponse response) {
@@ -144,20 +146,62 @@ public abstract class ChatMessageEvent extends EventObject {
 
     public static class ResponseArriving extends Started {
         private final ChatResponse responseChunk;
-        private final List<Generation> partialResponseChoices;
+        private final String delta;
+        private final int offset;
+        private final CharSequence partialResponse;
+        private volatile List<Generation> partialResponseChoices;
 
-        protected ResponseArriving(Started sourceEvent, ChatResponse responseChunk, List<Generation> partialResponseChoices) {
+        protected ResponseArriving(Started sourceEvent, ChatResponse responseChunk, String delta, int offset, CharSequence partialResponse) {
             super(sourceEvent);
             this.responseChunk = responseChunk;
-            this.partialResponseChoices = partialResponseChoices;
+            this.delta = delta;
+            this.offset = offset;
+            this.partialResponse = partialResponse;
         }
 
         public final ChatResponse getResponseChunk() {
             return responseChunk;
         }
 
+        /**
+         * Returns the text which arrived with this chunk.
+         *
+         * @return the new text appended to the response
+         */
+        public final String getDelta() {
+            return delta;
+        }
+
+        /**
+         * Returns the position of the {@link #getDelta() delta} within the whole response text.
+         *
+         * @return the offset of the delta
+         */
+        public final int getOffset() {
+            return offset;
+        }
+
+        /**
+         * Returns a lazy view of the response text received so far, including the current delta.
+         * The text is not copied until the view is materialized with {@code toString()}.
+         *
+         * @return the partial response text
+         */
+        public final CharSequence getPartialResponse() {
+            return partialResponse;
+        }
+
+        /**
+         * Returns the partial response materialized as a list of {@link Generation}s.
+         * The list is created on the first call only.
+         *
+         * @return the partial response choices
+         */
         public final List<Generation> getPartialResponseChoices() {
-            return partialResponseChoices;
+            var choices = partialResponseChoices;
+            if (choices == null)
+                partialResponseChoices = choices = List.of(new Generation(new AssistantMessage(partialResponse.toString())));
+            return choices;
         }
     }
 
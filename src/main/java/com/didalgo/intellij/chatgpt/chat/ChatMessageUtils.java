@@ -17,10 +17,25 @@ import org.apache.commons.lang3.StringUtils;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.MessageType;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class ChatMessageUtils {
 
+    private static final int MESSAGE_TOKEN_COUNT_CACHE_SIZE = 4096;
+
+    private static final Map<MessageTokenCountKey, Integer> messageTokenCounts = Collections.synchronizedMap(
+            new LinkedHashMap<>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<MessageTokenCountKey, Integer> eldest) {
+                    return size() > MESSAGE_TOKEN_COUNT_CACHE_SIZE;
+                }
+            });
+
+    private record MessageTokenCountKey(GPT3Tokenizer tokenizer, ChatFormatDescriptor formatDescriptor, MessageType type, String text, String metadata) { }
+
     public static List<TextContent> composeExcept(List<TextContent> textContents, List<? extends TextContent> exceptions, String exceptionPrompt) {
         for (var codeFragment : textContents)
             if (!exceptions.contains(codeFragment) && !exceptionPrompt.contains(TextContent.toString(codeFragment).strip()))
@@ -82,4 +97,34 @@ public class ChatMessageUtils {
                         : TokenizableFunctionCall.of(message.getText(), message.getMetadata().toString())
         ), List.of(), __ -> { throw new UnsupportedOperationException("Tokenization of functions is not supported"); }, formatDescriptor, tokenizer);
     }
+
+    /**
+     * Counts tokens contributed by a single message to the conversation, i.e. the count of the
+     * conversation including the message minus the {@linkplain #countReplyPrimingTokens reply
+     * priming tokens}. Counts are memoized by the message content, so repeated counting of the
+     * same conversation history doesn't re-encode it.
+     *
+     * @param message the message
+     * @param tokenizer the tokenizer
+     * @param formatDescriptor the chat format descriptor
+     * @return the number of tokens of the message
+     */
+    public static int countMessageTokens(Message message, GPT3Tokenizer tokenizer, ChatFormatDescriptor formatDescriptor) {
+        var key = new MessageTokenCountKey(tokenizer, formatDescriptor, message.getMessageType(), message.getText(),
+                (message.getMessageType() == MessageType.TOOL) ? message.getMetadata().toString() : null);
+        Integer count = messageTokenCounts.get(key);
+        if (count == null) {
+            count = countTokens(List.of(message), tokenizer, formatDescriptor) - countReplyPrimingTokens(tokenizer, formatDescriptor);
+            messageTokenCounts.put(key, count);
+        }
+        return count;
+    }
+
+    /**
+     * Counts tokens added to every conversation regardless of its messages, i.e. the tokens priming
+     * the assistant reply.
+     */
+    public static int countReplyPrimingTokens(GPT3Tokenizer tokenizer, ChatFormatDescriptor formatDescriptor) {
+        return countTokens(List.of(), tokenizer, formatDescriptor);
+    }
 }
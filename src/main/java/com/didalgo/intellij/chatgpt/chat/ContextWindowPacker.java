@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat;
+
+import com.didalgo.intellij.chatgpt.chat.messages.MessageSupport;
+import com.didalgo.intellij.chatgpt.chat.models.ModelType;
+import com.didalgo.intellij.chatgpt.chat.models.TokenEstimator;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+
+import java.util.List;
+
+import static com.didalgo.intellij.chatgpt.chat.ChatMessageUtils.isRoleSystem;
+
+/**
+ * Packs a conversation into the token budget of the model context window.
+ * <p>
+ * The system prompt and the newest message, which carries the user prompt together with its
+ * attachments, are always kept. The remaining budget is filled with the newest history
+ * messages, and older ones are dropped. If the newest message doesn't fit alone, its beginning
+ * is cut off at the position found by binary search on the token count of the remaining text.
+ *
+ * @author Mariusz Bernacki
+ */
+public class ContextWindowPacker {
+
+    /** The maximum distance to move a cut position forward to the nearest word start. */
+    private static final int MAX_CUT_ADJUSTMENT = 64;
+
+    private final TokenEstimator tokenEstimator;
+
+    public ContextWindowPacker(TokenEstimator tokenEstimator) {
+        this.tokenEstimator = tokenEstimator;
+    }
+
+    /**
+     * Gives the number of tokens available for the prompt, i.e. the context window size less the
+     * tokens reserved for the model output.
+     */
+    public static int getPromptTokenBudget(ModelType model) {
+        return Math.max(0, model.getInputTokenLimit() - model.getOutputTokenReserve());
+    }
+
+    /**
+     * Drops the oldest history messages and, if needed, truncates the newest one, so that the
+     * conversation fits in the token budget.
+     *
+     * @param messages the mutable list of messages, optionally starting with the system message
+     * @param tokenBudget the maximum number of tokens of the conversation
+     * @return the number of history messages dropped
+     */
+    public int pack(List<Message> messages, int tokenBudget) {
+        int[] messageTokens = new int[messages.size()];
+        int i = 0;
+        for (Message message : messages)
+            messageTokens[i++] = tokenEstimator.countMessageTokens(message);
+        return pack(messages, messageTokens, tokenBudget);
+    }
+
+    /**
+     * Packs the conversation as {@link #pack(List, int)} does, using the token counts of the messages
+     * already known to the caller.
+     *
+     * @param messages the mutable list of messages, optionally starting with the system message
+     * @param messageTokens the token counts of the respective messages
+     * @param tokenBudget the maximum number of tokens of the conversation
+     * @return the number of history messages dropped
+     */
+    public int pack(List<Message> messages, int[] messageTokens, int tokenBudget) {
+        boolean hasSystemMessage = !messages.isEmpty() && isRoleSystem(messages.get(0));
+        return pack(messages, messageTokens, hasSystemMessage? 1: 0, tokenBudget);
+    }
+
+    /**
+     * Packs the conversation as {@link #pack(List, int[], int)} does, always keeping the given number
+     * of leading messages, e.g. the system prompt followed by the summary of the earlier history.
+     *
+     * @param messages the mutable list of messages
+     * @param messageTokens the token counts of the respective messages
+     * @param fixedMessageCount the number of leading messages which are never dropped
+     * @param tokenBudget the maximum number of tokens of the conversation
+     * @return the number of history messages dropped
+     */
+    public int pack(List<Message> messages, int[] messageTokens, int fixedMessageCount, int tokenBudget) {
+        int oldestMessageIndex = fixedMessageCount;
+        if (messages.size() <= oldestMessageIndex)
+            return 0;
+
+        // prefixTokens[i] is the token count of the first i messages
+        int messageCount = messages.size();
+        int[] prefixTokens = new int[messageCount + 1];
+        for (int i = 0; i < messageCount; i++)
+            prefixTokens[i + 1] = prefixTokens[i] + messageTokens[i];
+        int fixedTokens = prefixTokens[oldestMessageIndex] + tokenEstimator.countReplyPrimingTokens();
+
+        // find the first message to keep, i.e. the lowest index at which the suffix fits in the budget,
+        // but always keep the last message
+        int low = oldestMessageIndex, high = messageCount - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (fixedTokens + prefixTokens[messageCount] - prefixTokens[mid] > tokenBudget)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        int removed = low - oldestMessageIndex;
+        int tokenCount = fixedTokens + prefixTokens[messageCount] - prefixTokens[low];
+        if (removed > 0)
+            messages.subList(oldestMessageIndex, low).clear();
+
+        if (tokenCount > tokenBudget)
+            messages.set(oldestMessageIndex, truncate(messages.get(oldestMessageIndex), tokenBudget - fixedTokens));
+
+        return removed;
+    }
+
+    /**
+     * Cuts off the beginning of the message text, keeping the longest ending which makes the
+     * message fit in the given number of tokens.
+     *
+     * @param message the message to truncate
+     * @param maxTokens the maximum number of tokens of the message
+     * @return the truncated message, or the original one if it already fits or can't be truncated
+     */
+    public Message truncate(Message message, int maxTokens) {
+        String text = message.getText();
+        if (text == null || message.getMessageType() == MessageType.TOOL || tokenEstimator.countMessageTokens(message) <= maxTokens)
+            return message;
+
+        // the overhead of the message formatting, counted separately to not count the whole message over and over again
+        int overhead = tokenEstimator.countMessageTokens(MessageSupport.setTextContent(message, ""));
+        int low = 0, high = text.length();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (overhead + tokenEstimator.countTokens(MessageSupport.truncatedText(text, mid)) > maxTokens)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return MessageSupport.substring(message, toWordStart(text, low));
+    }
+
+    private static int toWordStart(String text, int index) {
+        for (int i = index, limit = Math.min(text.length(), index + MAX_CUT_ADJUSTMENT); i > 0 && i < limit; i++)
+            if (Character.isWhitespace(text.charAt(i - 1)) && !Character.isWhitespace(text.charAt(i)))
+                return i;
+        return index;
+    }
+}
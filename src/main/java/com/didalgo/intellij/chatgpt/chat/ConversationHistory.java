@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat;
+
+import com.didalgo.intellij.chatgpt.chat.messages.MessageSupport;
+import com.didalgo.intellij.chatgpt.chat.models.TokenEstimator;
+import com.didalgo.intellij.chatgpt.core.TextSubstitutor;
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Immutable conversation history, sharing its entries with the histories it was derived from.
+ * <p>
+ * The entries are kept in an array shared by the histories, each of them seeing its own range of
+ * it. Appending a message claims the next free slot of the array, so it takes constant time, and
+ * the array is copied only when it is full, or when the slot is already taken by a history derived
+ * from the same one concurrently. Replacing the newest message and dropping the oldest ones copy
+ * the kept entries to a new array, so dropped entries are not kept reachable. A history can be read
+ * without locking while the conversation goes on, and {@link #entries()} gives a view of its range
+ * without walking or copying it.
+ * Entries cache the message with resolved placeholders and its token count, so a history message
+ * is substituted and counted only once, no matter how many prompts it becomes part of.
+ *
+ * @author Mariusz Bernacki
+ */
+public final class ConversationHistory {
+
+    public static final ConversationHistory EMPTY = new ConversationHistory(new AtomicReferenceArray<>(0), 0, 0);
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final AtomicReferenceArray<Entry> slots;
+    private final int start;
+    private final int end;
+
+    private ConversationHistory(AtomicReferenceArray<Entry> slots, int start, int end) {
+        this.slots = slots;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Gives the history with the message appended. A message of the same type as the newest one
+     * replaces it, as a retried prompt or a regenerated reply does.
+     *
+     * @param message the message
+     * @return the new history
+     */
+    public ConversationHistory append(Message message) {
+        Objects.requireNonNull(message);
+        var entry = new Entry(message);
+        if (!isEmpty() && Objects.equals(slots.get(end - 1).message.getMessageType(), message.getMessageType()))
+            return copyOf(start, end - 1, entry);
+        if (end < slots.length() && slots.compareAndSet(end, null, entry))
+            return new ConversationHistory(slots, start, end + 1);
+        return copyOf(start, end, entry);
+    }
+
+    private ConversationHistory copyOf(int from, int to, Entry appended) {
+        int size = to - from + ((appended != null) ? 1 : 0);
+        var copy = new AtomicReferenceArray<Entry>(Math.max(INITIAL_CAPACITY, size * 2));
+        for (int i = from; i < to; i++)
+            copy.set(i - from, slots.get(i));
+        if (appended != null)
+            copy.set(size - 1, appended);
+        return new ConversationHistory(copy, 0, size);
+    }
+
+    /**
+     * Gives the history without its oldest entries, provided they are the given ones, i.e. the
+     * history has not been cleared or trimmed since the entries were read.
+     *
+     * @param droppedEntries the entries to drop, oldest first
+     * @return the new history, or this one if it doesn't start with the given entries
+     */
+    public ConversationHistory dropOldest(List<Entry> droppedEntries) {
+        int dropped = droppedEntries.size();
+        if (dropped == 0 || dropped > size() || slots.get(start) != droppedEntries.get(0)
+                || slots.get(start + dropped - 1) != droppedEntries.get(dropped - 1))
+            return this;
+
+        return (dropped == size()) ? EMPTY : copyOf(start + dropped, end, null);
+    }
+
+    public boolean isEmpty() {
+        return end == start;
+    }
+
+    public int size() {
+        return end - start;
+    }
+
+    /**
+     * Gives the entries of the history, oldest first.
+     */
+    public List<Entry> entries() {
+        return new AbstractList<>() {
+            @Override
+            public Entry get(int index) {
+                Objects.checkIndex(index, size());
+                return slots.get(start + index);
+            }
+
+            @Override
+            public int size() {
+                return end - start;
+            }
+        };
+    }
+
+    /**
+     * Gives the messages of the history, oldest first, as originally added.
+     */
+    public List<Message> messages() {
+        return entries().stream().map(Entry::getMessage).toList();
+    }
+
+    /**
+     * The history entry, holding a message together with its derived data.
+     */
+    public static final class Entry {
+        private final Message message;
+        private volatile Resolution resolution;
+        private volatile TokenCount tokenCount;
+
+        private record Resolution(TextSubstitutor substitutor, Message message) { }
+
+        private record TokenCount(TokenEstimator tokenEstimator, Message message, int count) { }
+
+        private Entry(Message message) {
+            this.message = message;
+        }
+
+        public Message getMessage() {
+            return message;
+        }
+
+        /**
+         * Gives the message with its placeholders resolved, resolving them on the first call.
+         *
+         * @param substitutor the substitutor, the message is resolved again if a different one is given
+         * @return the resolved message, or the original one if it has no placeholders
+         */
+        @SuppressWarnings("StringEquality")
+        public Message getResolvedMessage(TextSubstitutor substitutor) {
+            Resolution resolution = this.resolution;
+            if (resolution == null || resolution.substitutor() != substitutor) {
+                String template = message.getText();
+                String resolved = substitutor.resolvePlaceholders(template);
+                Message resolvedMessage = (resolved != template) ? MessageSupport.setTextContent(message, resolved) : message;
+                this.resolution = resolution = new Resolution(substitutor, resolvedMessage);
+            }
+            return resolution.message();
+        }
+
+        /**
+         * Gives the token count of the message previously {@linkplain #getResolvedMessage resolved}.
+         *
+         * @param resolvedMessage the resolved message
+         * @param tokenEstimator the token estimator
+         * @return the token count
+         */
+        public int countTokens(Message resolvedMessage, TokenEstimator tokenEstimator) {
+            TokenCount tokenCount = this.tokenCount;
+            if (tokenCount == null || tokenCount.message() != resolvedMessage || !tokenCount.tokenEstimator().equals(tokenEstimator)) {
+                int count = tokenEstimator.countMessageTokens(resolvedMessage);
+                this.tokenCount = tokenCount = new TokenCount(tokenEstimator, resolvedMessage, count);
+            }
+            return tokenCount.count();
+        }
+    }
+}
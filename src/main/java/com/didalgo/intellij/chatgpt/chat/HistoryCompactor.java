@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat;
+
+import com.didalgo.intellij.chatgpt.chat.client.ChatClientHolder;
+import com.didalgo.intellij.chatgpt.chat.client.RateLimitScheduler;
+import com.didalgo.intellij.chatgpt.chat.models.ModelType;
+import com.didalgo.intellij.chatgpt.settings.GeneralSettings;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * Compacts conversation history dropped from the context window into a short summary.
+ * <p>
+ * Dropped messages are summarized in the background, together with the previous summary, so the
+ * summary always covers the whole dropped part of the conversation. Compactions of a conversation
+ * run one at a time, and their results are cached by the hash of the summarized transcript, so the
+ * same history is never summarized twice.
+ * Until the first compaction completes, the dropped messages are simply gone, as without compaction.
+ *
+ * @author Mariusz Bernacki
+ */
+public class HistoryCompactor {
+
+    private static final Logger LOG = Logger.getInstance(HistoryCompactor.class);
+
+    static final String SUMMARY_INSTRUCTIONS = "Summarize the following conversation between a user and"
+            + " an AI programming assistant. Keep the facts, decisions, file and code identifiers, and open"
+            + " questions needed to continue the conversation. Be concise and reply with the summary only.";
+
+    private static final int CACHE_SIZE = 32;
+
+    private static final Map<String, String> summaries = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            });
+
+    private final Executor executor;
+    private final Function<List<Message>, String> summarizer;
+    private volatile String summary;
+    private volatile int generation;
+
+    public HistoryCompactor() {
+        this(AppExecutorUtil.createBoundedApplicationPoolExecutor("AI Assistant History Compaction", 1),
+                HistoryCompactor::summarizeWithConfiguredAssistant);
+    }
+
+    public HistoryCompactor(Executor executor, Function<List<Message>, String> summarizer) {
+        this.executor = executor;
+        this.summarizer = summarizer;
+    }
+
+    /**
+     * Gives the summary of all the history compacted so far.
+     *
+     * @return the summary, or {@code null} if nothing has been compacted yet
+     */
+    public String getSummary() {
+        return summary;
+    }
+
+    /**
+     * Schedules compaction of the messages dropped from the conversation history.
+     *
+     * @param droppedMessages the dropped messages, oldest first
+     */
+    public void compact(List<Message> droppedMessages) {
+        int generation = this.generation;
+        List<Message> messages = List.copyOf(droppedMessages);
+        executor.execute(() -> {
+            if (generation != this.generation)
+                return;
+
+            String transcript = toTranscript(summary, messages);
+            String transcriptHash = hash(transcript);
+            String newSummary = summaries.get(transcriptHash);
+            if (newSummary == null) {
+                try {
+                    newSummary = summarizer.apply(List.of(new SystemMessage(SUMMARY_INSTRUCTIONS), new UserMessage(transcript)));
+                } catch (RuntimeException e) {
+                    LOG.warn("Unable to summarize conversation history", e);
+                    return;
+                }
+                if (newSummary == null || newSummary.isBlank())
+                    return;
+
+                newSummary = newSummary.strip();
+                summaries.put(transcriptHash, newSummary);
+            }
+            if (generation == this.generation)
+                summary = newSummary;
+        });
+    }
+
+    /**
+     * Forgets the summary, e.g. when the conversation is cleared. Pending compactions are discarded.
+     */
+    public void clear() {
+        generation++;
+        summary = null;
+    }
+
+    static String toTranscript(String previousSummary, List<Message> messages) {
+        var buf = new StringBuilder();
+        if (previousSummary != null)
+            buf.append("Summary of the earlier conversation:\n").append(previousSummary).append("\n\n");
+        for (Message message : messages) {
+            String role = switch (message.getMessageType()) {
+                case USER -> "User";
+                case ASSISTANT -> "Assistant";
+                case TOOL -> "Tool";
+                default -> null;
+            };
+            if (role != null && message.getText() != null)
+                buf.append(role).append(": ").append(message.getText().strip()).append("\n\n");
+        }
+        return buf.toString().stripTrailing();
+    }
+
+    private static String hash(String transcript) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(transcript.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not supported", e);
+        }
+    }
+
+    private static String summarizeWithConfiguredAssistant(List<Message> messages) {
+        var settings = GeneralSettings.getInstance();
+        AssistantType assistantType = settings.getHistoryCompactionAssistant();
+        ModelType model = settings.getAssistantOptions(assistantType).getModelType();
+
+        List<Message> prompt = new ArrayList<>(messages);
+        if (!model.supportsSystemMessage()) {
+            var text = new StringBuilder();
+            for (Message message : messages)
+                text.append(text.isEmpty() ? "" : "\n\n").append(message.getText());
+            prompt = new ArrayList<>(List.of(new UserMessage(text.toString())));
+        }
+        new ContextWindowPacker(model.getTokenEstimator()).pack(prompt, ContextWindowPacker.getPromptTokenBudget(model));
+
+        // made through the scheduler, which retries it when rate limited or failing transiently
+        var request = new Prompt(prompt);
+        var chatClient = ChatClientHolder.getChatClient(assistantType);
+        var response = RateLimitScheduler.getInstance().schedule(assistantType, request,
+                Mono.fromCallable(() -> chatClient.prompt(request).call().chatResponse()).flux()).blockLast();
+        return (response == null || response.getResult() == null) ? null : response.getResult().getOutput().getText();
+    }
+}
@@ -5,39 +5,116 @@
 package com.didalgo.intellij.chatgpt.chat.client;
 
 import com.didalgo.intellij.chatgpt.chat.AssistantType;
+import com.didalgo.intellij.chatgpt.settings.GeneralSettings;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.beans.factory.DisposableBean;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Holds the chat client of each assistant, and rebuilds it only when the options of the assistant
+ * change, as found by their {@link Fingerprint}. The fingerprint holds the revision of the API key
+ * rather than the key itself, so that it is taken without reading the credential store.
+ * <p>
+ * The clients of the enabled assistants are built ahead of time on a background thread, after startup
+ * and after settings are applied, so that sending a prompt does not wait for the model construction.
+ */
 public class ChatClientHolder {
 
     private static final Logger log = Logger.getInstance(ChatClientHolder.class);
 
-    private static final Map<AssistantType, ChatClient> chatClients = new ConcurrentHashMap<>();
+    private static final Map<AssistantType, Holder> chatClients = new ConcurrentHashMap<>();
 
+    private record Holder(Fingerprint fingerprint, ChatClient chatClient) { }
 
-    public static synchronized ChatClient getChatClient(AssistantType type) {
-        return chatClients.computeIfAbsent(type, __ -> createChatClient(type));
+    /**
+     * The options of an assistant its chat client is built with.
+     */
+    record Fingerprint(
+            String modelName,
+            long apiKeyRevision,
+            double temperature,
+            double topP,
+            String reasoningEffort,
+            boolean enableStreamOptions,
+            String apiEndpointUrl,
+            String azureApiEndpoint,
+            String azureDeploymentName,
+            String readTimeout
+    ) {
+        static Fingerprint of(GeneralSettings.AssistantOptions options, String readTimeout) {
+            var apiEndpointUrl = options.isEnableCustomApiEndpointUrl() ? options.getApiEndpointUrl() : null;
+            return new Fingerprint(
+                    options.getModelName(),
+                    options.getApiKeyRevision(),
+                    options.getTemperature(),
+                    options.getTopP(),
+                    options.isReasoningEffortEnabled() ? options.getReasoningEffort() : null,
+                    options.isEnableStreamOptions(),
+                    apiEndpointUrl,
+                    options.getAzureApiEndpoint(),
+                    options.getAzureDeploymentName(),
+                    readTimeout);
+        }
     }
 
-    public static synchronized void refresh() {
-        List<ChatClient> clients = new ArrayList<>(chatClients.values());
-        chatClients.clear();
-        clients.forEach(client -> {
-            if (client instanceof DisposableBean disposable) {
-                try {
-                    disposable.destroy();
-                } catch (Exception e) {
-                    log.error(e);
-                }
-            }
+    public static ChatClient getChatClient(AssistantType type) {
+        var settings = GeneralSettings.getInstance();
+        var fingerprint = Fingerprint.of(settings.getAssistantOptions(type), settings.getReadTimeout());
+        var holder = chatClients.get(type);
+        if (holder != null && holder.fingerprint().equals(fingerprint))
+            return holder.chatClient();
+
+        var replaced = new AtomicReference<Holder>();
+        holder = chatClients.compute(type, (__, current) -> {
+            if (current != null && current.fingerprint().equals(fingerprint))
+                return current;
+
+            replaced.set(current);
+            return new Holder(fingerprint, createChatClient(type));
         });
+        if (replaced.get() != null)
+            destroy(replaced.get().chatClient());
+
+        return holder.chatClient();
+    }
+
+    /**
+     * Rebuilds, in the background, the chat clients of the enabled assistants whose options changed.
+     */
+    public static void refresh() {
+        ApplicationManager.getApplication().executeOnPooledThread(ChatClientHolder::prepareChatClients);
+    }
+
+    /**
+     * Builds the chat clients of the enabled assistants, unless they are up to date.
+     */
+    public static void prepareChatClients() {
+        for (var type : List.copyOf(GeneralSettings.getInstance().getEnabledInToolWindow())) {
+            if (type.getFamily() == null)
+                continue;
+            try {
+                getChatClient(type);
+            } catch (Exception e) {
+                // incomplete options, reported when a prompt is sent
+                log.debug("Unable to prepare chat client of " + type, e);
+            }
+        }
+    }
+
+    private static void destroy(ChatClient client) {
+        if (client instanceof DisposableBean disposable) {
+            try {
+                disposable.destroy();
+            } catch (Exception e) {
+                log.error(e);
+            }
+        }
     }
 
     protected static ChatClient createChatClient(AssistantType type) {
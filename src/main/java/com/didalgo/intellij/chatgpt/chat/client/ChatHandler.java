@@ -4,14 +4,22 @@
  */
 package com.didalgo.intellij.chatgpt.chat.client;
 
+import com.didalgo.intellij.chatgpt.chat.AssistantType;
 import com.didalgo.intellij.chatgpt.chat.ChatMessageEvent;
 import com.didalgo.intellij.chatgpt.chat.ChatMessageListener;
+import com.didalgo.intellij.chatgpt.chat.ContextWindowPacker;
 import com.didalgo.intellij.chatgpt.chat.ConversationContext;
 import com.didalgo.intellij.chatgpt.chat.models.ModelType;
+import com.didalgo.intellij.chatgpt.settings.GeneralSettings;
+import com.didalgo.intellij.chatgpt.text.ChunkLog;
 import com.intellij.openapi.diagnostic.Logger;
 import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.Nullable;
 import org.reactivestreams.Subscription;
 import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.metadata.ChatResponseMetadata;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.model.Generation;
@@ -26,6 +34,8 @@ public class ChatHandler {
 
     private static final Logger LOG = Logger.getInstance(ChatHandler.class);
 
+    private final SingleFlight<String, ChatResponse> inFlightRequests = new SingleFlight<>();
+
     public Flux<?> handle(ConversationContext ctx, ChatMessageEvent.Initiating event, ChatMessageListener listener) {
         var modelType = ctx.getModelType();
         var chatClient = ChatClientHolder.getChatClient(ctx.getAssistantType());
@@ -34,25 +44,121 @@ public class ChatHandler {
                 .map(prmpt -> maybeOverrideChatOptions(modelType, prmpt))
                 .orElseThrow(() -> new IllegalArgumentException("Prompt is required"));
 
+        var settings = GeneralSettings.getInstance();
+        var responseCache = settings.isEnableResponseCache() ? ResponseCache.getInstance() : null;
+        var settingsDescription = describeSettings(ctx.getAssistantType());
+        var requestKey = ResponseCache.key(prompt, modelType.id(), settingsDescription);
+        var fingerprint = (responseCache == null || !settings.isEnableSimilarPromptCache()) ? null
+                : SimilarPromptIndex.fingerprint(prompt, modelType.id(), settingsDescription);
+        var cachedResponse = (responseCache == null) ? null
+                : findCachedResponse(responseCache, requestKey, fingerprint, settings.getSimilarPromptThreshold() / 100f);
+        if (cachedResponse != null) {
+            return cachedResponse
+                    .doOnSubscribe(flowHandler.onSubscribe(event))
+                    .doOnError(flowHandler.onError())
+                    .doOnComplete(flowHandler.onComplete(ctx))
+                    .doOnNext(flowHandler.onNextChunk());
+        }
+
         if (modelType.supportsStreaming()) {
             try {
-                return chatClient.prompt(prompt).stream().chatResponse()
+                var assistantType = ctx.getAssistantType();
+                var latency = FirstTokenLatency.getInstance();
+                var scheduler = RateLimitScheduler.getInstance();
+                var call = scheduler.schedule(assistantType, prompt,
+                        latency.timed(assistantType, chatClient.prompt(prompt).stream().chatResponse()));
+                var fallback = getHedgeFallback(settings, assistantType);
+                if (fallback != null) {
+                    var fallbackPrompt = fallbackPrompt(prompt, modelType, settings.getAssistantOptions(fallback).getModelType());
+                    var fallbackCall = Flux.defer(() -> ChatClientHolder.getChatClient(fallback)
+                            .prompt(fallbackPrompt).stream().chatResponse());
+                    call = HedgedCall.withFallback(call, scheduler.schedule(fallback, fallbackPrompt, latency.timed(fallback, fallbackCall)),
+                            fallback.displayName(), latency.hedgeDelay(assistantType));
+                }
+                return inFlightRequests.share(requestKey, call)
                         .doOnSubscribe(flowHandler.onSubscribe(event))
                         .doOnError(flowHandler.onError())
                         .doOnComplete(flowHandler.onComplete(ctx))
+                        .doOnComplete(flowHandler.cacheResponse(responseCache, requestKey, fingerprint, modelType))
                         .doOnNext(flowHandler.onNextChunk());
             } catch (UnsupportedOperationException ignore) {
                 // fall through
             }
         }
-        return Mono.fromCallable(() -> chatClient.prompt(prompt).call().chatResponse())
-                .flux()
+        var call = RateLimitScheduler.getInstance().schedule(ctx.getAssistantType(), prompt,
+                Mono.fromCallable(() -> chatClient.prompt(prompt).call().chatResponse()).flux());
+        return inFlightRequests.share(requestKey, call)
                 .doOnSubscribe(flowHandler.onSubscribe(event))
                 .doOnError(flowHandler.onError())
                 .doOnComplete(flowHandler.onComplete(ctx))
+                .doOnComplete(flowHandler.cacheResponse(responseCache, requestKey, fingerprint, modelType))
                 .doOnNext(flowHandler.onNext());
     }
 
+    private static @Nullable Flux<ChatResponse> findCachedResponse(ResponseCache responseCache, String cacheKey,
+                                                                   @Nullable SimilarPromptIndex.Fingerprint fingerprint, float threshold) {
+        var cachedResponse = responseCache.get(cacheKey);
+        if (cachedResponse.isPresent())
+            return ResponseCache.replay(cachedResponse.get(), ResponseCache.CacheHit.EXACT);
+
+        if (fingerprint != null) {
+            var match = SimilarPromptIndex.getInstance().find(fingerprint, threshold);
+            if (match.isPresent() && (cachedResponse = responseCache.get(match.get().responseKey())).isPresent())
+                return ResponseCache.replay(cachedResponse.get(), ResponseCache.CacheHit.similar(match.get().similarity()));
+        }
+        return null;
+    }
+
+    private static @Nullable AssistantType getHedgeFallback(GeneralSettings settings, AssistantType assistantType) {
+        var fallback = settings.getHedgeFallbackAssistant();
+        if (!settings.isEnableHedgedRequests() || fallback == null || fallback == assistantType
+                || fallback.getFamily() == null || !fallback.isEnabled(settings)
+                || !settings.getAssistantOptions(fallback).getModelType().supportsStreaming())
+            return null;
+
+        return fallback;
+    }
+
+    /**
+     * Gives the prompt for the fallback model, built from the messages of the prompt for the primary
+     * one the way a prompt for the fallback model itself would be: with the system messages folded
+     * into a user message if unsupported, packed into its context window if smaller, and with its
+     * incompatible chat options overridden.
+     */
+    private Prompt fallbackPrompt(Prompt prompt, ModelType packedFor, ModelType model) {
+        List<Message> messages = new ArrayList<>(prompt.getInstructions());
+        int fixedMessages = 0;
+        while (fixedMessages < messages.size() && messages.get(fixedMessages).getMessageType() == MessageType.SYSTEM)
+            fixedMessages++;
+        if (!model.supportsSystemMessage() && fixedMessages > 0) {
+            var systemText = new StringBuilder();
+            for (Message message : messages.subList(0, fixedMessages))
+                systemText.append(systemText.isEmpty() ? "" : "\n\n").append(message.getText());
+            messages.subList(0, fixedMessages).clear();
+            messages.add(0, new UserMessage(systemText.toString()));
+            fixedMessages = 1;
+        }
+
+        int tokenBudget = ContextWindowPacker.getPromptTokenBudget(model);
+        if (tokenBudget < ContextWindowPacker.getPromptTokenBudget(packedFor)) {
+            var tokenEstimator = model.getTokenEstimator();
+            int[] messageTokens = messages.stream().mapToInt(tokenEstimator::countMessageTokens).toArray();
+            new ContextWindowPacker(tokenEstimator).pack(messages, messageTokens, fixedMessages, tokenBudget);
+        }
+        return maybeOverrideChatOptions(model, new Prompt(messages));
+    }
+
+    private static String describeSettings(AssistantType assistantType) {
+        if (!(assistantType instanceof AssistantType.System system) || system.getFamily() == null)
+            return assistantType.name();
+
+        var options = GeneralSettings.getInstance().getAssistantOptions(system);
+        return String.join("|", assistantType.name(), options.getModelName(),
+                String.valueOf(options.getTemperature()), String.valueOf(options.getTopP()),
+                options.isReasoningEffortEnabled() ? options.getReasoningEffort() : "",
+                options.getApiEndpointUrl(), options.getAzureApiEndpoint(), options.getAzureDeploymentName());
+    }
+
     private Prompt maybeOverrideChatOptions(ModelType modelType, Prompt prompt) {
         var optionsOverride = modelType.incompatibleChatOptionsOverride();
         if (optionsOverride != ModelType.OVERRIDE_NONE)
@@ -63,13 +169,13 @@ public class ChatHandler {
 
     static class ChatCompletionHandler {
         private final ChatMessageListener listener;
-        private final SortedMap<Integer, StringBuffer> partialResponseChoices;
+        private final ChunkLog partialResponse;
         private final SortedMap<Integer, ChatResponseMetadata> lastMetadata;
         private volatile ChatMessageEvent.Started event;
 
         public ChatCompletionHandler(ChatMessageListener listener) {
             this.listener = listener;
-            this.partialResponseChoices = Collections.synchronizedSortedMap(new TreeMap<>());
+            this.partialResponse = new ChunkLog();
             this.lastMetadata = Collections.synchronizedSortedMap(new TreeMap<>());
         }
 
@@ -81,7 +187,7 @@ public class ChatHandler {
 
         public Runnable onComplete(ConversationContext ctx) {
             return () -> {
-                var assistantMessages = toMessages(partialResponseChoices);
+                var assistantMessages = toMessages(partialResponse);
                 if (!assistantMessages.isEmpty()) {
                     ctx.addChatMessage(assistantMessages.get(0).getOutput());
                 }
@@ -89,10 +195,25 @@ public class ChatHandler {
             };
         }
 
+        public Runnable cacheResponse(@Nullable ResponseCache responseCache, String cacheKey,
+                                      @Nullable SimilarPromptIndex.Fingerprint fingerprint, ModelType modelType) {
+            return () -> {
+                var metadata = lastMetadata.get(0);
+                boolean answeredByFallback = metadata != null && metadata.containsKey(HedgedCall.ANSWERED_BY);
+                if (responseCache != null && partialResponse.length() > 0 && !answeredByFallback) {
+                    responseCache.put(cacheKey, modelType.id(), partialResponse.toString());
+                    if (fingerprint != null)
+                        SimilarPromptIndex.getInstance().add(fingerprint, cacheKey);
+                }
+            };
+        }
+
         public Consumer<ChatResponse> onNextChunk() {
             return chunk -> {
                 if (chunk.getResult() != null) {
-                    listener.responseArriving(event.responseArriving(chunk, formResponse(chunk, chunk.getResult())));
+                    var delta = StringUtils.defaultIfEmpty(chunk.getResult().getOutput().getText(), "");
+                    var offset = appendResponse(chunk, delta);
+                    listener.responseArriving(event.responseArriving(chunk, delta, offset, partialResponse.snapshot(offset + delta.length())));
                 } else if (chunk.getMetadata() != null) {
                     lastMetadata.put(0, chunk.getMetadata());
                 }
@@ -102,7 +223,8 @@ public class ChatHandler {
         public Consumer<ChatResponse> onNext() {
             return result -> {
                 if (result.getResult() != null) {
-                    listener.responseArrived(event.responseArrived(new ChatResponse(formResponse(result, result.getResult()), lastMetadata.get(0))));
+                    appendResponse(result, StringUtils.defaultIfEmpty(result.getResult().getOutput().getText(), ""));
+                    listener.responseArrived(event.responseArrived(new ChatResponse(toMessages(partialResponse), lastMetadata.get(0))));
                 }
             };
         }
@@ -114,17 +236,13 @@ public class ChatHandler {
             };
         }
 
-        private List<Generation> formResponse(ChatResponse response, Generation choice) {
-            partialResponseChoices.computeIfAbsent(0, __ -> new StringBuffer())
-                    .append(StringUtils.defaultIfEmpty(choice.getOutput().getText(), ""));
+        private int appendResponse(ChatResponse response, String delta) {
             lastMetadata.put(0, response.getMetadata());
-            return toMessages(partialResponseChoices);
+            return partialResponse.append(delta);
         }
 
-        private List<Generation> toMessages(SortedMap<Integer, StringBuffer> partialResponseChoices) {
-            List<AssistantMessage> responseChoices = new ArrayList<>(partialResponseChoices.size());
-            partialResponseChoices.forEach((key, value) -> responseChoices.add(new AssistantMessage(value.toString())));
-            return List.of(new Generation(new AssistantMessage(responseChoices.get(0).getText())));
+        private List<Generation> toMessages(ChunkLog partialResponse) {
+            return List.of(new Generation(new AssistantMessage(partialResponse.toString())));
         }
     }
 }
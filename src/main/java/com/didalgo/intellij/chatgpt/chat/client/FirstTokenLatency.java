@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat.client;
+
+import com.didalgo.intellij.chatgpt.chat.AssistantType;
+import com.intellij.openapi.application.ApplicationManager;
+import org.springframework.ai.chat.model.ChatResponse;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Learns the time to first token of each assistant from its recent responses, to decide when a
+ * response is late enough to be hedged with another assistant.
+ * <p>
+ * A response cancelled before its first token, e.g. lost to a hedged request, counts with the time
+ * it waited, which is less than its true time to first token. Otherwise slow responses would never
+ * be counted once hedged, and the learned latency would keep falling.
+ *
+ * @author Mariusz Bernacki
+ */
+public class FirstTokenLatency {
+
+    public static final int MAX_SAMPLES = 50;
+    public static final int MIN_SAMPLES = 5;
+    public static final Duration DEFAULT_HEDGE_DELAY = Duration.ofSeconds(8);
+    public static final Duration MIN_HEDGE_DELAY = Duration.ofMillis(500);
+
+    private final Map<String, Samples> samples = new ConcurrentHashMap<>();
+
+    public static FirstTokenLatency getInstance() {
+        return ApplicationManager.getApplication().getService(FirstTokenLatency.class);
+    }
+
+    /**
+     * Records the time to first token of a response of the assistant.
+     */
+    public void record(AssistantType assistant, Duration latency) {
+        samples.computeIfAbsent(assistant.name(), __ -> new Samples()).add(latency.toNanos());
+    }
+
+    /**
+     * Gives the percentile of the recent times to first token of the assistant, or nothing
+     * if too few responses were seen yet.
+     *
+     * @param assistant the assistant
+     * @param percentile the percentile, from 0 to 100
+     */
+    public Optional<Duration> percentile(AssistantType assistant, double percentile) {
+        var assistantSamples = samples.get(assistant.name());
+        return (assistantSamples == null) ? Optional.empty() : assistantSamples.percentile(percentile).map(Duration::ofNanos);
+    }
+
+    /**
+     * Gives the time to wait for the first token of the assistant before hedging the request,
+     * the 95th percentile of the recent times to first token.
+     */
+    public Duration hedgeDelay(AssistantType assistant) {
+        var latency = percentile(assistant, 95).orElse(DEFAULT_HEDGE_DELAY);
+        return (latency.compareTo(MIN_HEDGE_DELAY) < 0) ? MIN_HEDGE_DELAY : latency;
+    }
+
+    /**
+     * Records the time to first token of the call each time it is subscribed.
+     *
+     * @param assistant the assistant making the call
+     * @param call the streaming call
+     */
+    public Flux<ChatResponse> timed(AssistantType assistant, Flux<ChatResponse> call) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            var recorded = new AtomicBoolean();
+            Runnable record = () -> {
+                if (recorded.compareAndSet(false, true))
+                    record(assistant, Duration.ofNanos(System.nanoTime() - start));
+            };
+            return call
+                    .doOnNext(chunk -> {
+                        if (HedgedCall.hasContent(chunk))
+                            record.run();
+                    })
+                    .doOnCancel(record);
+        });
+    }
+
+    private static final class Samples {
+        private final long[] values = new long[MAX_SAMPLES];
+        private int count;
+        private int next;
+
+        synchronized void add(long value) {
+            values[next] = value;
+            next = (next + 1) % MAX_SAMPLES;
+            count = Math.min(count + 1, MAX_SAMPLES);
+        }
+
+        synchronized Optional<Long> percentile(double percentile) {
+            if (count < MIN_SAMPLES)
+                return Optional.empty();
+
+            var sorted = Arrays.copyOf(values, count);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+            return Optional.of(sorted[Math.max(0, Math.min(sorted.length, rank) - 1)]);
+        }
+    }
+}
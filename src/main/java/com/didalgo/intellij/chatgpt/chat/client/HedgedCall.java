@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat.client;
+
+import com.didalgo.intellij.chatgpt.chat.metadata.ChatResponseMetadataBuilder;
+import org.springframework.ai.chat.model.ChatResponse;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Hedges a streaming call with a call to a fallback assistant, made if the first one is slow to
+ * produce its first token.
+ * <p>
+ * The call producing content first wins, and the other one is cancelled. The fallback call is made
+ * right away also if the first one fails or completes without content before the delay elapses, so
+ * the request fails only if both calls do. Chunks of the fallback call carry the {@link #ANSWERED_BY} metadata.
+ *
+ * @author Mariusz Bernacki
+ */
+public final class HedgedCall {
+
+    /** The metadata key of the name of the fallback assistant which answered a hedged request. */
+    public static final String ANSWERED_BY = "answered-by";
+
+    private HedgedCall() { }
+
+    /**
+     * Makes the streaming call, and the fallback call too once the delay elapses without content,
+     * or the call ends without content, whichever happens first.
+     *
+     * @param call the streaming call
+     * @param fallbackCall the streaming call of the fallback assistant
+     * @param fallbackName the display name of the fallback assistant
+     * @param delay the time to wait for the first token of the call before making the fallback call
+     */
+    public static Flux<ChatResponse> withFallback(Flux<ChatResponse> call, Flux<ChatResponse> fallbackCall,
+                                                  String fallbackName, Duration delay) {
+        var fallback = fallbackCall.map(chunk -> answeredBy(chunk, fallbackName));
+        return Flux.defer(() -> {
+                    Sinks.Empty<Void> callEnded = Sinks.empty();
+                    var firstCall = untilContent(call).doOnTerminate(() -> callEnded.tryEmitEmpty());
+                    var fallbackStart = Mono.firstWithSignal(Mono.delay(delay).then(), callEnded.asMono());
+                    return Flux.firstWithValue(firstCall, fallbackStart.thenMany(untilContent(fallback)));
+                })
+                .onErrorResume(NoSuchElementException.class, HedgedCall::firstFailure);
+    }
+
+    static boolean hasContent(ChatResponse chunk) {
+        var result = chunk.getResult();
+        return result != null && result.getOutput() != null
+                && result.getOutput().getText() != null && !result.getOutput().getText().isEmpty();
+    }
+
+    /**
+     * Holds back the leading chunks without content, e.g. the role or metadata ones, until the first
+     * chunk with content arrives, and drops them if it never does.
+     */
+    static Flux<ChatResponse> untilContent(Flux<ChatResponse> call) {
+        return call.bufferUntil(HedgedCall::hasContent)
+                .skipUntil(chunks -> hasContent(chunks.get(chunks.size() - 1)))
+                .concatMapIterable(chunks -> chunks);
+    }
+
+    private static ChatResponse answeredBy(ChatResponse chunk, String assistantName) {
+        var metadata = new ChatResponseMetadataBuilder();
+        metadata.accept(chunk.getMetadata());
+        return new ChatResponse(chunk.getResults(), metadata.keyValue(ANSWERED_BY, assistantName).build());
+    }
+
+    private static Flux<ChatResponse> firstFailure(NoSuchElementException allFailed) {
+        List<Throwable> failures = Exceptions.unwrapMultiple(allFailed.getCause());
+        if (failures.isEmpty())
+            failures = List.of(allFailed.getSuppressed());
+
+        // a call completing without content is recorded as NoSuchElementException, and is not a failure
+        return failures.stream()
+                .filter(failure -> !(failure instanceof NoSuchElementException))
+                .findFirst()
+                .map(Flux::<ChatResponse>error)
+                .orElseGet(Flux::empty);
+    }
+}
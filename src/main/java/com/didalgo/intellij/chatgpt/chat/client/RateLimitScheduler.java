@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat.client;
+
+import com.didalgo.intellij.chatgpt.chat.AssistantType;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.serviceContainer.NonInjectable;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.ai.chat.metadata.EmptyRateLimit;
+import org.springframework.ai.chat.metadata.RateLimit;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Delays prompts sent to an assistant which would exceed its rate limits, instead of letting them
+ * fail with {@code 429 Too Many Requests}.
+ * <p>
+ * Each assistant has a token bucket holding the requests and tokens remaining until the limits reset,
+ * as reported by the provider in the response metadata. A prompt is sent right away while they last,
+ * and otherwise waits until the reset, without blocking a thread. The prompt size is estimated from
+ * its length. A prompt failing with {@code 429} anyway is retried a few times, after an exponential
+ * backoff with jitter, but never before the time given by the provider in {@code Retry-After}, or before
+ * the limits reset. Until the provider reports its limits, prompts are not delayed.
+ * <p>
+ * Prompts failing transiently, i.e. with a server error such as {@code 503} or Anthropic's {@code 529},
+ * or a connection error, are retried the same way, as long as no response chunk has been received yet.
+ *
+ * @author Mariusz Bernacki
+ */
+public class RateLimitScheduler {
+
+    static final int MAX_RETRIES = 3;
+    static final Duration BASE_BACKOFF = Duration.ofSeconds(1);
+    static final Duration MAX_BACKOFF = Duration.ofMinutes(1);
+    static final int CHARS_PER_TOKEN = 4;
+
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final LongSupplier nanoTime;
+    private final DoubleSupplier jitter;
+
+    /**
+     * The prompts waiting for the rate limits of an assistant.
+     *
+     * @param queued the number of prompts waiting
+     * @param expectedWait the time until the last of them is sent
+     */
+    public record QueueStatus(int queued, Duration expectedWait) {
+        public static final QueueStatus EMPTY = new QueueStatus(0, Duration.ZERO);
+    }
+
+    public RateLimitScheduler() {
+        this(System::nanoTime, () -> ThreadLocalRandom.current().nextDouble());
+    }
+
+    @NonInjectable
+    RateLimitScheduler(LongSupplier nanoTime, DoubleSupplier jitter) {
+        this.nanoTime = nanoTime;
+        this.jitter = jitter;
+    }
+
+    public static RateLimitScheduler getInstance() {
+        return ApplicationManager.getApplication().getService(RateLimitScheduler.class);
+    }
+
+    /**
+     * Makes the call once the rate limits of the assistant allow it, and learns the limits from
+     * the responses.
+     *
+     * @param assistant the assistant making the call
+     * @param prompt the prompt sent with the call
+     * @param call the call
+     */
+    public Flux<ChatResponse> schedule(AssistantType assistant, Prompt prompt, Flux<ChatResponse> call) {
+        var bucket = bucket(assistant);
+        long tokens = estimateTokens(prompt);
+        return Flux.defer(() -> {
+            var responding = new AtomicBoolean();
+            return Flux.defer(() -> {
+                        long wait = bucket.reserve(nanoTime.getAsLong(), tokens);
+                        return (wait <= 0) ? call : Mono.delay(Duration.ofNanos(wait))
+                                .doFinally(signal -> bucket.dequeue())
+                                .thenMany(call);
+                    })
+                    .doOnNext(chunk -> {
+                        responding.set(true);
+                        update(assistant, chunk.getMetadata().getRateLimit());
+                    })
+                    .retryWhen(Retry.from(signals -> signals.concatMap(signal -> {
+                        var failure = signal.failure();
+                        if (signal.totalRetries() >= MAX_RETRIES || responding.get()
+                                || !isTooManyRequests(failure) && !isTransient(failure))
+                            return Mono.error(failure);
+
+                        throttle(assistant, signal.totalRetries(), retryAfter(failure));
+                        return Mono.just(signal.totalRetries());
+                    })));
+        });
+    }
+
+    /**
+     * Gives the prompts waiting for the rate limits of the assistant.
+     */
+    public QueueStatus getQueueStatus(AssistantType assistant) {
+        var bucket = buckets.get(assistant.name());
+        return (bucket == null) ? QueueStatus.EMPTY : bucket.status(nanoTime.getAsLong());
+    }
+
+    void update(AssistantType assistant, @Nullable RateLimit rateLimit) {
+        if (rateLimit != null && !(rateLimit instanceof EmptyRateLimit))
+            bucket(assistant).update(nanoTime.getAsLong(), rateLimit);
+    }
+
+    void throttle(AssistantType assistant, long retries, @Nullable Duration retryAfter) {
+        var backoff = BASE_BACKOFF.multipliedBy(1L << Math.min(retries, 16));
+        if (backoff.compareTo(MAX_BACKOFF) > 0)
+            backoff = MAX_BACKOFF;
+        backoff = backoff.plus(Duration.ofNanos((long) (backoff.toNanos() * jitter.getAsDouble() / 2)));
+
+        bucket(assistant).throttle(nanoTime.getAsLong(), backoff, retryAfter);
+    }
+
+    Duration reserve(AssistantType assistant, long tokens) {
+        return Duration.ofNanos(Math.max(0, bucket(assistant).reserve(nanoTime.getAsLong(), tokens)));
+    }
+
+    private Bucket bucket(AssistantType assistant) {
+        return buckets.computeIfAbsent(assistant.name(), __ -> new Bucket());
+    }
+
+    static long estimateTokens(Prompt prompt) {
+        long chars = 0;
+        for (var message : prompt.getInstructions())
+            if (message.getText() != null)
+                chars += message.getText().length();
+        return chars / CHARS_PER_TOKEN;
+    }
+
+    static boolean isTooManyRequests(Throwable failure) {
+        for (var cause = failure; cause != null; cause = (cause.getCause() == cause) ? null : cause.getCause()) {
+            if (cause instanceof WebClientResponseException webClientException && webClientException.getStatusCode().value() == 429
+                    || cause instanceof RestClientResponseException restClientException && restClientException.getStatusCode().value() == 429
+                    || cause.getMessage() != null && cause.getMessage().startsWith("429"))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Tells whether the failure is likely to go away when retried, i.e. is a server or connection error.
+     */
+    static boolean isTransient(Throwable failure) {
+        for (var cause = failure; cause != null; cause = (cause.getCause() == cause) ? null : cause.getCause()) {
+            if (cause instanceof NonTransientAiException)
+                return false;
+            if (cause instanceof TransientAiException
+                    || cause instanceof WebClientResponseException webClientException && webClientException.getStatusCode().is5xxServerError()
+                    || cause instanceof RestClientResponseException restClientException && restClientException.getStatusCode().is5xxServerError()
+                    || cause instanceof WebClientRequestException
+                    || cause instanceof ResourceAccessException
+                    || cause instanceof IOException)
+                return true;
+        }
+        return false;
+    }
+
+    static @Nullable Duration retryAfter(Throwable failure) {
+        HttpHeaders headers = null;
+        for (var cause = failure; cause != null && headers == null; cause = (cause.getCause() == cause) ? null : cause.getCause()) {
+            headers = (cause instanceof WebClientResponseException webClientException) ? webClientException.getHeaders()
+                    : (cause instanceof RestClientResponseException restClientException) ? restClientException.getResponseHeaders()
+                    : null;
+        }
+        if (headers == null)
+            return null;
+
+        try {
+            var retryAfterMs = headers.getFirst("retry-after-ms");
+            if (retryAfterMs != null)
+                return Duration.ofMillis((long) Double.parseDouble(retryAfterMs));
+            var retryAfter = headers.getFirst("retry-after");
+            if (retryAfter != null)
+                return Duration.ofMillis((long) (Double.parseDouble(retryAfter) * 1000));
+        } catch (NumberFormatException e) {
+            // an HTTP date, left to the backoff
+        }
+        return null;
+    }
+
+    /**
+     * The requests and tokens remaining of an assistant, all times in {@link System#nanoTime()} units.
+     * A negative number remaining means it is unknown.
+     */
+    private static final class Bucket {
+        private long requestsRemaining = -1;
+        private long requestsReset;
+        private long tokensRemaining = -1;
+        private long tokensReset;
+        private long blockedUntil;
+        private int queued;
+        private long lastQueuedReady;
+
+        synchronized void update(long now, RateLimit rateLimit) {
+            if (rateLimit.getRequestsRemaining() != null && rateLimit.getRequestsReset() != null) {
+                requestsRemaining = rateLimit.getRequestsRemaining();
+                requestsReset = now + rateLimit.getRequestsReset().toNanos();
+            }
+            if (rateLimit.getTokensRemaining() != null && rateLimit.getTokensReset() != null) {
+                tokensRemaining = rateLimit.getTokensRemaining();
+                tokensReset = now + rateLimit.getTokensReset().toNanos();
+            }
+        }
+
+        synchronized void throttle(long now, Duration backoff, @Nullable Duration retryAfter) {
+            long until = now + backoff.toNanos();
+            if (retryAfter != null)
+                until = Math.max(until, now + retryAfter.toNanos());
+            if (requestsRemaining == 0)
+                until = Math.max(until, requestsReset);
+            if (tokensRemaining == 0)
+                until = Math.max(until, tokensReset);
+            blockedUntil = Math.max(blockedUntil, until);
+        }
+
+        /**
+         * Takes a request and the tokens from the bucket, and gives the time to wait until it can be sent.
+         */
+        synchronized long reserve(long now, long tokens) {
+            // once the limits reset, they are unknown until the next response
+            if (requestsRemaining >= 0 && now - requestsReset >= 0)
+                requestsRemaining = -1;
+            if (tokensRemaining >= 0 && now - tokensReset >= 0)
+                tokensRemaining = -1;
+
+            long ready = Math.max(now, blockedUntil);
+            if (requestsRemaining == 0)
+                ready = Math.max(ready, requestsReset);
+            else if (requestsRemaining > 0)
+                requestsRemaining--;
+            if (tokensRemaining >= 0 && tokensRemaining < tokens)
+                ready = Math.max(ready, tokensReset);
+            else if (tokensRemaining >= 0)
+                tokensRemaining -= tokens;
+
+            long wait = ready - now;
+            if (wait > 0) {
+                queued++;
+                lastQueuedReady = Math.max(lastQueuedReady, ready);
+            }
+            return wait;
+        }
+
+        synchronized void dequeue() {
+            queued--;
+        }
+
+        synchronized QueueStatus status(long now) {
+            return (queued <= 0) ? QueueStatus.EMPTY
+                    : new QueueStatus(queued, Duration.ofNanos(Math.max(0, lastQueuedReady - now)));
+        }
+    }
+}
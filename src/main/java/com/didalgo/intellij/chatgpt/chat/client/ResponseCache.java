@@ -0,0 +1,369 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat.client;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.serviceContainer.NonInjectable;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.Media;
+import org.springframework.ai.model.MediaContent;
+import reactor.core.publisher.Flux;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+
+/**
+ * Caches assistant responses on disk, keyed by the exact prompt they were given, so a repeated request,
+ * such as an editor action run again on unchanged code, is answered locally without calling the assistant.
+ * <p>
+ * Entries expire once their time-to-live has passed since they were cached, however often they are
+ * used, and the least recently used ones are evicted when the cache grows over its size limit. The last
+ * access time of an entry is kept as its file modification time, so the eviction order survives IDE
+ * restarts. A cached response is replayed as a stream of chunks,
+ * so it takes the same path through the UI as a response streamed by the assistant.
+ *
+ * @author Mariusz Bernacki
+ */
+public class ResponseCache {
+
+    private static final Logger LOG = Logger.getInstance(ResponseCache.class);
+
+    /** The response metadata key marking a response replayed from the cache, with its {@link CacheHit} as value. */
+    public static final String CACHED_RESPONSE = "cached-response";
+
+    public static final long DEFAULT_MAX_SIZE = 32 * 1024 * 1024;
+    public static final Duration DEFAULT_TIME_TO_LIVE = Duration.ofDays(7);
+
+    private static final String ENTRY_SUFFIX = ".response";
+    private static final int ENTRY_VERSION = 1;
+    private static final int REPLAY_CHUNK_SIZE = 256;
+
+    private final Path directory;
+    private final long maxSize;
+    private final Duration timeToLive;
+    private final Executor executor;
+    private final Clock clock;
+
+    // guarded by this, in the least recently used first order
+    private final LinkedHashMap<String, Long> entrySizes = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+    private boolean loaded;
+
+    /**
+     * A cached response.
+     *
+     * @param modelId the model which gave the response
+     * @param text the response text
+     * @param timestamp the time the response was cached, in epoch millis
+     */
+    public record CachedResponse(String modelId, String text, long timestamp) { }
+
+    /**
+     * How a replayed response was found for the prompt.
+     *
+     * @param exact {@code true} if cached for the same exact prompt, {@code false} if for a similar one
+     * @param similarity the estimated similarity of the prompts
+     */
+    public record CacheHit(boolean exact, float similarity) {
+        public static final CacheHit EXACT = new CacheHit(true, 1f);
+
+        public static CacheHit similar(float similarity) {
+            return new CacheHit(false, similarity);
+        }
+    }
+
+    public ResponseCache() {
+        this(Path.of(PathManager.getSystemPath(), "ai-assistant-cache", "responses"), DEFAULT_MAX_SIZE, DEFAULT_TIME_TO_LIVE,
+                AppExecutorUtil.createBoundedApplicationPoolExecutor("AI Assistant Response Cache", 1), Clock.systemUTC());
+    }
+
+    @NonInjectable
+    public ResponseCache(Path directory, long maxSize, Duration timeToLive, Executor executor, Clock clock) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.timeToLive = timeToLive;
+        this.executor = executor;
+        this.clock = clock;
+    }
+
+    public static ResponseCache getInstance() {
+        return ApplicationManager.getApplication().getService(ResponseCache.class);
+    }
+
+    /**
+     * Gives the cache key of the prompt, i.e. the hash of its messages and options, the model it is sent to,
+     * and the assistant settings affecting the response.
+     *
+     * @param prompt the prompt as sent to the assistant
+     * @param modelId the model the prompt is sent to
+     * @param settings the assistant settings not included in the prompt options, e.g. the default temperature
+     * @return the hex-encoded SHA-256 hash
+     */
+    public static String key(Prompt prompt, String modelId, String settings) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        update(digest, modelId);
+        update(digest, settings);
+        update(digest, describe(prompt.getOptions()));
+        for (Message message : prompt.getInstructions()) {
+            update(digest, message.getMessageType().name());
+            update(digest, message.getText());
+            if (message instanceof MediaContent content) {
+                for (Media media : content.getMedia()) {
+                    update(digest, String.valueOf(media.getMimeType()));
+                    if (media.getData() instanceof byte[] data) {
+                        digest.update(data);
+                        update(digest, "");
+                    } else {
+                        update(digest, String.valueOf(media.getData()));
+                    }
+                }
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, @Nullable String text) {
+        byte[] bytes = String.valueOf(text).getBytes(StandardCharsets.UTF_8);
+        digest.update(bytes);
+        digest.update((byte) 0); // separator, so adjacent parts cannot shift into each other
+        digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static String describe(@Nullable ChatOptions options) {
+        if (options == null)
+            return "";
+
+        return String.join("|", options.getClass().getName(), String.valueOf(options.getModel()),
+                String.valueOf(options.getTemperature()), String.valueOf(options.getTopP()), String.valueOf(options.getTopK()),
+                String.valueOf(options.getMaxTokens()), String.valueOf(options.getStopSequences()),
+                String.valueOf(options.getFrequencyPenalty()), String.valueOf(options.getPresencePenalty()));
+    }
+
+    /**
+     * Gives the response cached under the given key, if present and not expired.
+     */
+    public Optional<CachedResponse> get(String key) {
+        synchronized (this) {
+            ensureLoaded();
+            if (entrySizes.get(key) == null) // also marks the entry as recently used
+                return Optional.empty();
+        }
+
+        Path file = entryFile(key);
+        try {
+            CachedResponse response = read(file);
+            long now = clock.millis();
+            if (now - response.timestamp() > timeToLive.toMillis()) {
+                remove(key);
+                return Optional.empty();
+            }
+            executor.execute(() -> touch(file, now));
+            return Optional.of(response);
+        } catch (IOException e) {
+            if (!(e instanceof NoSuchFileException))
+                LOG.warn("Unable to read cached response: " + file, e);
+            remove(key);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Caches the response under the given key. The entry is written in the background.
+     */
+    public void put(String key, String modelId, String text) {
+        if (text.isEmpty())
+            return;
+
+        var response = new CachedResponse(modelId, text, clock.millis());
+        executor.execute(() -> write(key, response));
+    }
+
+    /**
+     * Replays the cached response as a stream of chunks, split at line ends where possible.
+     */
+    public static Flux<ChatResponse> replay(CachedResponse response) {
+        return replay(response, CacheHit.EXACT);
+    }
+
+    /**
+     * Replays the cached response, found for the current prompt as told.
+     *
+     * @param response the cached response
+     * @param hit how the response was found, kept as the {@link #CACHED_RESPONSE} metadata value
+     */
+    public static Flux<ChatResponse> replay(CachedResponse response, CacheHit hit) {
+        var metadata = ChatResponseMetadata.builder()
+                .model(response.modelId())
+                .keyValue(CACHED_RESPONSE, hit)
+                .build();
+        return Flux.fromIterable(chunks(response.text()))
+                .map(chunk -> new ChatResponse(List.of(new Generation(new AssistantMessage(chunk))), metadata));
+    }
+
+    static List<String> chunks(String text) {
+        var chunks = new ArrayList<String>();
+        for (int start = 0; start < text.length(); ) {
+            int end = Math.min(start + REPLAY_CHUNK_SIZE, text.length());
+            if (end < text.length()) {
+                int lineEnd = text.lastIndexOf('\n', end - 1);
+                if (lineEnd >= start)
+                    end = lineEnd + 1;
+            }
+            chunks.add(text.substring(start, end));
+            start = end;
+        }
+        return chunks;
+    }
+
+    private Path entryFile(String key) {
+        return directory.resolve(key + ENTRY_SUFFIX);
+    }
+
+    private void ensureLoaded() {
+        if (loaded)
+            return;
+
+        loaded = true;
+        if (!Files.isDirectory(directory))
+            return;
+
+        record Entry(String key, long size, long lastAccessed) { }
+        var entries = new ArrayList<Entry>();
+        long expiredBefore = clock.millis() - timeToLive.toMillis();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (!name.endsWith(ENTRY_SUFFIX))
+                    continue;
+
+                long lastAccessed = Files.getLastModifiedTime(file).toMillis();
+                if (isExpired(file, expiredBefore))
+                    delete(file);
+                else
+                    entries.add(new Entry(name.substring(0, name.length() - ENTRY_SUFFIX.length()), Files.size(file), lastAccessed));
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to load response cache: " + directory, e);
+        }
+        entries.sort(Comparator.comparingLong(Entry::lastAccessed));
+        for (Entry entry : entries) {
+            entrySizes.put(entry.key(), entry.size());
+            size += entry.size();
+        }
+        evict();
+    }
+
+    private static boolean isExpired(Path file, long expiredBefore) {
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 16))) {
+            return in.readInt() != ENTRY_VERSION || in.readLong() < expiredBefore;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private void write(String key, CachedResponse response) {
+        Path file = entryFile(key);
+        try {
+            Files.createDirectories(directory);
+            Path tempFile = Files.createTempFile(directory, key, ".tmp");
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                out.writeInt(ENTRY_VERSION);
+                out.writeLong(response.timestamp());
+                writeString(out, response.modelId());
+                writeString(out, response.text());
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(response.timestamp()));
+
+            long entrySize = Files.size(file);
+            synchronized (this) {
+                ensureLoaded();
+                Long previousSize = entrySizes.put(key, entrySize);
+                size += entrySize - (previousSize == null ? 0 : previousSize);
+                evict();
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to write cached response: " + file, e);
+        }
+    }
+
+    private static CachedResponse read(Path file) throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int version = in.readInt();
+            if (version != ENTRY_VERSION)
+                throw new IOException("Unsupported cached response version: " + version);
+
+            long timestamp = in.readLong();
+            String modelId = readString(in);
+            return new CachedResponse(modelId, readString(in), timestamp);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8);
+    }
+
+    private static void touch(Path file, long now) {
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(now));
+        } catch (IOException ignore) {
+            // evicted in the meantime
+        }
+    }
+
+    private synchronized void remove(String key) {
+        Long entrySize = entrySizes.remove(key);
+        if (entrySize != null)
+            size -= entrySize;
+        delete(entryFile(key));
+    }
+
+    private void evict() {
+        for (var it = entrySizes.entrySet().iterator(); size > maxSize && it.hasNext(); ) {
+            var eldest = it.next();
+            it.remove();
+            size -= eldest.getValue();
+            delete(entryFile(eldest.getKey()));
+        }
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOG.warn("Unable to delete cached response: " + file, e);
+        }
+    }
+}
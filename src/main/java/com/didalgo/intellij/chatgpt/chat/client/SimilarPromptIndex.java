@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat.client;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.serviceContainer.NonInjectable;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.Media;
+import org.springframework.ai.model.MediaContent;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds earlier prompts nearly identical to a new one, e.g. differing only in whitespace, formatting
+ * or a trivial edit of the attached code, so their cached responses can be reused.
+ * <p>
+ * The last user message of a prompt is fingerprinted with a MinHash signature of its word shingles,
+ * which estimates the Jaccard similarity of two prompts. The rest of the prompt, i.e. the earlier
+ * conversation, the model and its settings, must match exactly. Signatures are bucketed by bands
+ * (locality-sensitive hashing), so a lookup compares only the few candidates sharing a band with the
+ * new prompt, and stays well below a millisecond for tens of thousands of prompts. No embedding model
+ * is needed. Fingerprints are appended to a log file and loaded in the background on first use, until
+ * then no similar prompts are found. The index keeps only the most recent fingerprints.
+ *
+ * @author Mariusz Bernacki
+ */
+public class SimilarPromptIndex {
+
+    private static final Logger LOG = Logger.getInstance(SimilarPromptIndex.class);
+
+    public static final int DEFAULT_MAX_ENTRIES = 50_000;
+
+    static final int SIGNATURE_SIZE = 64;
+    private static final int BANDS = 16;
+    private static final int ROWS = SIGNATURE_SIZE / BANDS;
+    private static final int SHINGLE_SIZE = 3;
+    private static final int RECORD_SIZE = Long.BYTES + SIGNATURE_SIZE * Integer.BYTES + Short.BYTES + 64;
+    private static final Pattern TOKEN = Pattern.compile("[\\p{L}\\p{N}_$]+|[^\\s\\p{L}\\p{N}_$]");
+    private static final long[] SEEDS = new long[SIGNATURE_SIZE];
+    static {
+        long seed = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < SEEDS.length; i++)
+            SEEDS[i] = seed = mix(seed + i);
+    }
+
+    private final Path file;
+    private final int maxEntries;
+    private final Executor executor;
+
+    // modified on the executor only, under the lock unless just read; entry ids grow monotonically,
+    // the entry of an id is kept at slot (id % maxEntries)
+    private volatile boolean loaded;
+    private long nextId;
+    private final long[] contexts;
+    private final int[][] signatures;
+    private final String[] responseKeys;
+    private final Map<Long, long[]> buckets = new HashMap<>();
+    private int loggedEntries;
+
+    /**
+     * A prompt fingerprint.
+     *
+     * @param context the hash of the exactly matched part of the prompt
+     * @param signature the MinHash signature of the last user message
+     */
+    public record Fingerprint(long context, int[] signature) { }
+
+    /**
+     * An earlier prompt similar to the searched one.
+     *
+     * @param responseKey the {@link ResponseCache} key of the response to the earlier prompt
+     * @param similarity the estimated similarity of the prompts, from 0 to 1
+     */
+    public record Match(String responseKey, float similarity) { }
+
+    public SimilarPromptIndex() {
+        this(Path.of(PathManager.getSystemPath(), "ai-assistant-cache", "similar-prompts.log"), DEFAULT_MAX_ENTRIES,
+                AppExecutorUtil.createBoundedApplicationPoolExecutor("AI Assistant Similar Prompt Index", 1));
+    }
+
+    @NonInjectable
+    public SimilarPromptIndex(Path file, int maxEntries, Executor executor) {
+        this.file = file;
+        this.maxEntries = maxEntries;
+        this.executor = executor;
+        this.contexts = new long[maxEntries];
+        this.signatures = new int[maxEntries][];
+        this.responseKeys = new String[maxEntries];
+    }
+
+    public static SimilarPromptIndex getInstance() {
+        return ApplicationManager.getApplication().getService(SimilarPromptIndex.class);
+    }
+
+    /**
+     * Fingerprints the prompt, if it ends with a user message.
+     *
+     * @param prompt the prompt as sent to the assistant
+     * @param modelId the model the prompt is sent to
+     * @param settings the assistant settings not included in the prompt options
+     * @return the fingerprint, or {@code null} if the prompt does not end with a user message
+     */
+    public static @Nullable Fingerprint fingerprint(Prompt prompt, String modelId, String settings) {
+        List<Message> messages = prompt.getInstructions();
+        if (messages.isEmpty() || messages.get(messages.size() - 1).getMessageType() != MessageType.USER)
+            return null;
+
+        Message lastMessage = messages.get(messages.size() - 1);
+        var earlierMessages = new Prompt(messages.subList(0, messages.size() - 1), prompt.getOptions());
+        long context = Long.parseUnsignedLong(ResponseCache.key(earlierMessages, modelId, settings).substring(0, 16), 16);
+        return new Fingerprint(context, signature(lastMessage));
+    }
+
+    static int[] signature(Message message) {
+        var shingles = new ArrayList<Long>();
+        long[] window = new long[SHINGLE_SIZE];
+        int tokens = 0;
+        Matcher matcher = TOKEN.matcher(Objects.requireNonNullElse(message.getText(), ""));
+        while (matcher.find()) {
+            window[tokens++ % SHINGLE_SIZE] = matcher.group().toLowerCase(Locale.ROOT).hashCode();
+            if (tokens >= SHINGLE_SIZE) {
+                long shingle = 0;
+                for (int i = tokens - SHINGLE_SIZE; i < tokens; i++)
+                    shingle = mix(shingle ^ window[i % SHINGLE_SIZE]);
+                shingles.add(shingle);
+            }
+        }
+        if (tokens < SHINGLE_SIZE) // too short for a single shingle
+            for (int i = 0; i < tokens; i++)
+                shingles.add(mix(window[i]));
+        if (message instanceof MediaContent content) {
+            for (Media media : content.getMedia()) {
+                Object data = media.getData();
+                shingles.add(mix((data instanceof byte[] bytes) ? Arrays.hashCode(bytes) : Objects.hashCode(data)));
+            }
+        }
+
+        int[] signature = new int[SIGNATURE_SIZE];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        for (long shingle : shingles) {
+            for (int i = 0; i < SIGNATURE_SIZE; i++) {
+                int hash = (int) (mix(shingle ^ SEEDS[i]) >>> 33);
+                if (hash < signature[i])
+                    signature[i] = hash;
+            }
+        }
+        return signature;
+    }
+
+    static float similarity(int[] signature, int[] otherSignature) {
+        int equal = 0;
+        for (int i = 0; i < SIGNATURE_SIZE; i++)
+            if (signature[i] == otherSignature[i])
+                equal++;
+        return (float) equal / SIGNATURE_SIZE;
+    }
+
+    /**
+     * Finds the most similar earlier prompt, with a similarity of at least the given threshold.
+     */
+    public Optional<Match> find(Fingerprint fingerprint, float threshold) {
+        if (!loaded) {
+            executor.execute(this::ensureLoaded);
+            if (!loaded)
+                return Optional.empty();
+        }
+        synchronized (this) {
+            return findLoaded(fingerprint, threshold);
+        }
+    }
+
+    private Optional<Match> findLoaded(Fingerprint fingerprint, float threshold) {
+        long bestId = -1;
+        float bestSimilarity = threshold;
+        for (int band = 0; band < BANDS; band++) {
+            long[] ids = buckets.get(bucketKey(fingerprint, band));
+            if (ids == null)
+                continue;
+
+            for (int i = 1; i <= ids[0]; i++) {
+                long id = ids[i];
+                int slot = (int) (id % maxEntries);
+                if (id < nextId - maxEntries || id == bestId || contexts[slot] != fingerprint.context())
+                    continue;
+
+                float similarity = similarity(fingerprint.signature(), signatures[slot]);
+                if (similarity >= bestSimilarity) {
+                    bestSimilarity = similarity;
+                    bestId = id;
+                }
+            }
+        }
+        return (bestId < 0) ? Optional.empty() : Optional.of(new Match(responseKeys[(int) (bestId % maxEntries)], bestSimilarity));
+    }
+
+    /**
+     * Adds the fingerprint of a prompt whose response was cached under the given key.
+     */
+    public void add(Fingerprint fingerprint, String responseKey) {
+        executor.execute(() -> {
+            ensureLoaded();
+            addEntry(fingerprint, responseKey);
+            append(fingerprint, responseKey);
+        });
+    }
+
+    private synchronized void addEntry(Fingerprint fingerprint, String responseKey) {
+        long id = nextId++;
+        int slot = (int) (id % maxEntries);
+        contexts[slot] = fingerprint.context();
+        signatures[slot] = fingerprint.signature();
+        responseKeys[slot] = responseKey;
+        for (int band = 0; band < BANDS; band++)
+            buckets.compute(bucketKey(fingerprint, band), (key, ids) -> addId(ids, id));
+    }
+
+    private long[] addId(long[] ids, long id) {
+        if (ids == null)
+            return new long[] { 1, id };
+
+        // drop ids of the entries overwritten in the meantime, before growing the bucket
+        int size = 0;
+        for (int i = 1; i <= ids[0]; i++)
+            if (ids[i] >= nextId - maxEntries)
+                ids[++size] = ids[i];
+        if (size + 1 >= ids.length)
+            ids = Arrays.copyOf(ids, ids.length * 2);
+        ids[++size] = id;
+        ids[0] = size;
+        return ids;
+    }
+
+    private static long bucketKey(Fingerprint fingerprint, int band) {
+        long key = mix(fingerprint.context() + band);
+        for (int i = band * ROWS; i < (band + 1) * ROWS; i++)
+            key = mix(key ^ fingerprint.signature()[i]);
+        return key;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private void ensureLoaded() {
+        if (loaded)
+            return;
+
+        if (Files.exists(file))
+            load();
+        loaded = true;
+    }
+
+    private void load() {
+        long validLength = 0;
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            for (;;) {
+                long context = in.readLong();
+                int[] signature = new int[SIGNATURE_SIZE];
+                for (int i = 0; i < SIGNATURE_SIZE; i++)
+                    signature[i] = in.readInt();
+                String responseKey = in.readUTF();
+                addEntry(new Fingerprint(context, signature), responseKey);
+                loggedEntries++;
+                validLength += RECORD_SIZE - 64 + responseKey.length();
+            }
+        } catch (EOFException endOfLog) {
+            truncateTornRecord(validLength);
+        } catch (IOException e) {
+            LOG.warn("Unable to load similar prompt index: " + file, e);
+        }
+    }
+
+    private void truncateTornRecord(long validLength) {
+        try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            if (channel.size() > validLength)
+                channel.truncate(validLength);
+        } catch (IOException e) {
+            LOG.warn("Unable to truncate similar prompt index: " + file, e);
+        }
+    }
+
+    private void append(Fingerprint fingerprint, String responseKey) {
+        try {
+            Files.createDirectories(file.getParent());
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND), RECORD_SIZE))) {
+                write(out, fingerprint.context(), fingerprint.signature(), responseKey);
+            }
+            if (++loggedEntries > 2 * maxEntries)
+                compact();
+        } catch (IOException e) {
+            LOG.warn("Unable to write similar prompt index: " + file, e);
+        }
+    }
+
+    private void compact() throws IOException {
+        Path tempFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            for (long id = Math.max(0, nextId - maxEntries); id < nextId; id++) {
+                int slot = (int) (id % maxEntries);
+                write(out, contexts[slot], signatures[slot], responseKeys[slot]);
+            }
+            loggedEntries = (int) Math.min(nextId, maxEntries);
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void write(DataOutputStream out, long context, int[] signature, String responseKey) throws IOException {
+        out.writeLong(context);
+        for (int hash : signature)
+            out.writeInt(hash);
+        out.writeUTF(responseKey);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat.client;
+
+import reactor.core.publisher.Flux;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Shares a single upstream call among identical requests made while the call is still in flight,
+ * e.g. an editor action clicked twice, or run from two editors at once.
+ * <p>
+ * The first subscriber for a key starts the call, and the later ones join it, receiving the chunks
+ * streamed so far followed by the rest, and complete together with it. Each subscriber may cancel
+ * independently; the call is cancelled only when all of them do. Once the call terminates, the next
+ * request for the key starts a new call.
+ * <p>
+ * The call itself is read as fast as it streams, with the chunks buffered for the joining subscribers,
+ * but each subscriber still gets them no faster than it requests, so a paced subscriber (such as the
+ * {@code UiPacedSubscriber}) keeps its listener callbacks, chained after {@link #share}, at its own pace.
+ *
+ * @param <K> the request key type
+ * @param <T> the response chunk type
+ * @author Mariusz Bernacki
+ */
+public class SingleFlight<K, T> {
+
+    private final Map<K, Flux<T>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Gives the flux of the call in flight for the key, or of the given call if there is none
+     * at the time of subscription.
+     *
+     * @param key the request key
+     * @param call the cold flux making the call, subscribed only if no call for the key is in flight
+     */
+    public Flux<T> share(K key, Flux<T> call) {
+        return Flux.defer(() -> inFlight.computeIfAbsent(key, __ -> {
+            var shared = new AtomicReference<Flux<T>>();
+            shared.set(call
+                    .doFinally(signal -> inFlight.remove(key, shared.get()))
+                    .replay()
+                    .refCount());
+            return shared.get();
+        }));
+    }
+
+    /**
+     * Gives the number of calls in flight.
+     */
+    public int size() {
+        return inFlight.size();
+    }
+}
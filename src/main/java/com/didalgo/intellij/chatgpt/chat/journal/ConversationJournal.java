@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat.journal;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.concurrency.AppExecutorUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, durable journal of a conversation stream, e.g. of a single assistant in a project.
+ * <p>
+ * Records are appended to segment files, each record framed with its length and checksum on both
+ * ends, so the journal can be read backwards from its end. Writes are queued and done off the EDT
+ * by a single writer, which batches all pending records into one write, and forces them to disk
+ * when a turn completes. A record torn by a crash is detected by its checksum and truncated the
+ * next time the journal is opened. Full segments are rolled over, and the oldest ones are deleted
+ * once there are too many of them, but never those of the current conversation.
+ * <p>
+ * Reading starts from the end of the journal and stops at the start of the latest conversation,
+ * or once the requested number of records is read up to the start of a turn, so restoring a long
+ * session touches only its tail and never starts with an answer. Segments are read as a whole, so
+ * older ones are read only if earlier records are asked for. Segments are never memory-mapped,
+ * as a mapped file can be neither truncated nor deleted on some platforms.
+ *
+ * @author Mariusz Bernacki
+ */
+public class ConversationJournal implements AutoCloseable {
+
+    private static final Logger LOG = Logger.getInstance(ConversationJournal.class);
+
+    public static final long DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+    public static final int DEFAULT_MAX_SEGMENTS = 16;
+
+    /** The length and checksum before the payload and the length after it. */
+    static final int FRAME_OVERHEAD = 12;
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final Path directory;
+    private final long segmentSize;
+    private final int maxSegments;
+    private final Executor executor;
+    private final Queue<PendingRecord> pendingRecords = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    // confined to the writer
+    private FileChannel channel;
+    private long segment;
+    private long conversationStartSegment = -1;
+
+    private record PendingRecord(JournalRecord.Kind kind, ByteBuffer frame, boolean sync) { }
+
+    /**
+     * The position in the journal to continue reading backwards from.
+     */
+    public record Cursor(long segment, int end) { }
+
+    /**
+     * A page of consecutive journal records.
+     *
+     * @param records the records, oldest first
+     * @param earlier the cursor to read earlier records of the same conversation from, or {@code null} if there are none
+     */
+    public record Page(List<JournalRecord> records, Cursor earlier) {
+        public boolean hasEarlier() {
+            return earlier != null;
+        }
+    }
+
+    public ConversationJournal(Path directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS,
+                AppExecutorUtil.createBoundedApplicationPoolExecutor("AI Assistant Conversation Journal", 1));
+    }
+
+    public ConversationJournal(Path directory, long segmentSize, int maxSegments, Executor executor) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.executor = executor;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Schedules the record to be appended to the journal.
+     *
+     * @param record the record
+     * @param sync {@code true} to force the record, and all records before it, to disk once written
+     */
+    public void append(JournalRecord record, boolean sync) {
+        pendingRecords.add(new PendingRecord(record.kind(), frame(record.encode()), sync));
+        if (drainScheduled.compareAndSet(false, true))
+            executor.execute(this::drain);
+    }
+
+    /**
+     * Reads the newest records of the latest conversation, starting with a user record.
+     *
+     * @param maxRecords the number of records to read, exceeded to include the whole oldest turn
+     * @return the page of records
+     */
+    public Page readTail(int maxRecords) {
+        return readBackwards(null, maxRecords);
+    }
+
+    /**
+     * Reads the records of the conversation preceding the given page.
+     *
+     * @param page the previously read page
+     * @param maxRecords the number of records to read, exceeded to include the whole oldest turn
+     * @return the page of earlier records
+     */
+    public Page readEarlier(Page page, int maxRecords) {
+        return page.hasEarlier() ? readBackwards(page.earlier(), maxRecords) : new Page(List.of(), null);
+    }
+
+    /**
+     * Closes the journal once all the pending records are written.
+     */
+    @Override
+    public void close() {
+        executor.execute(this::closeChannel);
+    }
+
+    private void drain() {
+        drainScheduled.set(false);
+        var frames = new ArrayList<ByteBuffer>();
+        boolean sync = false, newConversation = false;
+        PendingRecord record;
+        while ((record = pendingRecords.poll()) != null) {
+            frames.add(record.frame());
+            sync |= record.sync();
+            newConversation |= (record.kind() == JournalRecord.Kind.NEW_CONVERSATION);
+        }
+        if (frames.isEmpty())
+            return;
+
+        try {
+            FileChannel channel = openForAppend();
+            if (newConversation)
+                conversationStartSegment = segment;
+
+            ByteBuffer[] buffers = frames.toArray(ByteBuffer[]::new);
+            ByteBuffer last = buffers[buffers.length - 1];
+            while (last.hasRemaining())
+                channel.write(buffers);
+            if (sync)
+                channel.force(false);
+            if (channel.size() >= segmentSize)
+                rollOver();
+        } catch (IOException e) {
+            LOG.warn("Unable to write conversation journal: " + directory, e);
+            closeChannel();
+        }
+    }
+
+    private FileChannel openForAppend() throws IOException {
+        if (channel == null) {
+            Files.createDirectories(directory);
+            List<Long> segments = listSegments();
+            segment = segments.isEmpty() ? 1 : segments.get(segments.size() - 1);
+            channel = FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            // cut off a record torn by a crash
+            long validLength = validLength(channel);
+            if (validLength < channel.size())
+                channel.truncate(validLength);
+            channel.position(validLength);
+            if (conversationStartSegment < 0)
+                conversationStartSegment = findConversationStartSegment(segments);
+            deleteOldSegments();
+        }
+        return channel;
+    }
+
+    private void rollOver() throws IOException {
+        closeChannel();
+        segment++;
+        channel = FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        deleteOldSegments();
+    }
+
+    private void deleteOldSegments() throws IOException {
+        List<Long> segments = listSegments();
+        for (int i = 0; i < segments.size() - maxSegments; i++) {
+            long oldSegment = segments.get(i);
+            if (conversationStartSegment >= 0 && oldSegment >= conversationStartSegment)
+                break;
+            try {
+                Files.deleteIfExists(segmentPath(oldSegment));
+            } catch (IOException e) {
+                // e.g. still open for reading, retried with the next roll over
+                LOG.debug("Unable to delete conversation journal segment: " + segmentPath(oldSegment), e);
+            }
+        }
+    }
+
+    /**
+     * Finds the segment holding the start of the latest conversation, continued from a previous session.
+     *
+     * @return the segment, or {@code -1} if the start of the conversation is no longer in the journal
+     */
+    private long findConversationStartSegment(List<Long> segments) {
+        for (int index = segments.size() - 1; index >= 0; index--) {
+            long segment = segments.get(index);
+            try {
+                ByteBuffer buf = read(segmentPath(segment));
+                int pos = validLength(buf);
+                while (pos > 0) {
+                    int start = pos - buf.getInt(pos - 4) - FRAME_OVERHEAD;
+                    if (buf.get(start + 8) == JournalRecord.Kind.NEW_CONVERSATION.ordinal())
+                        return segment;
+                    pos = start;
+                }
+            } catch (IOException e) {
+                LOG.warn("Unable to read conversation journal segment: " + segmentPath(segment), e);
+                return segment;
+            }
+        }
+        return -1;
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.warn("Unable to close conversation journal: " + directory, e);
+            }
+            channel = null;
+        }
+    }
+
+    private Page readBackwards(Cursor cursor, int maxRecords) {
+        var records = new ArrayDeque<JournalRecord>();
+        try {
+            List<Long> segments = listSegments();
+            int index = (cursor == null) ? segments.size() - 1 : segments.indexOf(cursor.segment());
+            int end = (cursor == null) ? -1 : cursor.end();
+            for (; index >= 0; index--, end = -1) {
+                long segment = segments.get(index);
+                ByteBuffer buf = read(segmentPath(segment));
+                int pos = (end < 0) ? validLength(buf) : end;
+                while (pos > 0) {
+                    int start = pos - buf.getInt(pos - 4) - FRAME_OVERHEAD;
+                    JournalRecord record = JournalRecord.decode(buf.slice(start + 8, pos - start - FRAME_OVERHEAD));
+                    if (record.kind() == JournalRecord.Kind.NEW_CONVERSATION)
+                        return new Page(List.copyOf(records), null);
+                    if (records.size() >= maxRecords && records.peekFirst().kind() == JournalRecord.Kind.USER)
+                        return new Page(List.copyOf(records), new Cursor(segment, pos));
+                    records.addFirst(record);
+                    pos = start;
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // the journal or the segment has been deleted in the meantime
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Unable to read conversation journal: " + directory, e);
+        }
+        return new Page(List.copyOf(records), null);
+    }
+
+    private List<Long> listSegments() throws IOException {
+        if (!Files.isDirectory(directory))
+            return List.of();
+
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> parseSegment(name.substring(0, name.length() - SEGMENT_SUFFIX.length())))
+                    .filter(segment -> segment > 0)
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static long parseSegment(String name) {
+        try {
+            return Long.parseLong(name);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private Path segmentPath(long segment) {
+        return directory.resolve(String.format("%016d%s", segment, SEGMENT_SUFFIX));
+    }
+
+    private static ByteBuffer read(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var buf = ByteBuffer.allocate(Math.toIntExact(channel.size()));
+            readFully(channel, buf, 0);
+            return buf.flip();
+        }
+    }
+
+    static ByteBuffer frame(byte[] payload) {
+        var crc = new CRC32();
+        crc.update(payload);
+        return ByteBuffer.allocate(payload.length + FRAME_OVERHEAD)
+                .putInt(payload.length)
+                .putInt((int) crc.getValue())
+                .put(payload)
+                .putInt(payload.length)
+                .flip();
+    }
+
+    /**
+     * Gives the length of the leading part of the segment file consisting of complete, intact records,
+     * reading the records one by one.
+     */
+    static long validLength(FileChannel channel) throws IOException {
+        var crc = new CRC32();
+        var header = ByteBuffer.allocate(8);
+        long pos = 0, size = channel.size();
+        while (pos + FRAME_OVERHEAD <= size) {
+            header.clear();
+            if (!readFully(channel, header, pos))
+                break;
+            int length = header.getInt(0);
+            if (length < 0 || length > size - pos - FRAME_OVERHEAD)
+                break;
+            var payload = ByteBuffer.allocate(length + 4);
+            if (!readFully(channel, payload, pos + 8) || payload.getInt(length) != length)
+                break;
+            crc.reset();
+            crc.update(payload.slice(0, length));
+            if ((int) crc.getValue() != header.getInt(4))
+                break;
+            pos += length + FRAME_OVERHEAD;
+        }
+        return pos;
+    }
+
+    /**
+     * Reads bytes of the file at the position until the buffer is full.
+     *
+     * @return {@code false} if the end of the file was reached before
+     */
+    static boolean readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gives the length of the leading part of the segment consisting of complete, intact records.
+     */
+    static int validLength(ByteBuffer buf) {
+        var crc = new CRC32();
+        int pos = 0, limit = buf.limit();
+        while (pos + FRAME_OVERHEAD <= limit) {
+            int length = buf.getInt(pos);
+            if (length < 0 || length > limit - pos - FRAME_OVERHEAD || buf.getInt(pos + 8 + length) != length)
+                break;
+            crc.reset();
+            crc.update(buf.slice(pos + 8, length));
+            if ((int) crc.getValue() != buf.getInt(pos + 4))
+                break;
+            pos += length + FRAME_OVERHEAD;
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat.journal;
+
+import com.didalgo.intellij.chatgpt.chat.AssistantType;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.project.Project;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gives access to the conversation journals of the project, one per assistant, and to the
+ * search index of the journaled turns.
+ * <p>
+ * Journals are kept in the IDE system directory, separately for each project, with the search index beside them.
+ *
+ * @author Mariusz Bernacki
+ */
+@Service(Service.Level.PROJECT)
+public final class ConversationJournalService implements Disposable {
+
+    private static final String JOURNALS_DIRECTORY = "ai-assistant-journal";
+    private static final String SEARCH_INDEX_DIRECTORY = "search-index";
+
+    private final Project project;
+    private final Map<String, ConversationJournal> journals = new ConcurrentHashMap<>();
+    private volatile ConversationSearchIndex searchIndex;
+
+    public ConversationJournalService(Project project) {
+        this.project = project;
+    }
+
+    public static ConversationJournalService getInstance(Project project) {
+        return project.getService(ConversationJournalService.class);
+    }
+
+    public ConversationJournal getJournal(AssistantType assistantType) {
+        return journals.computeIfAbsent(assistantType.name(), name -> new ConversationJournal(getDirectory().resolve(name)));
+    }
+
+    public ConversationSearchIndex getSearchIndex() {
+        var searchIndex = this.searchIndex;
+        if (searchIndex == null) {
+            synchronized (this) {
+                if ((searchIndex = this.searchIndex) == null)
+                    this.searchIndex = searchIndex = new ConversationSearchIndex(getDirectory().resolve(SEARCH_INDEX_DIRECTORY));
+            }
+        }
+        return searchIndex;
+    }
+
+    private Path getDirectory() {
+        return Path.of(PathManager.getSystemPath(), JOURNALS_DIRECTORY, project.getLocationHash());
+    }
+
+    @Override
+    public void dispose() {
+        journals.values().forEach(ConversationJournal::close);
+        journals.clear();
+    }
+}
@@ -0,0 +1,423 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat.journal;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.concurrency.AppExecutorUtil;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Full-text index of the conversation turns, i.e. prompts together with their answers.
+ * <p>
+ * Turns are appended to a log file, each together with its terms and their frequencies, so the
+ * inverted index is rebuilt from the log without re-tokenizing the texts, which stay on disk and
+ * are read only for the returned hits. Terms are lowercase words, code identifiers along with
+ * their camelCase and snake_case parts, and the languages of fenced code blocks, as
+ * {@code lang:java}. Queries are ranked with BM25, and their last term also matches as a prefix,
+ * to search as the user types.
+ * <p>
+ * The index is loaded on first use, and updated off the EDT by a single writer. The log is kept within
+ * the storage budget of a conversation journal: once it grows beyond it, it is compacted to its newest
+ * turns, as the journal deletes its oldest segments. The log is read with channel reads, never
+ * memory-mapped, so it can be truncated and replaced on any platform.
+ *
+ * @author Mariusz Bernacki
+ */
+public class ConversationSearchIndex {
+
+    private static final Logger LOG = Logger.getInstance(ConversationSearchIndex.class);
+
+    static final String LOG_FILE_NAME = "turns.log";
+    static final long DEFAULT_MAX_LOG_SIZE = ConversationJournal.DEFAULT_SEGMENT_SIZE * ConversationJournal.DEFAULT_MAX_SEGMENTS;
+    static final String LANGUAGE_PREFIX = "lang:";
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    private static final int MAX_PREFIX_EXPANSIONS = 64;
+
+    private static final Pattern WORD = Pattern.compile("[\\p{L}\\p{N}_$]+");
+    private static final Pattern FENCE = Pattern.compile("^\\s*```\\s*([\\w+#.-]+)", Pattern.MULTILINE);
+    private static final Pattern IDENTIFIER_PART = Pattern.compile("\\p{Lu}?\\p{Ll}+|\\p{Lu}+(?!\\p{Ll})|\\p{N}+");
+
+    private final Path file;
+    private final long maxLogSize;
+    private final Executor executor;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // guarded by lock
+    private boolean loaded;
+    private final List<Document> documents = new ArrayList<>();
+    private int[] documentLengths = new int[64];
+    private final Map<String, Postings> postings = new HashMap<>();
+    private volatile String[] sortedTerms; // lazily rebuilt by readers
+    private long totalLength;
+
+    /**
+     * A search hit.
+     *
+     * @param assistant the name of the assistant the turn was held with
+     * @param timestamp the time of the turn, in epoch millis
+     * @param prompt the user prompt
+     * @param answer the assistant answer
+     * @param score the relevance score
+     */
+    public record Hit(String assistant, long timestamp, String prompt, String answer, float score) { }
+
+    private record Document(long offset, long timestamp, String assistant) { }
+
+    private static final class Postings {
+        private int[] documentIds = new int[4];
+        private int[] frequencies = new int[4];
+        private int size;
+
+        void add(int documentId, int frequency) {
+            if (size == documentIds.length) {
+                documentIds = Arrays.copyOf(documentIds, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            documentIds[size] = documentId;
+            frequencies[size++] = frequency;
+        }
+    }
+
+    public ConversationSearchIndex(Path directory) {
+        this(directory, AppExecutorUtil.createBoundedApplicationPoolExecutor("AI Assistant Search Index", 1));
+    }
+
+    public ConversationSearchIndex(Path directory, Executor executor) {
+        this(directory, DEFAULT_MAX_LOG_SIZE, executor);
+    }
+
+    public ConversationSearchIndex(Path directory, long maxLogSize, Executor executor) {
+        this.file = directory.resolve(LOG_FILE_NAME);
+        this.maxLogSize = maxLogSize;
+        this.executor = executor;
+    }
+
+    /**
+     * Schedules indexing of the conversation turn.
+     *
+     * @param assistant the name of the assistant
+     * @param prompt the user prompt
+     * @param answer the assistant answer
+     */
+    public void add(String assistant, String prompt, String answer) {
+        long timestamp = System.currentTimeMillis();
+        executor.execute(() -> {
+            Map<String, Integer> terms = new HashMap<>();
+            for (String term : terms(prompt + "\n" + answer))
+                terms.merge(term, 1, Integer::sum);
+
+            lock.writeLock().lock();
+            try {
+                ensureLoaded();
+                Files.createDirectories(file.getParent());
+                long logSize;
+                try (var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                    long offset = channel.size();
+                    channel.position(offset);
+                    ByteBuffer frame = ConversationJournal.frame(encode(timestamp, assistant, prompt, answer, terms));
+                    while (frame.hasRemaining())
+                        channel.write(frame);
+                    int id = addDocument(new Document(offset, timestamp, assistant));
+                    terms.forEach((term, frequency) -> addPosting(term, id, frequency));
+                    logSize = channel.size();
+                }
+                if (logSize > maxLogSize)
+                    compact(logSize);
+            } catch (IOException e) {
+                LOG.warn("Unable to update conversation search index: " + file, e);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * Searches the indexed turns.
+     *
+     * @param query the query
+     * @param limit the maximum number of hits
+     * @return the hits, the most relevant first
+     */
+    public List<Hit> search(String query, int limit) {
+        List<String> queryTerms = queryTerms(query);
+        if (queryTerms.isEmpty() || limit <= 0)
+            return List.of();
+
+        lock.readLock().lock();
+        try {
+            if (!loaded) {
+                lock.readLock().unlock();
+                lock.writeLock().lock();
+                try {
+                    ensureLoaded();
+                } finally {
+                    lock.readLock().lock();
+                    lock.writeLock().unlock();
+                }
+            }
+            if (documents.isEmpty())
+                return List.of();
+
+            float[] scores = new float[documents.size()];
+            float averageLength = Math.max(1f, (float) totalLength / documents.size());
+            boolean prefix = !query.isEmpty() && !Character.isWhitespace(query.charAt(query.length() - 1));
+            for (int i = 0; i < queryTerms.size(); i++) {
+                String term = queryTerms.get(i);
+                if (prefix && i == queryTerms.size() - 1) {
+                    String[] terms = getSortedTerms();
+                    int from = Arrays.binarySearch(terms, term);
+                    from = (from < 0) ? -from - 1 : from;
+                    for (int j = from; j < terms.length && j - from < MAX_PREFIX_EXPANSIONS && terms[j].startsWith(term); j++)
+                        score(postings.get(terms[j]), averageLength, scores);
+                } else {
+                    Postings termPostings = postings.get(term);
+                    if (termPostings != null)
+                        score(termPostings, averageLength, scores);
+                }
+            }
+
+            // the best hits, the newer ones first among equally scored
+            var best = new PriorityQueue<Integer>((a, b) -> (scores[a] != scores[b]) ? Float.compare(scores[a], scores[b]) : Integer.compare(a, b));
+            for (int id = 0; id < scores.length; id++) {
+                if (scores[id] > 0) {
+                    best.add(id);
+                    if (best.size() > limit)
+                        best.poll();
+                }
+            }
+            var hits = new ArrayList<Hit>(best.size());
+            try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                while (!best.isEmpty()) {
+                    int id = best.poll();
+                    hits.add(readHit(channel, documents.get(id), scores[id]));
+                }
+            } catch (IOException e) {
+                LOG.warn("Unable to read conversation search index: " + file, e);
+            }
+            Collections.reverse(hits);
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void score(Postings termPostings, float averageLength, float[] scores) {
+        float idf = (float) Math.log(1 + (documents.size() - termPostings.size + 0.5) / (termPostings.size + 0.5));
+        for (int i = 0; i < termPostings.size; i++) {
+            int id = termPostings.documentIds[i];
+            int tf = termPostings.frequencies[i];
+            scores[id] += idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * documentLengths[id] / averageLength));
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded)
+            return;
+
+        loaded = true;
+        if (!Files.exists(file))
+            return;
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long validLength = ConversationJournal.validLength(channel);
+            if (validLength < channel.size())
+                channel.truncate(validLength);
+
+            ByteBuffer buf = ByteBuffer.allocate(Math.toIntExact(validLength));
+            ConversationJournal.readFully(channel, buf, 0);
+            for (int pos = 0; pos < validLength; ) {
+                int length = buf.getInt(pos);
+                decodeDocument(buf.slice(pos + 8, length), pos);
+                pos += length + ConversationJournal.FRAME_OVERHEAD;
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Unable to load conversation search index: " + file, e);
+        }
+    }
+
+    /**
+     * Rewrites the log with the newest turns only, taking up to half of its maximum size, and reloads the index.
+     */
+    private void compact(long logSize) throws IOException {
+        int first = 0;
+        while (first < documents.size() && logSize - documents.get(first).offset() > maxLogSize / 2)
+            first++;
+        long keepFrom = (first < documents.size()) ? documents.get(first).offset() : logSize;
+
+        Path compacted = file.resolveSibling(LOG_FILE_NAME + ".tmp");
+        try (var source = FileChannel.open(file, StandardOpenOption.READ);
+             var target = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (long position = keepFrom; position < logSize; )
+                position += source.transferTo(position, logSize - position, target);
+            target.force(false);
+        }
+        Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        documents.clear();
+        postings.clear();
+        Arrays.fill(documentLengths, 0);
+        sortedTerms = null;
+        totalLength = 0;
+        loaded = false;
+        ensureLoaded();
+    }
+
+    private int addDocument(Document document) {
+        int id = documents.size();
+        documents.add(document);
+        if (id == documentLengths.length)
+            documentLengths = Arrays.copyOf(documentLengths, id * 2);
+        return id;
+    }
+
+    private void addPosting(String term, int documentId, int frequency) {
+        Postings termPostings = postings.get(term);
+        if (termPostings == null) {
+            postings.put(term, termPostings = new Postings());
+            sortedTerms = null;
+        }
+        termPostings.add(documentId, frequency);
+        documentLengths[documentId] += frequency;
+        totalLength += frequency;
+    }
+
+    private String[] getSortedTerms() {
+        String[] terms = sortedTerms;
+        if (terms == null) {
+            terms = postings.keySet().toArray(String[]::new);
+            Arrays.sort(terms);
+            sortedTerms = terms;
+        }
+        return terms;
+    }
+
+    private Hit readHit(FileChannel channel, Document document, float score) throws IOException {
+        var length = ByteBuffer.allocate(4);
+        ByteBuffer payload;
+        if (!ConversationJournal.readFully(channel, length, document.offset())
+                || !ConversationJournal.readFully(channel, payload = ByteBuffer.allocate(length.getInt(0)), document.offset() + 8))
+            throw new EOFException("Turn missing at " + document.offset());
+        payload.flip();
+        payload.getLong();
+        skipString(payload);
+        String prompt = getString(payload), answer = getString(payload);
+        return new Hit(document.assistant(), document.timestamp(), prompt, answer, score);
+    }
+
+    private static byte[] encode(long timestamp, String assistant, String prompt, String answer, Map<String, Integer> terms) {
+        var strings = new ArrayList<byte[]>();
+        strings.add(assistant.getBytes(StandardCharsets.UTF_8));
+        strings.add(prompt.getBytes(StandardCharsets.UTF_8));
+        strings.add(answer.getBytes(StandardCharsets.UTF_8));
+        terms.keySet().forEach(term -> strings.add(term.getBytes(StandardCharsets.UTF_8)));
+
+        int size = 8 + 4 + terms.size() * 4;
+        for (byte[] bytes : strings)
+            size += 4 + bytes.length;
+        var buf = ByteBuffer.allocate(size).putLong(timestamp);
+        for (int i = 0; i < 3; i++)
+            buf.putInt(strings.get(i).length).put(strings.get(i));
+        buf.putInt(terms.size());
+        int i = 3;
+        for (int frequency : terms.values()) {
+            byte[] term = strings.get(i++);
+            buf.putInt(term.length).put(term).putInt(frequency);
+        }
+        return buf.array();
+    }
+
+    private void decodeDocument(ByteBuffer payload, long offset) {
+        long timestamp = payload.getLong();
+        String assistant = getString(payload).intern();
+        skipString(payload);
+        skipString(payload);
+        int id = addDocument(new Document(offset, timestamp, assistant));
+        for (int count = payload.getInt(); count > 0; count--) {
+            String term = getString(payload);
+            addPosting(term, id, payload.getInt());
+        }
+    }
+
+    private static String getString(ByteBuffer buf) {
+        var bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void skipString(ByteBuffer buf) {
+        int length = buf.getInt();
+        buf.position(buf.position() + length);
+    }
+
+    /**
+     * Splits the query into index terms, in order, recognizing the {@code lang:} terms given explicitly.
+     */
+    static List<String> queryTerms(String query) {
+        var terms = new ArrayList<String>();
+        String lastWord = null;
+        for (String chunk : query.strip().split("\\s+")) {
+            if (chunk.startsWith(LANGUAGE_PREFIX)) {
+                terms.add(lastWord = chunk.toLowerCase(Locale.ROOT));
+            } else {
+                terms.addAll(terms(chunk));
+                for (Matcher word = WORD.matcher(chunk); word.find(); )
+                    lastWord = word.group().toLowerCase(Locale.ROOT);
+            }
+        }
+        // the last word as typed goes last, after its identifier parts, to be matched as a prefix
+        if (lastWord != null && terms.lastIndexOf(lastWord) >= 0)
+            terms.add(terms.remove(terms.lastIndexOf(lastWord)));
+        return terms;
+    }
+
+    /**
+     * Splits the text into index terms.
+     */
+    static List<String> terms(String text) {
+        var terms = new ArrayList<String>();
+        Matcher fence = FENCE.matcher(text);
+        while (fence.find())
+            terms.add(LANGUAGE_PREFIX + fence.group(1).toLowerCase(Locale.ROOT));
+
+        Matcher word = WORD.matcher(text);
+        while (word.find()) {
+            String token = word.group();
+            String lowerCase = token.toLowerCase(Locale.ROOT);
+            terms.add(lowerCase);
+
+            // parts of code identifiers, like `parse` and `token` of `parseToken` or `parse_token`
+            if (token.indexOf('_') > 0 || !lowerCase.equals(token) && !token.toUpperCase(Locale.ROOT).equals(token)) {
+                Matcher part = IDENTIFIER_PART.matcher(token);
+                while (part.find())
+                    if (part.end() - part.start() > 1 && part.end() - part.start() < token.length())
+                        terms.add(part.group().toLowerCase(Locale.ROOT));
+            }
+        }
+        return terms;
+    }
+}
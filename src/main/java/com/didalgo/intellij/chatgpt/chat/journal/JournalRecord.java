@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat.journal;
+
+import com.didalgo.intellij.chatgpt.chat.metadata.UsageAggregator;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.model.Media;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A single entry of the {@link ConversationJournal}: a conversation turn or the start of a new conversation.
+ *
+ * @param kind the kind of the record
+ * @param timestamp the time the record was created, in epoch millis
+ * @param text the message text, or {@code null} for a conversation start
+ * @param modelId the model which produced the reply, or {@code null}
+ * @param promptTokens the prompt tokens used, or {@code 0} if unknown
+ * @param completionTokens the completion tokens used, or {@code 0} if unknown
+ * @param cachedTokens the prompt tokens served from the provider cache, or {@code 0} if unknown
+ * @param attachments the descriptions of the media attached to the message
+ *
+ * @author Mariusz Bernacki
+ */
+public record JournalRecord(Kind kind, long timestamp, String text, String modelId,
+                            int promptTokens, int completionTokens, int cachedTokens, List<String> attachments) {
+
+    public enum Kind {
+        NEW_CONVERSATION, USER, ASSISTANT
+    }
+
+    public JournalRecord {
+        Objects.requireNonNull(kind, "kind");
+        attachments = List.copyOf(attachments);
+    }
+
+    public static JournalRecord newConversation() {
+        return new JournalRecord(Kind.NEW_CONVERSATION, System.currentTimeMillis(), null, null, 0, 0, 0, List.of());
+    }
+
+    public static JournalRecord userMessage(UserMessage message) {
+        var attachments = new ArrayList<String>();
+        for (Media media : message.getMedia())
+            attachments.add(String.valueOf(media.getMimeType()));
+        return new JournalRecord(Kind.USER, System.currentTimeMillis(), message.getText(), null, 0, 0, 0, attachments);
+    }
+
+    public static JournalRecord assistantMessage(AssistantMessage message, String modelId, Usage usage) {
+        int promptTokens = 0, completionTokens = 0, cachedTokens = 0;
+        if (usage != null) {
+            promptTokens = Objects.requireNonNullElse(usage.getPromptTokens(), 0);
+            completionTokens = Objects.requireNonNullElse(usage.getCompletionTokens(), 0);
+            cachedTokens = Objects.requireNonNullElse(UsageAggregator.getCachedTokens(usage), 0);
+        }
+        return new JournalRecord(Kind.ASSISTANT, System.currentTimeMillis(), message.getText(), modelId,
+                promptTokens, completionTokens, cachedTokens, List.of());
+    }
+
+    /**
+     * Gives the message of the turn, without media, which are not journaled.
+     *
+     * @return the message, or {@code null} if the record is not a conversation turn
+     */
+    public Message toMessage() {
+        return switch (kind) {
+            case USER -> new UserMessage(text);
+            case ASSISTANT -> new AssistantMessage(text);
+            case NEW_CONVERSATION -> null;
+        };
+    }
+
+    byte[] encode() {
+        byte[] textBytes = bytesOf(text), modelIdBytes = bytesOf(modelId);
+        var attachmentBytes = new byte[attachments.size()][];
+        int size = 1 + 8 + 4 + length(textBytes) + 4 + length(modelIdBytes) + 4 * 4;
+        for (int i = 0; i < attachmentBytes.length; i++)
+            size += 4 + length(attachmentBytes[i] = bytesOf(attachments.get(i)));
+
+        var buf = ByteBuffer.allocate(size);
+        buf.put((byte) kind.ordinal()).putLong(timestamp);
+        putBytes(buf, textBytes);
+        putBytes(buf, modelIdBytes);
+        buf.putInt(promptTokens).putInt(completionTokens).putInt(cachedTokens).putInt(attachmentBytes.length);
+        for (byte[] bytes : attachmentBytes)
+            putBytes(buf, bytes);
+        return buf.array();
+    }
+
+    static JournalRecord decode(ByteBuffer buf) {
+        Kind kind = Kind.values()[buf.get()];
+        long timestamp = buf.getLong();
+        String text = getString(buf), modelId = getString(buf);
+        int promptTokens = buf.getInt(), completionTokens = buf.getInt(), cachedTokens = buf.getInt();
+        var attachments = new ArrayList<String>();
+        for (int count = buf.getInt(); count > 0; count--)
+            attachments.add(getString(buf));
+        return new JournalRecord(kind, timestamp, text, modelId, promptTokens, completionTokens, cachedTokens, attachments);
+    }
+
+    private static byte[] bytesOf(String s) {
+        return (s == null) ? null : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] bytes) {
+        return (bytes == null) ? 0 : bytes.length;
+    }
+
+    private static void putBytes(ByteBuffer buf, byte[] bytes) {
+        if (bytes == null) {
+            buf.putInt(-1);
+        } else {
+            buf.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length < 0)
+            return null;
+
+        var bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -15,7 +15,14 @@ public class MessageSupport {
     private static final String ELLIPSIS = "[...]";
 
     public static Message substring(Message message, int fromIndex) {
-        return setTextContent(message, ELLIPSIS + " " + message.getText().substring(fromIndex));
+        return setTextContent(message, truncatedText(message.getText(), fromIndex));
+    }
+
+    /**
+     * Gives the text with its beginning up to {@code fromIndex} replaced with an ellipsis.
+     */
+    public static String truncatedText(String text, int fromIndex) {
+        return ELLIPSIS + " " + text.substring(fromIndex);
     }
 
     /**
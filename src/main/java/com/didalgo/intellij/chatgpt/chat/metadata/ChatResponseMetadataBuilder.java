@@ -36,6 +36,11 @@ public class ChatResponseMetadataBuilder implements Consumer<ChatResponseMetadat
         }
     }
 
+    public ChatResponseMetadataBuilder keyValue(String key, Object value) {
+        builder.keyValue(key, value);
+        return this;
+    }
+
     public ChatResponseMetadata build() {
         return builder
                 .usage(usageAggregator.toImmutableUsage())
@@ -10,10 +10,14 @@ import org.springframework.ai.chat.metadata.Usage;
 /**
  * Immutable implementation of {@link Usage}.
  */
-public record ImmutableUsage(Integer getPromptTokens, Integer getCompletionTokens, Object getNativeUsage) implements Usage {
+public record ImmutableUsage(Integer getPromptTokens, Integer getCompletionTokens, Object getNativeUsage, Integer getCachedTokens) implements Usage {
 
     private static final Usage EMPTY_USAGE = new EmptyUsage();
 
+    public ImmutableUsage(Integer getPromptTokens, Integer getCompletionTokens, Object getNativeUsage) {
+        this(getPromptTokens, getCompletionTokens, getNativeUsage, null);
+    }
+
     public static Usage empty() {
         return EMPTY_USAGE;
     }
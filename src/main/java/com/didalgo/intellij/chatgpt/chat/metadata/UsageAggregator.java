@@ -7,7 +7,9 @@ package com.didalgo.intellij.chatgpt.chat.metadata;
 import lombok.Setter;
 import org.jetbrains.annotations.Nullable;
 import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.model.ModelOptionsUtils;
 
+import java.util.Map;
 import java.util.function.Consumer;
 
 /**
@@ -26,6 +28,11 @@ public class UsageAggregator implements Usage, Consumer<Usage> {
      */
     private int completionTokens;
 
+    /**
+     *  The number of prompt tokens read from the provider's prompt cache.
+     */
+    private int cachedTokens;
+
     /**
      * Creates a new {@code UsageAggregator} with zero prompt and generation tokens.
      */
@@ -54,6 +61,10 @@ public class UsageAggregator implements Usage, Consumer<Usage> {
         return completionTokens;
     }
 
+    public Integer getCachedTokens() {
+        return cachedTokens;
+    }
+
     @Override
     public Object getNativeUsage() {
         return null;
@@ -64,6 +75,7 @@ public class UsageAggregator implements Usage, Consumer<Usage> {
         if (source != null) {
             setPromptTokens(getMaxOrDefault(getPromptTokens(), source.getPromptTokens()));
             setCompletionTokens(getMaxOrDefault(getCompletionTokens(), source.getCompletionTokens()));
+            setCachedTokens(getMaxOrDefault(getCachedTokens(), getCachedTokens(source)));
         }
     }
 
@@ -71,12 +83,45 @@ public class UsageAggregator implements Usage, Consumer<Usage> {
         return second != null ? Math.max(first, second) : first;
     }
 
+    /**
+     * Gives the number of prompt tokens served from the provider's prompt cache, as reported by
+     * OpenAI ({@code prompt_tokens_details.cached_tokens}), Anthropic ({@code cache_read_input_tokens})
+     * or Gemini ({@code cached_content_token_count}) in the native usage.
+     *
+     * @param usage the usage
+     * @return the number of cached tokens, or {@code null} if not reported
+     */
+    public static @Nullable Integer getCachedTokens(Usage usage) {
+        if (usage instanceof ImmutableUsage immutableUsage && immutableUsage.getCachedTokens() != null)
+            return immutableUsage.getCachedTokens();
+        if (usage instanceof UsageAggregator aggregator)
+            return aggregator.getCachedTokens();
+
+        Object nativeUsage = usage.getNativeUsage();
+        if (nativeUsage == null)
+            return null;
+        try {
+            Map<?, ?> properties = (nativeUsage instanceof Map<?, ?> map) ? map
+                    : ModelOptionsUtils.OBJECT_MAPPER.convertValue(nativeUsage, Map.class);
+            if (properties.get("prompt_tokens_details") instanceof Map<?, ?> details
+                    && details.get("cached_tokens") instanceof Number cachedTokens)
+                return cachedTokens.intValue();
+            if (properties.get("cache_read_input_tokens") instanceof Number cachedTokens)
+                return cachedTokens.intValue();
+            if (properties.get("cached_content_token_count") instanceof Number cachedTokens)
+                return cachedTokens.intValue();
+        } catch (IllegalArgumentException e) {
+            // native usage not convertible, cached tokens unknown
+        }
+        return null;
+    }
+
     /**
      * Creates an immutable usage instance (snapshot) from this object.
      *
      * @return the immutable copy
      */
     public ImmutableUsage toImmutableUsage() {
-        return new ImmutableUsage(promptTokens, completionTokens, null);
+        return new ImmutableUsage(promptTokens, completionTokens, null, cachedTokens);
     }
 }
\ No newline at end of file
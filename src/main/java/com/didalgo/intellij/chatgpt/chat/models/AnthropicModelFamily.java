@@ -15,14 +15,18 @@ public class AnthropicModelFamily implements ModelFamily {
     public AnthropicChatModel createChatModel(GeneralSettings.AssistantOptions config) {
         var baseUrl = config.isEnableCustomApiEndpointUrl() ? config.getApiEndpointUrl() : getDefaultApiEndpointUrl();
         var apiKey = config.getApiKey();
-        var api = new AnthropicApi(baseUrl, apiKey);
+        var connections = HttpConnectionRegistry.getInstance();
+        var api = new AnthropicApi(baseUrl, apiKey, AnthropicApi.DEFAULT_ANTHROPIC_VERSION,
+                connections.restClientBuilder(baseUrl).requestInterceptor(AnthropicPromptCaching.requestInterceptor()),
+                connections.webClientBuilder(baseUrl).filter(AnthropicPromptCaching.exchangeFilter()),
+                ChatModelRetry.RESPONSE_ERROR_HANDLER);
         var options = AnthropicChatOptions.builder()
                 .model(config.getModelName())
                 .temperature(config.getTemperature())
                 .topP(config.getTopP())
                 .maxTokens(4096)
                 .build();
-        return new AnthropicChatModel(api, options);
+        return new AnthropicChatModel(api, options, ChatModelRetry.NO_RETRY);
     }
 
     @Override
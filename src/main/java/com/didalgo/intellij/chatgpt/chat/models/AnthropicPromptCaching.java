@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat.models;
+
+import com.didalgo.intellij.chatgpt.settings.GeneralSettings;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.intellij.openapi.diagnostic.Logger;
+import org.reactivestreams.Publisher;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.reactive.ClientHttpRequestDecorator;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Places Anthropic prompt cache breakpoints, i.e. {@code cache_control} markers, in the Messages API
+ * requests, which the Spring AI client doesn't map on its own.
+ * <p>
+ * A breakpoint marks the end of a prompt prefix which the provider should cache. Breakpoints are
+ * placed after the system prompt and after the newest user messages large enough to be worth
+ * caching, which are typically the ones carrying attachments. The request body is rewritten by
+ * the HTTP clients of the model, and left as it is if prompt caching is turned off in the settings.
+ *
+ * @author Mariusz Bernacki
+ */
+public final class AnthropicPromptCaching {
+
+    private static final Logger LOG = Logger.getInstance(AnthropicPromptCaching.class);
+
+    /** The maximum number of breakpoints allowed in a single request. */
+    static final int MAX_BREAKPOINTS = 4;
+    /** The minimum number of tokens of a prefix for the provider to cache it. */
+    static final int MIN_CACHEABLE_TOKENS = 1024;
+    /** The number of characters per token, as estimated without a tokenizer. */
+    static final int CHARS_PER_TOKEN = 4;
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private AnthropicPromptCaching() { }
+
+    /**
+     * Gives the interceptor placing the breakpoints in the requests of the blocking client.
+     */
+    public static ClientHttpRequestInterceptor requestInterceptor() {
+        return (request, body, execution) -> {
+            if (!isEnabled(request.getURI()))
+                return execution.execute(request, body);
+
+            byte[] markedBody = addBreakpoints(body);
+            request.getHeaders().setContentLength(markedBody.length);
+            return execution.execute(request, markedBody);
+        };
+    }
+
+    /**
+     * Gives the filter placing the breakpoints in the requests of the streaming client.
+     */
+    public static ExchangeFilterFunction exchangeFilter() {
+        return (request, next) -> {
+            if (!isEnabled(request.url()))
+                return next.exchange(request);
+
+            return next.exchange(ClientRequest.from(request)
+                    .body((outputMessage, context) -> request.body().insert(new ClientHttpRequestDecorator(outputMessage) {
+                        @Override
+                        public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+                            return DataBufferUtils.join(body).flatMap(buffer -> {
+                                byte[] bytes = new byte[buffer.readableByteCount()];
+                                buffer.read(bytes);
+                                DataBufferUtils.release(buffer);
+
+                                byte[] markedBody = addBreakpoints(bytes);
+                                getHeaders().setContentLength(markedBody.length);
+                                return super.writeWith(Mono.just(bufferFactory().wrap(markedBody)));
+                            });
+                        }
+                    }, context))
+                    .build());
+        };
+    }
+
+    private static boolean isEnabled(URI uri) {
+        return uri.getPath() != null && uri.getPath().endsWith("/messages")
+                && GeneralSettings.getInstance().isEnablePromptCaching();
+    }
+
+    /**
+     * Marks the cache breakpoints in the JSON body of a Messages API request.
+     *
+     * @param body the request body
+     * @return the body with the breakpoints, or the given one if there are none or it can't be parsed
+     */
+    static byte[] addBreakpoints(byte[] body) {
+        try {
+            if (!(objectMapper.readTree(body) instanceof ObjectNode request))
+                return body;
+
+            int breakpoints = 0;
+            JsonNode system = request.get("system");
+            if (system != null && textLength(system) >= MIN_CACHEABLE_TOKENS * CHARS_PER_TOKEN) {
+                request.set("system", markLastBlock(system));
+                breakpoints++;
+            }
+
+            List<ObjectNode> largeUserMessages = new ArrayList<>();
+            if (request.get("messages") instanceof ArrayNode messages) {
+                for (JsonNode message : messages) {
+                    if (message instanceof ObjectNode userMessage && "user".equals(message.path("role").asText())
+                            && textLength(message.get("content")) >= MIN_CACHEABLE_TOKENS * CHARS_PER_TOKEN)
+                        largeUserMessages.add(userMessage);
+                }
+            }
+            if (breakpoints == 0 && largeUserMessages.isEmpty())
+                return body;
+
+            // the newest large messages first, as the cached prefix ending further covers more
+            for (int i = largeUserMessages.size() - 1; i >= 0 && breakpoints < MAX_BREAKPOINTS; i--, breakpoints++) {
+                ObjectNode message = largeUserMessages.get(i);
+                message.set("content", markLastBlock(message.get("content")));
+            }
+            return objectMapper.writeValueAsBytes(request);
+        } catch (IOException | RuntimeException e) {
+            LOG.debug("Unable to place prompt cache breakpoints", e);
+            return body;
+        }
+    }
+
+    private static int textLength(JsonNode content) {
+        if (content == null)
+            return 0;
+        if (content.isTextual())
+            return content.asText().length();
+
+        int length = 0;
+        for (JsonNode block : content)
+            length += block.path("text").asText("").length();
+        return length;
+    }
+
+    /**
+     * Gives the content with the {@code cache_control} marker on its last block, turning a plain text
+     * content into a single text block first.
+     */
+    private static JsonNode markLastBlock(JsonNode content) {
+        ArrayNode blocks;
+        if (content.isTextual()) {
+            blocks = objectMapper.createArrayNode();
+            blocks.addObject().put("type", "text").put("text", content.asText());
+        } else if (content instanceof ArrayNode array && !array.isEmpty()) {
+            blocks = array;
+        } else {
+            return content;
+        }
+
+        if (blocks.get(blocks.size() - 1) instanceof ObjectNode lastBlock)
+            lastBlock.putObject("cache_control").put("type", "ephemeral");
+        return blocks;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat.models;
+
+import com.didalgo.gpt3.ChatFormatDescriptor;
+import com.didalgo.gpt3.GPT3Tokenizer;
+import com.didalgo.intellij.chatgpt.chat.ChatMessageUtils;
+import org.springframework.ai.chat.messages.Message;
+
+/**
+ * Exact token counter backed by a BPE tokenizer, used for OpenAI models.
+ *
+ * @author Mariusz Bernacki
+ */
+public final class BpeTokenEstimator implements TokenEstimator {
+
+    private final GPT3Tokenizer tokenizer;
+    private final ChatFormatDescriptor formatDescriptor;
+    private volatile int replyPrimingTokens = -1;
+
+    public BpeTokenEstimator(GPT3Tokenizer tokenizer, ChatFormatDescriptor formatDescriptor) {
+        this.tokenizer = tokenizer;
+        this.formatDescriptor = formatDescriptor;
+    }
+
+    public GPT3Tokenizer getTokenizer() {
+        return tokenizer;
+    }
+
+    public ChatFormatDescriptor getChatFormatDescriptor() {
+        return formatDescriptor;
+    }
+
+    @Override
+    public int countTokens(CharSequence text) {
+        return tokenizer.encode(text.toString()).size();
+    }
+
+    @Override
+    public int countMessageTokens(Message message) {
+        return ChatMessageUtils.countMessageTokens(message, tokenizer, formatDescriptor);
+    }
+
+    @Override
+    public int countReplyPrimingTokens() {
+        int count = replyPrimingTokens;
+        if (count < 0)
+            replyPrimingTokens = count = ChatMessageUtils.countReplyPrimingTokens(tokenizer, formatDescriptor);
+        return count;
+    }
+
+    @Override
+    public boolean isExact() {
+        return true;
+    }
+}
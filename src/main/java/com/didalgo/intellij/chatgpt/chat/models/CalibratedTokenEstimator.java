@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat.models;
+
+import org.springframework.ai.chat.messages.Message;
+
+/**
+ * Allocation-free token estimator for models whose tokenizer isn't available locally.
+ * <p>
+ * The text is scanned once and split into character runs: letters, digits, whitespace,
+ * wide (e.g. CJK) characters and punctuation, each run contributing tokens according to the
+ * family-specific ratios. The ratios are calibrated on source code and English prose to slightly
+ * overestimate rather than underestimate, so the context window is never overfilled.
+ *
+ * @author Mariusz Bernacki
+ */
+public final class CalibratedTokenEstimator implements TokenEstimator {
+
+    public static final CalibratedTokenEstimator ANTHROPIC = new CalibratedTokenEstimator(4.0, 2.0, 1.2, 4, 5, 3);
+    public static final CalibratedTokenEstimator GEMINI = new CalibratedTokenEstimator(4.5, 1.0, 1.0, 4, 4, 2);
+    public static final CalibratedTokenEstimator GENERIC = new CalibratedTokenEstimator(3.5, 2.0, 1.5, 4, 5, 3);
+
+    private static final int NONE = 0, LETTERS = 1, DIGITS = 2, SPACES = 3;
+
+    private final double lettersPerToken;
+    private final double digitsPerToken;
+    private final double tokensPerWideChar;
+    private final int spacesPerToken;
+    private final int messageOverhead;
+    private final int replyPrimingTokens;
+
+    public CalibratedTokenEstimator(double lettersPerToken, double digitsPerToken, double tokensPerWideChar,
+                                    int spacesPerToken, int messageOverhead, int replyPrimingTokens) {
+        this.lettersPerToken = lettersPerToken;
+        this.digitsPerToken = digitsPerToken;
+        this.tokensPerWideChar = tokensPerWideChar;
+        this.spacesPerToken = spacesPerToken;
+        this.messageOverhead = messageOverhead;
+        this.replyPrimingTokens = replyPrimingTokens;
+    }
+
+    @Override
+    public int countTokens(CharSequence text) {
+        double tokens = 0;
+        int runType = NONE, runLength = 0;
+        for (int i = 0, length = text.length(); i < length; i++) {
+            char ch = text.charAt(i);
+            int type;
+            if (ch < 0x80 ? isAsciiLetter(ch) : Character.isLetter(ch) && !isWide(ch))
+                type = LETTERS;
+            else if (ch >= '0' && ch <= '9')
+                type = DIGITS;
+            else if (ch == ' ' || ch == '\t')
+                type = SPACES;
+            else
+                type = NONE;
+
+            if (type != runType) {
+                tokens += countRunTokens(runType, runLength);
+                runType = type;
+                runLength = 0;
+            }
+            if (type != NONE)
+                runLength++;
+            else if (!Character.isHighSurrogate(ch)) // surrogate pairs are counted with the low surrogate
+                tokens += (isWide(ch) || Character.isLowSurrogate(ch)) ? tokensPerWideChar : 1;
+        }
+        tokens += countRunTokens(runType, runLength);
+        return (int) Math.ceil(tokens);
+    }
+
+    private double countRunTokens(int runType, int runLength) {
+        return switch (runType) {
+            case LETTERS -> Math.max(1.0, runLength / lettersPerToken);
+            case DIGITS -> Math.max(1.0, runLength / digitsPerToken);
+            // a single space is usually merged with the following word
+            case SPACES -> (runLength - 1) / (double) spacesPerToken;
+            default -> 0;
+        };
+    }
+
+    private static boolean isAsciiLetter(char ch) {
+        return ch >= 'a' && ch <= 'z' || ch >= 'A' && ch <= 'Z' || ch == '_';
+    }
+
+    private static boolean isWide(char ch) {
+        return ch >= 0x2E80 && ch <= 0xD7FF || ch >= 0xF900 && ch <= 0xFAFF || ch >= 0xFF00 && ch <= 0xFFEF;
+    }
+
+    @Override
+    public int countMessageTokens(Message message) {
+        String text = message.getText();
+        return messageOverhead + (text == null ? 0 : countTokens(text));
+    }
+
+    @Override
+    public int countReplyPrimingTokens() {
+        return replyPrimingTokens;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat.models;
+
+import org.springframework.ai.retry.RetryUtils;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.retry.support.RetryTemplate;
+import org.springframework.web.client.DefaultResponseErrorHandler;
+import org.springframework.web.client.ResponseErrorHandler;
+
+import java.io.IOException;
+
+/**
+ * Retry settings of the chat models. The models make a single attempt per call, as both the rate limited
+ * and the transiently failing calls are retried by the {@code RateLimitScheduler}, which waits as long as
+ * the server asks to, without blocking a thread in the meantime.
+ *
+ * @author Mariusz Bernacki
+ */
+public final class ChatModelRetry {
+
+    /** The retry template making a single attempt. */
+    public static final RetryTemplate NO_RETRY = RetryTemplate.builder().maxAttempts(1).build();
+
+    /**
+     * Handles error responses as {@link RetryUtils#DEFAULT_RESPONSE_ERROR_HANDLER} does, except for
+     * 429 Too Many Requests, thrown as {@code HttpClientErrorException} to keep the Retry-After headers.
+     */
+    public static final ResponseErrorHandler RESPONSE_ERROR_HANDLER = new ResponseErrorHandler() {
+        private final ResponseErrorHandler tooManyRequestsHandler = new DefaultResponseErrorHandler();
+
+        @Override
+        public boolean hasError(ClientHttpResponse response) throws IOException {
+            return RetryUtils.DEFAULT_RESPONSE_ERROR_HANDLER.hasError(response);
+        }
+
+        @Override
+        public void handleError(ClientHttpResponse response) throws IOException {
+            if (response.getStatusCode().value() == 429)
+                tooManyRequestsHandler.handleError(response);
+            else
+                RetryUtils.DEFAULT_RESPONSE_ERROR_HANDLER.handleError(response);
+        }
+    };
+
+    private ChatModelRetry() { }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat.models;
+
+import com.didalgo.intellij.chatgpt.chat.AssistantType;
+import com.didalgo.intellij.chatgpt.settings.GeneralSettings;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.serviceContainer.NonInjectable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Opens a pooled connection to the API endpoint of an assistant while the user is still composing
+ * a prompt, so that the DNS lookup and the TCP and TLS handshakes are done before it is sent.
+ * <p>
+ * The connection is opened with a {@code HEAD} request of the endpoint base URL, without credentials,
+ * whatever its response. An endpoint is warmed up at most once per {@link #MIN_INTERVAL}, which is
+ * shorter than the time the pool keeps idle connections, and only one warm-up of an endpoint is in
+ * flight at a time.
+ *
+ * @author Mariusz Bernacki
+ */
+public class ConnectionPrewarmer implements Disposable {
+
+    private static final Logger LOG = Logger.getInstance(ConnectionPrewarmer.class);
+
+    static final Duration MIN_INTERVAL = HttpConnectionRegistry.MAX_IDLE_TIME.dividedBy(2);
+    static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private final Function<String, Mono<?>> warmUp;
+    private final LongSupplier nanoTime;
+    private final Map<String, Long> lastWarmUps = new ConcurrentHashMap<>();
+    private final Map<String, reactor.core.Disposable> warmUpsInFlight = new ConcurrentHashMap<>();
+
+    public ConnectionPrewarmer() {
+        this(ConnectionPrewarmer::headRequest, System::nanoTime);
+    }
+
+    @NonInjectable
+    ConnectionPrewarmer(Function<String, Mono<?>> warmUp, LongSupplier nanoTime) {
+        this.warmUp = warmUp;
+        this.nanoTime = nanoTime;
+    }
+
+    public static ConnectionPrewarmer getInstance() {
+        return ApplicationManager.getApplication().getService(ConnectionPrewarmer.class);
+    }
+
+    /**
+     * Warms up the connection to the API endpoint of the assistant in the background, unless
+     * it was done recently.
+     */
+    public void prewarm(AssistantType assistant) {
+        if (!(assistant instanceof AssistantType.System system) || system.getFamily() == null
+                || system.getFamily() == ModelFamily.AZURE_OPENAI)
+            return;
+
+        var options = GeneralSettings.getInstance().getAssistantOptions(system);
+        var baseUrl = options.isEnableCustomApiEndpointUrl() ? options.getApiEndpointUrl() : system.getFamily().getDefaultApiEndpointUrl();
+        if (baseUrl != null && !baseUrl.isBlank())
+            prewarm(baseUrl);
+    }
+
+    /**
+     * Warms up the connection to the endpoint of the URL in the background, unless it was done recently.
+     */
+    public void prewarm(String baseUrl) {
+        String endpoint;
+        try {
+            endpoint = HttpConnectionRegistry.endpointKey(baseUrl);
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+
+        long now = nanoTime.getAsLong();
+        var last = lastWarmUps.get(endpoint);
+        if (last != null && now - last < MIN_INTERVAL.toNanos())
+            return;
+
+        var inFlight = Disposables.swap();
+        if (warmUpsInFlight.putIfAbsent(endpoint, inFlight) != null)
+            return;
+
+        lastWarmUps.put(endpoint, now);
+        inFlight.update(warmUp.apply(baseUrl)
+                .timeout(TIMEOUT)
+                .doFinally(signal -> warmUpsInFlight.remove(endpoint, inFlight))
+                .subscribe(null, e -> LOG.debug("Unable to warm up connection to " + endpoint, e)));
+    }
+
+    /**
+     * Cancels the warm-ups in flight.
+     */
+    public void cancel() {
+        warmUpsInFlight.values().forEach(reactor.core.Disposable::dispose);
+        warmUpsInFlight.clear();
+    }
+
+    int inFlight() {
+        return warmUpsInFlight.size();
+    }
+
+    private static Mono<?> headRequest(String baseUrl) {
+        return HttpConnectionRegistry.getInstance().httpClient(baseUrl)
+                .head()
+                .uri(baseUrl)
+                .responseSingle((response, body) -> body.then(Mono.just(response.status())));
+    }
+
+    @Override
+    public void dispose() {
+        cancel();
+    }
+}
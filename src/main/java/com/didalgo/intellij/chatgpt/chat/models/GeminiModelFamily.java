@@ -22,11 +22,15 @@ public class GeminiModelFamily implements ModelFamily {
             baseUrl = OPENAI_COMPATIBLE_BASE_URL;
         }
 
+        var connections = HttpConnectionRegistry.getInstance();
         var api = OpenAiApi.builder()
                 .baseUrl(baseUrl)
                 .completionsPath("/chat/completions")
                 .embeddingsPath("/embeddings")
                 .apiKey(config.getApiKey())
+                .restClientBuilder(connections.restClientBuilder(baseUrl))
+                .webClientBuilder(connections.webClientBuilder(baseUrl))
+                .responseErrorHandler(ChatModelRetry.RESPONSE_ERROR_HANDLER)
                 .build();
         var options = OpenAiChatOptions.builder()
                 .model(config.getModelName())
@@ -35,7 +39,11 @@ public class GeminiModelFamily implements ModelFamily {
                 .topP(config.getTopP())
                 .N(1)
                 .build();
-        return new OpenAiChatModel(api, options);
+        return OpenAiChatModel.builder()
+                .defaultOptions(options)
+                .openAiApi(api)
+                .retryTemplate(ChatModelRetry.NO_RETRY)
+                .build();
     }
 
     @Override
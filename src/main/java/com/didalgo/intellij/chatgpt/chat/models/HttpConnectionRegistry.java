@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat.models;
+
+import com.didalgo.intellij.chatgpt.settings.GeneralSettings;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import org.springframework.http.client.ReactorClientHttpRequestFactory;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps one pool of HTTP connections per API endpoint, shared by all chat models talking to it,
+ * both by their blocking {@link RestClient} and their streaming {@link WebClient}.
+ * <p>
+ * Connections are kept alive between requests, so that a new chat or a rebuilt model does not pay
+ * for a new TCP and TLS handshake. HTTP/2 is negotiated with HTTPS endpoints supporting it, letting
+ * concurrent requests share a single connection. Connections idle for longer than most servers keep
+ * them open are evicted in the background.
+ *
+ * @author Mariusz Bernacki
+ */
+public class HttpConnectionRegistry implements Disposable {
+
+    static final int MAX_CONNECTIONS = 16;
+    static final int MAX_PENDING_ACQUIRES = 256;
+    static final Duration MAX_IDLE_TIME = Duration.ofSeconds(50);
+    static final Duration MAX_LIFE_TIME = Duration.ofMinutes(10);
+    static final Duration EVICTION_INTERVAL = Duration.ofSeconds(15);
+
+    private final Map<String, ConnectionProvider> connectionProviders = new ConcurrentHashMap<>();
+
+    public static HttpConnectionRegistry getInstance() {
+        return ApplicationManager.getApplication().getService(HttpConnectionRegistry.class);
+    }
+
+    /**
+     * Gives the HTTP client for the endpoint, with the read timeout of the current settings.
+     *
+     * @param baseUrl the base URL of the API
+     */
+    public HttpClient httpClient(String baseUrl) {
+        var client = HttpClient.create(connectionProvider(baseUrl))
+                .keepAlive(true)
+                .responseTimeout(Duration.ofMillis(Integer.parseInt(GeneralSettings.getInstance().getReadTimeout())));
+        return isSecure(baseUrl)
+                ? client.protocol(HttpProtocol.H2, HttpProtocol.HTTP11).secure()
+                : client;
+    }
+
+    public RestClient.Builder restClientBuilder(String baseUrl) {
+        return RestClient.builder().requestFactory(new ReactorClientHttpRequestFactory(httpClient(baseUrl)));
+    }
+
+    public WebClient.Builder webClientBuilder(String baseUrl) {
+        return WebClient.builder().clientConnector(new ReactorClientHttpConnector(httpClient(baseUrl)));
+    }
+
+    ConnectionProvider connectionProvider(String baseUrl) {
+        return connectionProviders.computeIfAbsent(endpointKey(baseUrl), key -> ConnectionProvider.builder("ai-assistant-" + key)
+                .maxConnections(MAX_CONNECTIONS)
+                .pendingAcquireMaxCount(MAX_PENDING_ACQUIRES)
+                .maxIdleTime(MAX_IDLE_TIME)
+                .maxLifeTime(MAX_LIFE_TIME)
+                .evictInBackground(EVICTION_INTERVAL)
+                .build());
+    }
+
+    /**
+     * Gives the endpoint of the URL, its scheme, host and port, which identifies the connections to it.
+     */
+    static String endpointKey(String baseUrl) {
+        var uri = URI.create(baseUrl.trim());
+        var scheme = (uri.getScheme() == null) ? "https" : uri.getScheme().toLowerCase(Locale.ROOT);
+        var host = (uri.getHost() == null) ? "" : uri.getHost().toLowerCase(Locale.ROOT);
+        int port = (uri.getPort() != -1) ? uri.getPort() : "http".equals(scheme) ? 80 : 443;
+        return scheme + "://" + host + ":" + port;
+    }
+
+    private static boolean isSecure(String baseUrl) {
+        return endpointKey(baseUrl).startsWith("https:");
+    }
+
+    @Override
+    public void dispose() {
+        connectionProviders.values().forEach(ConnectionProvider::dispose);
+        connectionProviders.clear();
+    }
+}
@@ -6,15 +6,10 @@ package com.didalgo.intellij.chatgpt.chat.models;
 
 import com.didalgo.intellij.chatgpt.settings.GeneralSettings;
 import org.springframework.ai.chat.model.ChatModel;
-import org.springframework.http.client.ReactorClientHttpRequestFactory;
 import org.springframework.util.ReflectionUtils;
-import org.springframework.web.client.RestClient;
-import reactor.netty.http.client.HttpClient;
 
-import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
-import java.util.function.Consumer;
 
 public interface ModelFamily {
 
@@ -61,13 +56,4 @@ public interface ModelFamily {
                     }
                 });
     }
-
-    static Consumer<RestClient.Builder> defaultTimeout() {
-        return restClientBuilder -> {
-            var reactorHttpClient = HttpClient.create()
-                    .responseTimeout(
-                            Duration.ofMillis(Integer.parseInt(GeneralSettings.getInstance().getReadTimeout())));
-            restClientBuilder.requestFactory(new ReactorClientHttpRequestFactory(reactorHttpClient));
-        };
-    }
 }
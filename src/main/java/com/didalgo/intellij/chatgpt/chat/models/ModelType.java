@@ -30,23 +30,29 @@ public interface ModelType {
         return false;
     }
 
+    /**
+     * Gives the number of tokens of the context window reserved for the model output, i.e. not
+     * available for the prompt. Reasoning models get a larger reserve, as their hidden reasoning
+     * tokens count towards the output.
+     */
+    default int getOutputTokenReserve() {
+        int outputTokens = supportsReasoningEffort() ? 25_000 : 4096;
+        return Math.min(getInputTokenLimit() / 3, outputTokens);
+    }
+
     default ChatOptions incompatibleChatOptionsOverride() {
         return OVERRIDE_NONE;
     }
 
     default GPT3Tokenizer getTokenizer() {
-        try {
-            return com.didalgo.gpt3.ModelType.forModel(id()).orElseThrow().getTokenizer();
-        } catch (IllegalArgumentException e) {
-            return com.didalgo.gpt3.ModelType.forModel(com.didalgo.gpt3.ModelType.GPT_4.modelName()).orElseThrow().getTokenizer();
-        }
+        return TokenizerRegistry.getTokenizer(id()).getTokenizer();
     }
 
     default ChatFormatDescriptor getChatFormatDescriptor() {
-        try {
-            return com.didalgo.gpt3.ModelType.forModel(id()).orElseThrow().getChatFormatDescriptor();
-        } catch (IllegalArgumentException e) {
-            return com.didalgo.gpt3.ModelType.forModel(com.didalgo.gpt3.ModelType.GPT_4.modelName()).orElseThrow().getChatFormatDescriptor();
-        }
+        return TokenizerRegistry.getTokenizer(id()).getChatFormatDescriptor();
+    }
+
+    default TokenEstimator getTokenEstimator() {
+        return TokenizerRegistry.getTokenEstimator(this);
     }
 }
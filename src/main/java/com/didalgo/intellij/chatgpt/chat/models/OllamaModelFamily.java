@@ -25,7 +25,8 @@ public class OllamaModelFamily implements ModelFamily {
     @Override
     public OllamaChatModel createChatModel(GeneralSettings.AssistantOptions config) {
         var baseUrl = config.isEnableCustomApiEndpointUrl()? config.getApiEndpointUrl(): getDefaultApiEndpointUrl();
-        var api = new OllamaApi(baseUrl);
+        var connections = HttpConnectionRegistry.getInstance();
+        var api = new OllamaApi(baseUrl, connections.restClientBuilder(baseUrl), connections.webClientBuilder(baseUrl));
         var options = OllamaOptions.builder()
                 .model(config.getModelName())
                 .temperature(config.getTemperature())
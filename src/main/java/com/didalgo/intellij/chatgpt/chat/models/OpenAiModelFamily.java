@@ -9,7 +9,6 @@ import org.springframework.ai.openai.OpenAiChatModel;
 import org.springframework.ai.openai.OpenAiChatOptions;
 import org.springframework.ai.openai.api.OpenAiApi;
 import org.springframework.ai.openai.api.common.OpenAiApiConstants;
-import org.springframework.web.client.RestClient;
 
 import java.util.List;
 
@@ -19,6 +18,7 @@ public class OpenAiModelFamily implements ModelFamily {
     public OpenAiChatModel createChatModel(GeneralSettings.AssistantOptions config) {
         var baseUrl = config.isEnableCustomApiEndpointUrl()? config.getApiEndpointUrl(): getDefaultApiEndpointUrl();
         var apiKey = config.getApiKey();
+        var connections = HttpConnectionRegistry.getInstance();
         var options = OpenAiChatOptions.builder()
                 .model(config.getModelName())
                 .temperature(config.getTemperature())
@@ -33,8 +33,11 @@ public class OpenAiModelFamily implements ModelFamily {
                 .openAiApi(OpenAiApi.builder()
                         .baseUrl(baseUrl)
                         .apiKey(apiKey)
-                        .restClientBuilder(RestClient.builder().apply(ModelFamily.defaultTimeout()))
+                        .restClientBuilder(connections.restClientBuilder(baseUrl))
+                        .webClientBuilder(connections.webClientBuilder(baseUrl))
+                        .responseErrorHandler(ChatModelRetry.RESPONSE_ERROR_HANDLER)
                         .build())
+                .retryTemplate(ChatModelRetry.NO_RETRY)
                 .build();
     }
 
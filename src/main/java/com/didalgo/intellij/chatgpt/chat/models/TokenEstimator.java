@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat.models;
+
+import org.springframework.ai.chat.messages.Message;
+
+/**
+ * Counts, or estimates, tokens of texts and chat messages as seen by a particular model.
+ *
+ * @author Mariusz Bernacki
+ * @see TokenizerRegistry#getTokenEstimator(ModelType)
+ */
+public interface TokenEstimator {
+
+    /**
+     * Gives the number of tokens of the plain text.
+     */
+    int countTokens(CharSequence text);
+
+    /**
+     * Gives the number of tokens contributed by the message to the conversation, including the
+     * message formatting overhead.
+     */
+    int countMessageTokens(Message message);
+
+    /**
+     * Gives the number of tokens added to every conversation regardless of its messages.
+     */
+    int countReplyPrimingTokens();
+
+    /**
+     * Tells whether counts are exact, i.e. computed with the actual model tokenizer.
+     */
+    default boolean isExact() {
+        return false;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat.models;
+
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Resolves and caches tokenizers and token estimators of models.
+ * <p>
+ * Each model id is resolved to a tokenizer only once, and models sharing the same tokenizer
+ * share the same instance, so that counts memoized per tokenizer are reused. Models of the
+ * OpenAI families are counted exactly with their BPE tokenizer, other families get a
+ * {@linkplain CalibratedTokenEstimator calibrated estimator}.
+ *
+ * @author Mariusz Bernacki
+ */
+public final class TokenizerRegistry {
+
+    private static final Logger LOG = Logger.getInstance(TokenizerRegistry.class);
+
+    private static final com.didalgo.gpt3.ModelType FALLBACK_MODEL = com.didalgo.gpt3.ModelType.GPT_4;
+
+    private static final Map<String, BpeTokenEstimator> tokenizersById = new ConcurrentHashMap<>();
+    private static final Map<com.didalgo.gpt3.ModelType, BpeTokenEstimator> tokenizers = new ConcurrentHashMap<>();
+    private static final Map<ModelType, TokenEstimator> estimators = new ConcurrentHashMap<>();
+    private static final AtomicBoolean warmedUp = new AtomicBoolean();
+
+    private TokenizerRegistry() { }
+
+    /**
+     * Gives the BPE tokenizer, together with its chat format, of the model with the given id,
+     * falling back to the GPT-4 tokenizer if the model is not an OpenAI one.
+     */
+    public static BpeTokenEstimator getTokenizer(String modelId) {
+        return tokenizersById.computeIfAbsent((modelId == null) ? "" : modelId,
+                id -> tokenizers.computeIfAbsent(resolve(id), model -> new BpeTokenEstimator(model.getTokenizer(), model.getChatFormatDescriptor())));
+    }
+
+    private static com.didalgo.gpt3.ModelType resolve(String modelId) {
+        try {
+            return com.didalgo.gpt3.ModelType.forModel(modelId).orElse(FALLBACK_MODEL);
+        } catch (IllegalArgumentException e) {
+            return FALLBACK_MODEL;
+        }
+    }
+
+    /**
+     * Gives the token estimator appropriate for the model.
+     */
+    public static TokenEstimator getTokenEstimator(ModelType model) {
+        return estimators.computeIfAbsent(model, TokenizerRegistry::createTokenEstimator);
+    }
+
+    private static TokenEstimator createTokenEstimator(ModelType model) {
+        ModelFamily family = model.getFamily();
+        if (family instanceof OpenAiModelFamily || family instanceof AzureOpenAiModelFamily)
+            return getTokenizer(model.id());
+        if (family instanceof AnthropicModelFamily)
+            return CalibratedTokenEstimator.ANTHROPIC;
+        if (family instanceof GeminiModelFamily)
+            return CalibratedTokenEstimator.GEMINI;
+        return CalibratedTokenEstimator.GENERIC;
+    }
+
+    /**
+     * Loads vocabularies of the tokenizers of all standard OpenAI models, so that the first count
+     * doesn't pay for it. Only the first call has any effect; it's meant to be called in the
+     * background at startup.
+     */
+    public static void warmUp() {
+        if (!warmedUp.compareAndSet(false, true))
+            return;
+
+        for (StandardModel model : StandardModel.values()) {
+            if (getTokenEstimator(model) instanceof BpeTokenEstimator tokenizer) {
+                try {
+                    tokenizer.countTokens("warm-up");
+                    tokenizer.countReplyPrimingTokens();
+                } catch (RuntimeException e) {
+                    LOG.warn("Unable to load tokenizer of " + model.id(), e);
+                }
+            }
+        }
+    }
+}
@@ -93,14 +93,18 @@ public abstract class LegacyHtmlPanel extends JEditorPane implements HyperlinkLi
             setText("");
         }
         else {
-            @NlsSafe String cssFontDeclaration = UIUtil.getCssFontDeclaration(getBodyFont());
-            setText(new HtmlBuilder()
-                    .append(HtmlChunk.raw(cssFontDeclaration).wrapWith("head"))
-                    .append(HtmlChunk.raw(text).wrapWith(HtmlChunk.body()))
-                    .wrapWith(HtmlChunk.html()).toString());
+            setText(toDocumentText(text));
         }
     }
 
+    protected @NotNull String toDocumentText(@NotNull @Nls String body) {
+        @NlsSafe String cssFontDeclaration = UIUtil.getCssFontDeclaration(getBodyFont());
+        return new HtmlBuilder()
+                .append(HtmlChunk.raw(cssFontDeclaration).wrapWith("head"))
+                .append(HtmlChunk.raw(body).wrapWith(HtmlChunk.body()))
+                .wrapWith(HtmlChunk.html()).toString();
+    }
+
     @NotNull
     protected Font getBodyFont() {
         return UIUtil.getLabelFont();
@@ -127,7 +131,7 @@ public abstract class LegacyHtmlPanel extends JEditorPane implements HyperlinkLi
         repaint();
     }
 
-    private void customizeLinksStyle() {
+    protected void customizeLinksStyle() {
         Document document = getDocument();
         if (document instanceof HTMLDocument) {
             StyleSheet styleSheet = ((HTMLDocument)document).getStyleSheet();
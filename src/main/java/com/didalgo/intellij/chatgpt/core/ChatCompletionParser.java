@@ -4,12 +4,11 @@
  */
 package com.didalgo.intellij.chatgpt.core;
 
+import com.didalgo.intellij.chatgpt.text.IncrementalHtmlFormatter;
 import com.didalgo.intellij.chatgpt.text.TextFragment;
 import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.model.Generation;
 
-import java.util.List;
-
 public class ChatCompletionParser {
 
     public static TextFragment parseTextContent(Generation generation) {
@@ -22,4 +21,8 @@ public class ChatCompletionParser {
         parseResult.toHtml(); // pre-compute and cache HTML content in the current thread
         return parseResult;
     }
+
+    public static TextFragment parseTextContent(CharSequence partialText, IncrementalHtmlFormatter formatter) {
+        return TextFragment.of(partialText, formatter.formatBlocks(partialText));
+    }
 }
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.core;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Text substitutor resolving each text only once, so that volatile placeholders, like
+ * {@code ${{NOW}}}, keep their first resolved value for the lifetime of the instance.
+ * <p>
+ * Used per conversation, it keeps the already sent part of the prompt byte-identical between
+ * requests, as required by provider-side prompt caching. Texts without placeholders are returned
+ * as they are, and not remembered.
+ *
+ * @author Mariusz Bernacki
+ */
+public class FrozenTextSubstitutor implements TextSubstitutor {
+
+    private static final int MAX_TEXTS = 1024;
+    private static final String PLACEHOLDER_START = "${{";
+
+    private final TextSubstitutor delegate;
+    private final Map<String, String> resolvedTexts = Collections.synchronizedMap(
+            new LinkedHashMap<>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > MAX_TEXTS;
+                }
+            });
+
+    public FrozenTextSubstitutor(TextSubstitutor delegate) {
+        this.delegate = delegate;
+    }
+
+    public TextSubstitutor getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public String resolvePlaceholders(String text) {
+        if (text == null || !text.contains(PLACEHOLDER_START))
+            return text;
+
+        return resolvedTexts.computeIfAbsent(text, delegate::resolvePlaceholders);
+    }
+}
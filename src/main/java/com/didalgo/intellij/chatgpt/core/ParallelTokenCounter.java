@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.core;
+
+import com.didalgo.intellij.chatgpt.chat.models.TokenEstimator;
+import com.intellij.openapi.progress.ProgressIndicator;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntConsumer;
+
+/**
+ * Counts tokens of large texts by splitting them into chunks counted in parallel.
+ * <p>
+ * Texts are split at boundaries which don't change the tokenization: preferably right after a
+ * line break followed by a non-whitespace character, otherwise right before a space following a
+ * word, and only as a last resort at an arbitrary position. Chunk counts are simply added up.
+ *
+ * @author Mariusz Bernacki
+ */
+public class ParallelTokenCounter {
+
+    public static final int DEFAULT_CHUNK_SIZE = 32 * 1024;
+
+    private final TokenEstimator tokenEstimator;
+    private final int chunkSize;
+    private final ForkJoinPool pool;
+
+    public ParallelTokenCounter(TokenEstimator tokenEstimator) {
+        this(tokenEstimator, DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool());
+    }
+
+    public ParallelTokenCounter(TokenEstimator tokenEstimator, int chunkSize, ForkJoinPool pool) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("chunkSize: " + chunkSize);
+        this.tokenEstimator = tokenEstimator;
+        this.chunkSize = chunkSize;
+        this.pool = pool;
+    }
+
+    /**
+     * Counts tokens of the text.
+     *
+     * @param text the text
+     * @param indicator the progress indicator checked for cancellation before each chunk
+     * @param progress the consumer of the number of characters of each counted chunk, called
+     *                 concurrently from the worker threads
+     * @return the token count
+     */
+    public int countTokens(CharSequence text, ProgressIndicator indicator, IntConsumer progress) {
+        if (text.length() <= chunkSize) {
+            indicator.checkCanceled();
+            int count = tokenEstimator.countTokens(text);
+            progress.accept(text.length());
+            return count;
+        }
+        return pool.invoke(new ChunkTask(text, 0, text.length(), indicator, progress));
+    }
+
+    /**
+     * Finds the split position of the text range, closest to its middle.
+     */
+    static int findSplitPosition(CharSequence text, int start, int end) {
+        int middle = (start + end) >>> 1;
+        int wordBoundary = -1;
+        for (int distance = 0; middle - distance > start || middle + distance < end; distance++) {
+            int pos = middle + distance;
+            if (pos < end && pos > start) {
+                if (isLineBoundary(text, pos))
+                    return pos;
+                if (wordBoundary < 0 && isWordBoundary(text, pos))
+                    wordBoundary = pos;
+            }
+            pos = middle - distance;
+            if (pos > start && pos < end) {
+                if (isLineBoundary(text, pos))
+                    return pos;
+                if (wordBoundary < 0 && isWordBoundary(text, pos))
+                    wordBoundary = pos;
+            }
+        }
+        return (wordBoundary >= 0) ? wordBoundary : middle;
+    }
+
+    private static boolean isLineBoundary(CharSequence text, int pos) {
+        return text.charAt(pos - 1) == '\n' && !Character.isWhitespace(text.charAt(pos));
+    }
+
+    private static boolean isWordBoundary(CharSequence text, int pos) {
+        return text.charAt(pos) == ' ' && Character.isLetterOrDigit(text.charAt(pos - 1))
+                && pos + 1 < text.length() && Character.isLetterOrDigit(text.charAt(pos + 1));
+    }
+
+    private class ChunkTask extends RecursiveTask<Integer> {
+        private final CharSequence text;
+        private final int start, end;
+        private final ProgressIndicator indicator;
+        private final IntConsumer progress;
+
+        ChunkTask(CharSequence text, int start, int end, ProgressIndicator indicator, IntConsumer progress) {
+            this.text = text;
+            this.start = start;
+            this.end = end;
+            this.indicator = indicator;
+            this.progress = progress;
+        }
+
+        @Override
+        protected Integer compute() {
+            indicator.checkCanceled();
+            if (end - start <= chunkSize) {
+                int count = tokenEstimator.countTokens(text.subSequence(start, end));
+                progress.accept(end - start);
+                return count;
+            }
+            int split = findSplitPosition(text, start, end);
+            var left = new ChunkTask(text, start, split, indicator, progress);
+            left.fork();
+            int right = new ChunkTask(text, split, end, indicator, progress).compute();
+            return left.join() + right;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.core;
+
+import com.didalgo.intellij.chatgpt.chat.models.ModelType;
+import com.didalgo.intellij.chatgpt.chat.models.TokenEstimator;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.concurrency.AppExecutorUtil;
+
+import javax.swing.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Counts tokens of potentially large texts, like prompt attachments, in the background.
+ * <p>
+ * Counting is requested on behalf of an owner, e.g. an attachment, and never blocks the caller: the
+ * count is returned once known, otherwise a job is scheduled on a bounded executor and the
+ * caller is notified on the EDT when it's done. A request for a different model cancels the
+ * owner's previous job. Computed counts are cached by the content hash and tokenizer, so the same
+ * text attached again, or counted in another tool window, is not re-encoded.
+ * <p>
+ * Large texts are encoded in chunks, and a cancelled job stops before the next chunk. A job which
+ * fails is forgotten, so that the count is computed again when requested next time.
+ *
+ * @author Mariusz Bernacki
+ */
+@Service
+public final class TokenizationService {
+
+    private static final Logger LOG = Logger.getInstance(TokenizationService.class);
+
+    private static final int MAX_THREADS = 2;
+    private static final int CACHE_SIZE = 256;
+    private static final int CHUNK_SIZE = ParallelTokenCounter.DEFAULT_CHUNK_SIZE;
+
+    private final ExecutorService executor = AppExecutorUtil.createBoundedApplicationPoolExecutor("AI Assistant Tokenization", MAX_THREADS);
+    private final Map<Object, Job> jobs = new WeakHashMap<>();
+    private final Map<CacheKey, Integer> tokenCounts = Collections.synchronizedMap(
+            new LinkedHashMap<>(32, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<CacheKey, Integer> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            });
+
+    private record CacheKey(TokenEstimator tokenEstimator, String contentHash) { }
+
+    private static final class Job {
+        private final ModelType model;
+        private volatile Future<?> future;
+        private volatile int tokenCount = -1;
+        private volatile boolean cancelled;
+
+        Job(ModelType model) {
+            this.model = model;
+        }
+
+        boolean isCancelled() {
+            return cancelled || Thread.currentThread().isInterrupted();
+        }
+
+        void cancel() {
+            cancelled = true;
+            future.cancel(false);
+        }
+    }
+
+    public static TokenizationService getInstance() {
+        return ApplicationManager.getApplication().getService(TokenizationService.class);
+    }
+
+    /**
+     * Gives the token count of the owner's text, if already known, or schedules its computation.
+     *
+     * @param owner the owner of the text, used to track and cancel the computation
+     * @param text the supplier of the text, called in the background
+     * @param model the model which tokenizer is to be used
+     * @param onComputed the callback invoked on the EDT when the count is computed in the background
+     * @return the token count, or {@code -1} if not known yet
+     */
+    public int getTokenCount(Object owner, Supplier<String> text, ModelType model, Runnable onComputed) {
+        synchronized (jobs) {
+            Job job = jobs.get(owner);
+            if (job != null && job.model.equals(model))
+                return job.tokenCount;
+
+            if (job != null)
+                job.cancel();
+            Job newJob = new Job(model);
+            newJob.future = executor.submit(() -> {
+                try {
+                    newJob.tokenCount = countTokens(text.get(), model.getTokenEstimator(), newJob::isCancelled);
+                    SwingUtilities.invokeLater(onComputed);
+                } catch (CancellationException e) {
+                    // superseded or cancelled by the owner
+                } catch (RuntimeException e) {
+                    LOG.warn("Unable to count tokens", e);
+                    synchronized (jobs) {
+                        jobs.remove(owner, newJob);
+                    }
+                }
+            });
+            jobs.put(owner, newJob);
+            return -1;
+        }
+    }
+
+    /**
+     * Cancels the computation scheduled for the owner, if any, and forgets its result.
+     *
+     * @param owner the owner of the text
+     */
+    public void cancel(Object owner) {
+        Job job;
+        synchronized (jobs) {
+            job = jobs.remove(owner);
+        }
+        if (job != null)
+            job.cancel();
+    }
+
+    /**
+     * Counts tokens of the text, using the cached count if the same text was counted before with the
+     * same exact tokenizer. Estimated counts are cheap and not cached.
+     *
+     * @param text the text
+     * @param tokenEstimator the token estimator
+     * @return the token count
+     */
+    public int countTokens(String text, TokenEstimator tokenEstimator) {
+        return countTokens(text, tokenEstimator, () -> false);
+    }
+
+    private int countTokens(String text, TokenEstimator tokenEstimator, BooleanSupplier cancelled) {
+        if (!tokenEstimator.isExact())
+            return tokenEstimator.countTokens(text);
+
+        var key = new CacheKey(tokenEstimator, contentHash(text));
+        Integer count = tokenCounts.get(key);
+        if (count == null) {
+            count = 0;
+            for (int start = 0, end; start < text.length(); start = end) {
+                if (cancelled.getAsBoolean())
+                    throw new CancellationException();
+
+                end = (text.length() - start <= CHUNK_SIZE) ? text.length()
+                        : ParallelTokenCounter.findSplitPosition(text, start, start + 2 * CHUNK_SIZE);
+                count += tokenEstimator.countTokens(text.subSequence(start, end));
+            }
+            tokenCounts.put(key, count);
+        }
+        return count;
+    }
+
+    private static String contentHash(String text) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not supported", e);
+        }
+    }
+}
@@ -28,6 +28,7 @@ import java.lang.System;
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 
 import static com.didalgo.intellij.chatgpt.chat.AssistantType.System.*;
@@ -66,6 +67,15 @@ public class GeneralSettings implements PersistentStateComponent<GeneralSettings
     private volatile boolean enableAvatar = true;
     private volatile boolean enableLineWarp = true;
     private volatile Boolean enableInitialMessage = null;
+    private volatile boolean enableHistoryCompaction = false;
+    private volatile AssistantType.System historyCompactionAssistant = GPT_3_5;
+    private volatile boolean enablePromptCaching = true;
+    private volatile boolean enableConversationJournal = true;
+    private volatile boolean enableResponseCache = false;
+    private volatile boolean enableSimilarPromptCache = false;
+    private volatile int similarPromptThreshold = 90;
+    private volatile boolean enableHedgedRequests = false;
+    private volatile AssistantType.System hedgeFallbackAssistant = GPT_3_5;
 
     private volatile AssistantOptions gpt35Config;
     private volatile AssistantOptions gpt4Config;
@@ -140,7 +150,10 @@ public class GeneralSettings implements PersistentStateComponent<GeneralSettings
     @Setter
     @Tag("ApiConfig") // for backward compatibility
     public static class AssistantOptions implements AssistantConfiguration {
+        private static final AtomicLong apiKeyRevisions = new AtomicLong();
+
         private final @Getter(AccessLevel.NONE) CredentialStore credentialStore;
+        private volatile @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE) long apiKeyRevision;
         private volatile AssistantType assistantType;
         private volatile String modelName;
         private volatile String apiKeyMasked = "";
@@ -284,6 +297,16 @@ public class GeneralSettings implements PersistentStateComponent<GeneralSettings
         public void setApiKey(String apiKey) {
             setApiKeyMasked(maskText(defaultIfEmpty(
                     credentialStore().setAndGetPassword(getAssistantType().name(), apiKey), "")));
+            apiKeyRevision = apiKeyRevisions.incrementAndGet();
+        }
+
+        /**
+         * Gives the revision of the API key, unique to each key set in this session, so that a change
+         * of the key can be told without reading it from the credential store.
+         */
+        @Transient
+        public long getApiKeyRevision() {
+            return apiKeyRevision;
         }
 
         private static String maskText(String text) {
@@ -5,10 +5,12 @@
 package com.didalgo.intellij.chatgpt.settings;
 
 import com.didalgo.intellij.chatgpt.chat.AssistantType;
+import com.didalgo.intellij.chatgpt.chat.client.ChatClientHolder;
 import com.intellij.openapi.application.ex.ApplicationManagerEx;
 import com.intellij.openapi.options.Configurable;
 import com.intellij.openapi.ui.MessageDialogBuilder;
 import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.ui.SimpleListCellRenderer;
 import com.intellij.ui.TitledSeparator;
 import com.intellij.ui.components.JBTextField;
 import com.intellij.util.ui.JBUI;
@@ -20,6 +22,7 @@ import org.jetbrains.annotations.Nullable;
 import javax.swing.*;
 import java.awt.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class GeneralSettingsPanel implements Configurable {
@@ -33,6 +36,15 @@ public class GeneralSettingsPanel implements Configurable {
     private JComboBox<String> secondCombobox;
     private JCheckBox enableLineWarpCheckBox;
     private JCheckBox enableInitialMessageCheckBox;
+    private JCheckBox enableHistoryCompactionCheckBox;
+    private JComboBox<AssistantType.System> historyCompactionCombobox;
+    private JCheckBox enablePromptCachingCheckBox;
+    private JCheckBox enableConversationJournalCheckBox;
+    private JCheckBox enableResponseCacheCheckBox;
+    private JCheckBox enableSimilarPromptCacheCheckBox;
+    private JSpinner similarPromptThresholdSpinner;
+    private JCheckBox enableHedgedRequestsCheckBox;
+    private JComboBox<AssistantType.System> hedgeFallbackCombobox;
     private JLabel readTimeoutHelpLabel;
     private JLabel contentOrderHelpLabel;
     private JPanel openaiAssistantTitledBorderBox;
@@ -52,6 +64,24 @@ public class GeneralSettingsPanel implements Configurable {
 
         firstCombobox.setModel(new DefaultComboBoxModel<>(comboboxItemsString));
         secondCombobox.setModel(new DefaultComboBoxModel<>(comboboxItemsString));
+        similarPromptThresholdSpinner.setModel(new SpinnerNumberModel(90, 50, 100, 1));
+        enableResponseCacheCheckBox.addItemListener(e -> updateSimilarPromptCacheEnabled());
+        historyCompactionCombobox.setModel(new DefaultComboBoxModel<>(Arrays.stream(AssistantType.System.values())
+                .filter(type -> type.getFamily() != null)
+                .toArray(AssistantType.System[]::new)));
+        historyCompactionCombobox.setRenderer(SimpleListCellRenderer.create("", AssistantType.System::displayName));
+        enableHistoryCompactionCheckBox.addItemListener(e -> historyCompactionCombobox.setEnabled(enableHistoryCompactionCheckBox.isSelected()));
+        hedgeFallbackCombobox.setModel(new DefaultComboBoxModel<>(Arrays.stream(AssistantType.System.values())
+                .filter(type -> type.getFamily() != null)
+                .filter(type -> GeneralSettings.getInstance().getAssistantOptions(type).getModelType().supportsStreaming())
+                .toArray(AssistantType.System[]::new)));
+        hedgeFallbackCombobox.setRenderer(SimpleListCellRenderer.create("", AssistantType.System::displayName));
+        enableHedgedRequestsCheckBox.addItemListener(e -> hedgeFallbackCombobox.setEnabled(enableHedgedRequestsCheckBox.isSelected()));
+    }
+
+    private void updateSimilarPromptCacheEnabled() {
+        enableSimilarPromptCacheCheckBox.setEnabled(enableResponseCacheCheckBox.isSelected());
+        similarPromptThresholdSpinner.setEnabled(enableResponseCacheCheckBox.isSelected());
     }
 
     @Override
@@ -63,6 +93,18 @@ public class GeneralSettingsPanel implements Configurable {
         secondCombobox.setSelectedItem(state.contentOrder.get(2));
         enableLineWarpCheckBox.setSelected(state.isEnableLineWarp());
         enableInitialMessageCheckBox.setSelected(Boolean.TRUE.equals(state.getEnableInitialMessage()));
+        enableHistoryCompactionCheckBox.setSelected(state.isEnableHistoryCompaction());
+        historyCompactionCombobox.setSelectedItem(state.getHistoryCompactionAssistant());
+        historyCompactionCombobox.setEnabled(state.isEnableHistoryCompaction());
+        enablePromptCachingCheckBox.setSelected(state.isEnablePromptCaching());
+        enableConversationJournalCheckBox.setSelected(state.isEnableConversationJournal());
+        enableResponseCacheCheckBox.setSelected(state.isEnableResponseCache());
+        enableSimilarPromptCacheCheckBox.setSelected(state.isEnableSimilarPromptCache());
+        similarPromptThresholdSpinner.setValue(state.getSimilarPromptThreshold());
+        updateSimilarPromptCacheEnabled();
+        enableHedgedRequestsCheckBox.setSelected(state.isEnableHedgedRequests());
+        hedgeFallbackCombobox.setSelectedItem(state.getHedgeFallbackAssistant());
+        hedgeFallbackCombobox.setEnabled(state.isEnableHedgedRequests());
         initHelp();
     }
 
@@ -86,7 +128,16 @@ public class GeneralSettingsPanel implements Configurable {
                 || !StringUtil.equals(state.contentOrder.get(1), (String)firstCombobox.getSelectedItem())
                 || !StringUtil.equals(state.contentOrder.get(2), (String)secondCombobox.getSelectedItem())
                 || !state.isEnableLineWarp() == enableLineWarpCheckBox.isSelected()
-                || !Boolean.TRUE.equals(state.getEnableInitialMessage()) == enableInitialMessageCheckBox.isSelected();
+                || !Boolean.TRUE.equals(state.getEnableInitialMessage()) == enableInitialMessageCheckBox.isSelected()
+                || !state.isEnableHistoryCompaction() == enableHistoryCompactionCheckBox.isSelected()
+                || state.getHistoryCompactionAssistant() != historyCompactionCombobox.getSelectedItem()
+                || !state.isEnablePromptCaching() == enablePromptCachingCheckBox.isSelected()
+                || !state.isEnableConversationJournal() == enableConversationJournalCheckBox.isSelected()
+                || !state.isEnableResponseCache() == enableResponseCacheCheckBox.isSelected()
+                || !state.isEnableSimilarPromptCache() == enableSimilarPromptCacheCheckBox.isSelected()
+                || state.getSimilarPromptThreshold() != (Integer) similarPromptThresholdSpinner.getValue()
+                || !state.isEnableHedgedRequests() == enableHedgedRequestsCheckBox.isSelected()
+                || state.getHedgeFallbackAssistant() != hedgeFallbackCombobox.getSelectedItem();
     }
 
     @Override
@@ -117,6 +168,16 @@ public class GeneralSettingsPanel implements Configurable {
         state.contentOrder.put(2, secondSelected);
         state.setEnableLineWarp(enableLineWarpCheckBox.isSelected());
         state.setEnableInitialMessage(enableInitialMessageCheckBox.isSelected());
+        state.setEnableHistoryCompaction(enableHistoryCompactionCheckBox.isSelected());
+        state.setHistoryCompactionAssistant((AssistantType.System) historyCompactionCombobox.getSelectedItem());
+        state.setEnablePromptCaching(enablePromptCachingCheckBox.isSelected());
+        state.setEnableConversationJournal(enableConversationJournalCheckBox.isSelected());
+        state.setEnableResponseCache(enableResponseCacheCheckBox.isSelected());
+        state.setEnableSimilarPromptCache(enableSimilarPromptCacheCheckBox.isSelected());
+        state.setSimilarPromptThreshold((Integer) similarPromptThresholdSpinner.getValue());
+        state.setEnableHedgedRequests(enableHedgedRequestsCheckBox.isSelected());
+        state.setHedgeFallbackAssistant((AssistantType.System) hedgeFallbackCombobox.getSelectedItem());
+        ChatClientHolder.refresh();
 
         if (needRestart) {
             boolean yes = MessageDialogBuilder.yesNo("Content order changed!", "Changing " +
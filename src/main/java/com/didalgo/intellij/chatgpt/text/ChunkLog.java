@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.text;
+
+import java.util.Arrays;
+
+import static java.util.Objects.checkFromToIndex;
+import static java.util.Objects.checkIndex;
+
+/**
+ * An append-only log of text chunks, typically holding a streamed response as it arrives.
+ * <p>
+ * Appending a chunk never copies previously appended text, so the cost of {@link #append(CharSequence)}
+ * stays constant regardless of the log length. A contiguous {@code String} is materialized only
+ * when requested through {@link #toString()} or one of the {@link #snapshot() snapshots}, and the
+ * materialized prefix is cached and reused by subsequent requests.
+ * <p>
+ * The log is safe for a single appending thread and any number of concurrent readers.
+ *
+ * @author Mariusz Bernacki
+ */
+public final class ChunkLog implements CharSequence, TextContent {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private String[] chunks = new String[INITIAL_CAPACITY];
+    private int[] offsets = new int[INITIAL_CAPACITY];
+    private int chunkCount;
+    private int length;
+    private String materialized = "";
+
+    /**
+     * Appends the given chunk to the end of the log.
+     *
+     * @param chunk the text to append, empty chunks are ignored
+     * @return the offset at which the chunk was placed in the log
+     */
+    public synchronized int append(CharSequence chunk) {
+        int offset = length;
+        if (chunk.isEmpty())
+            return offset;
+
+        if (chunkCount == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunkCount * 2);
+            offsets = Arrays.copyOf(offsets, chunkCount * 2);
+        }
+        chunks[chunkCount] = chunk.toString();
+        offsets[chunkCount] = offset;
+        chunkCount++;
+        length += chunk.length();
+        return offset;
+    }
+
+    /**
+     * Gives the number of chunks appended so far.
+     *
+     * @return the chunk count
+     */
+    public synchronized int getChunkCount() {
+        return chunkCount;
+    }
+
+    @Override
+    public synchronized int length() {
+        return length;
+    }
+
+    @Override
+    public synchronized char charAt(int index) {
+        checkIndex(index, length);
+        if (index < materialized.length())
+            return materialized.charAt(index);
+
+        int chunk = chunkIndexAt(index);
+        return chunks[chunk].charAt(index - offsets[chunk]);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return substring(start, end);
+    }
+
+    /**
+     * Returns an immutable view of the log content appended so far. The view doesn't copy the
+     * content until it is materialized with {@code toString()}.
+     *
+     * @return the snapshot of the current content
+     */
+    public CharSequence snapshot() {
+        return snapshot(length());
+    }
+
+    /**
+     * Returns an immutable view of the first {@code end} characters of the log.
+     *
+     * @param end the length of the snapshot
+     * @return the snapshot of the log prefix
+     */
+    public CharSequence snapshot(int end) {
+        checkFromToIndex(0, end, length());
+        return new Snapshot(this, end);
+    }
+
+    public synchronized String substring(int start, int end) {
+        checkFromToIndex(start, end, length);
+        if (end <= materialized.length())
+            return materialized.substring(start, end);
+        if (start == 0 && end == length)
+            return toString();
+
+        var buf = new StringBuilder(end - start);
+        for (int chunk = chunkIndexAt(start); chunk < chunkCount && offsets[chunk] < end; chunk++) {
+            int chunkStart = offsets[chunk];
+            String text = chunks[chunk];
+            buf.append(text, Math.max(start - chunkStart, 0), Math.min(end - chunkStart, text.length()));
+        }
+        return buf.toString();
+    }
+
+    @Override
+    public synchronized String toString() {
+        String text = materialized;
+        if (text.length() < length) {
+            var buf = new StringBuilder(length).append(text);
+            for (int chunk = chunkIndexAt(text.length()); chunk < chunkCount; chunk++)
+                buf.append(chunks[chunk]);
+            materialized = text = buf.toString();
+        }
+        return text;
+    }
+
+    @Override
+    public StringBuilder appendTo(StringBuilder buf) {
+        return buf.append(toString());
+    }
+
+    private int chunkIndexAt(int index) {
+        if (index >= length)
+            return chunkCount;
+
+        int chunk = Arrays.binarySearch(offsets, 0, chunkCount, index);
+        return (chunk >= 0) ? chunk : -chunk - 2;
+    }
+
+    private record Snapshot(ChunkLog log, int length) implements CharSequence {
+
+        @Override
+        public char charAt(int index) {
+            checkIndex(index, length);
+            return log.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            checkFromToIndex(start, end, length);
+            return log.substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return log.substring(0, length);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.text;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Formats Markdown text which grows by appending, e.g. a streamed response, into HTML.
+ * <p>
+ * The formatter remembers the HTML of top-level blocks which can no longer change, i.e. finished
+ * paragraphs, closed fenced code blocks and tables, and on each {@link #format(CharSequence)} call
+ * parses and renders only the trailing open part of the text. The text passed to subsequent calls
+ * is expected to extend the text passed previously; shorter text resets the formatter.
+ * <p>
+ * A block is considered closed when it is followed by a line which certainly starts a new top-level
+ * block: a non-indented line, which is not a list item, preceded either by a blank line or by a
+ * closing code fence. Blocks which might still be continued, like lists, are kept open.
+ *
+ * @author Mariusz Bernacki
+ */
+public class IncrementalHtmlFormatter implements TextFragmentFormatter {
+
+    private final TextFragmentFormatter formatter;
+    private final List<String> closedBlocks = new ArrayList<>();
+    private final StringBuilder closedHtml = new StringBuilder();
+    private int closedLength;
+    private int scanPosition;
+    private boolean afterBlockEnd;
+    private char fenceChar;
+    private int fenceLength;
+
+    public IncrementalHtmlFormatter() {
+        this(TextFragmentToHtmlFormatter.getDefault());
+    }
+
+    public IncrementalHtmlFormatter(TextFragmentFormatter formatter) {
+        this.formatter = formatter;
+    }
+
+    @Override
+    public String format(TextFragment text) {
+        return format(text.markdown());
+    }
+
+    public synchronized String format(CharSequence markdown) {
+        String openHtml = formatOpenBlock(markdown);
+        if (openHtml.isEmpty())
+            return closedHtml.toString();
+
+        return new StringBuilder(closedHtml.length() + openHtml.length())
+                .append(closedHtml)
+                .append(openHtml)
+                .toString();
+    }
+
+    /**
+     * Formats the given text like {@link #format(CharSequence)}, but returns the HTML split into
+     * blocks: the closed blocks followed by the HTML of the trailing open part, if any. Closed
+     * blocks are the same {@code String} instances across calls.
+     *
+     * @param markdown the text to format
+     * @return the list of HTML blocks
+     */
+    public synchronized List<String> formatBlocks(CharSequence markdown) {
+        String openHtml = formatOpenBlock(markdown);
+        if (openHtml.isEmpty())
+            return List.copyOf(closedBlocks);
+
+        var blocks = new ArrayList<String>(closedBlocks.size() + 1);
+        blocks.addAll(closedBlocks);
+        blocks.add(openHtml);
+        return blocks;
+    }
+
+    private String formatOpenBlock(CharSequence markdown) {
+        if (markdown.length() < scanPosition)
+            reset();
+
+        int boundary = findLastBlockBoundary(markdown);
+        if (boundary > closedLength) {
+            String html = formatter.format(TextFragment.of(markdown.subSequence(closedLength, boundary).toString()));
+            closedBlocks.add(html);
+            closedHtml.append(html);
+            closedLength = boundary;
+        }
+
+        if (closedLength == markdown.length())
+            return "";
+
+        return formatter.format(TextFragment.of(markdown.subSequence(closedLength, markdown.length()).toString()));
+    }
+
+    /**
+     * Returns the HTML of the blocks closed so far, in the order of their appearance in the text.
+     *
+     * @return the list of closed blocks
+     */
+    public synchronized List<String> getClosedBlocks() {
+        return List.copyOf(closedBlocks);
+    }
+
+    /**
+     * Returns the length of the Markdown text prefix, which HTML was already cached.
+     *
+     * @return the length of the closed text
+     */
+    public synchronized int getClosedLength() {
+        return closedLength;
+    }
+
+    public synchronized void reset() {
+        closedBlocks.clear();
+        closedHtml.setLength(0);
+        closedLength = 0;
+        scanPosition = 0;
+        afterBlockEnd = false;
+        fenceLength = 0;
+    }
+
+    private int findLastBlockBoundary(CharSequence text) {
+        int boundary = closedLength;
+        int lineStart = scanPosition, lineEnd;
+        while ((lineEnd = indexOf(text, '\n', lineStart)) >= 0) {
+            if (fenceLength > 0) {
+                if (isFence(text, lineStart, lineEnd, fenceChar, fenceLength)) {
+                    fenceLength = 0;
+                    afterBlockEnd = true;
+                }
+            } else {
+                if (afterBlockEnd && startsTopLevelBlock(text, lineStart, lineEnd))
+                    boundary = lineStart;
+
+                afterBlockEnd = isBlank(text, lineStart, lineEnd);
+                if (isFence(text, lineStart, lineEnd, '\0', 3)) {
+                    fenceChar = text.charAt(firstNonSpace(text, lineStart, lineEnd));
+                    fenceLength = fenceLength(text, lineStart, lineEnd);
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        scanPosition = lineStart;
+        return boundary;
+    }
+
+    private static boolean startsTopLevelBlock(CharSequence text, int lineStart, int lineEnd) {
+        if (lineStart == lineEnd || Character.isWhitespace(text.charAt(lineStart)))
+            return false;
+
+        return !isListItem(text, lineStart, lineEnd);
+    }
+
+    private static boolean isListItem(CharSequence text, int lineStart, int lineEnd) {
+        char ch = text.charAt(lineStart);
+        if (ch == '-' || ch == '*' || ch == '+')
+            return lineStart + 1 == lineEnd || Character.isWhitespace(text.charAt(lineStart + 1));
+
+        int i = lineStart;
+        while (i < lineEnd && i - lineStart < 10 && Character.isDigit(text.charAt(i)))
+            i++;
+        return i > lineStart && i < lineEnd && (text.charAt(i) == '.' || text.charAt(i) == ')');
+    }
+
+    private static boolean isFence(CharSequence text, int lineStart, int lineEnd, char requiredChar, int minLength) {
+        int start = firstNonSpace(text, lineStart, lineEnd);
+        if (start - lineStart > 3 || start == lineEnd)
+            return false;
+
+        char ch = text.charAt(start);
+        if (ch != '`' && ch != '~' || requiredChar != '\0' && ch != requiredChar)
+            return false;
+
+        int length = fenceLength(text, lineStart, lineEnd);
+        if (length < minLength)
+            return false;
+
+        // a closing fence may be followed by whitespace only
+        return requiredChar == '\0' || isBlank(text, start + length, lineEnd);
+    }
+
+    private static int fenceLength(CharSequence text, int lineStart, int lineEnd) {
+        int start = firstNonSpace(text, lineStart, lineEnd), end = start;
+        char ch = text.charAt(start);
+        while (end < lineEnd && text.charAt(end) == ch)
+            end++;
+        return end - start;
+    }
+
+    private static int firstNonSpace(CharSequence text, int from, int to) {
+        while (from < to && text.charAt(from) == ' ')
+            from++;
+        return from;
+    }
+
+    private static boolean isBlank(CharSequence text, int from, int to) {
+        for (int i = from; i < to; i++)
+            if (!Character.isWhitespace(text.charAt(i)))
+                return false;
+        return true;
+    }
+
+    private static int indexOf(CharSequence text, char ch, int from) {
+        if (text instanceof String s)
+            return s.indexOf(ch, from);
+
+        for (int i = from, length = text.length(); i < length; i++)
+            if (text.charAt(i) == ch)
+                return i;
+        return -1;
+    }
+}
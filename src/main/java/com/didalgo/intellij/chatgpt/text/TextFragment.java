@@ -4,6 +4,7 @@
  */
 package com.didalgo.intellij.chatgpt.text;
 
+import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static java.util.Objects.requireNonNull;
@@ -23,6 +24,10 @@ public interface TextFragment extends CharSequence, TextContent {
         return new Of(markdown, new AtomicReference<>(html));
     }
 
+    static TextFragment of(CharSequence markdown, List<String> htmlBlocks) {
+        return new Blocks(markdown, htmlBlocks);
+    }
+
     static TextFragment empty() {
         return of("");
     }
@@ -52,6 +57,43 @@ public interface TextFragment extends CharSequence, TextContent {
         }
     }
 
+    /**
+     * A fragment with the HTML already split into top-level blocks, which allows renderers to update
+     * only the blocks changed since the previous version of the text. The Markdown text is kept as
+     * given, e.g. a snapshot of a streamed response, and is materialized only when requested.
+     */
+    record Blocks(CharSequence text, List<String> htmlBlocks) implements TextFragment {
+        public Blocks {
+            requireNonNull(text, "text");
+            htmlBlocks = List.copyOf(htmlBlocks);
+        }
+
+        @Override
+        public String markdown() {
+            return text.toString();
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return text.charAt(index);
+        }
+
+        @Override
+        public String toHtml() {
+            return String.join("", htmlBlocks);
+        }
+
+        @Override
+        public String toString() {
+            return markdown;
+        }
+    }
+
     @Override
     default int length() {
         return markdown().length();
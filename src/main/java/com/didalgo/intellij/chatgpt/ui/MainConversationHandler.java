@@ -36,6 +36,6 @@ public class MainConversationHandler implements ConversationHandler {
         return application.getService(ChatHandler.class)
                 .handle(ctx, event.initiating(chatCompletionRequest), listener)
                 .subscribeOn(Schedulers.boundedElastic())
-                .subscribe();
+                .subscribeWith(new UiPacedSubscriber<>(UiUpdateScheduler.getInstance()));
     }
 }
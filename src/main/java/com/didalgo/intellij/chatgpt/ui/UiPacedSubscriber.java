@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.ui;
+
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.BaseSubscriber;
+
+/**
+ * Subscriber requesting elements one at a time, and only while the {@link UiUpdateScheduler} keeps
+ * up with the UI updates, so that a streamed response is read no faster than it can be displayed.
+ *
+ * @param <T> the type of elements
+ */
+public class UiPacedSubscriber<T> extends BaseSubscriber<T> {
+
+    private final UiUpdateScheduler scheduler;
+
+    public UiPacedSubscriber(UiUpdateScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    protected void hookOnSubscribe(Subscription subscription) {
+        request(1);
+    }
+
+    @Override
+    protected void hookOnNext(T value) {
+        scheduler.whenCaughtUp(() -> {
+            if (!isDisposed())
+                request(1);
+        });
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.ui;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+
+import javax.swing.Timer;
+import java.awt.event.ActionEvent;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces UI updates of all streaming conversations into a single pass per frame.
+ * <p>
+ * Updates are keyed by their owner, so only the most recently scheduled update of each owner is
+ * executed. Each frame executes pending updates on the EDT until the frame budget is used up; the
+ * remaining updates are carried over to the next frame, in order. While updates are being carried
+ * over the scheduler is considered behind, and producers can throttle themselves by deferring
+ * work with {@link #whenCaughtUp(Runnable)}.
+ *
+ * @author Mariusz Bernacki
+ */
+@Service
+public final class UiUpdateScheduler {
+
+    private static final Logger LOG = Logger.getInstance(UiUpdateScheduler.class);
+
+    private static final int FRAME_INTERVAL_MILLIS = 16;
+    private static final long FRAME_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(8);
+
+    private final Map<Object, Runnable> pendingUpdates = new LinkedHashMap<>();
+    private final List<Runnable> caughtUpCallbacks = new ArrayList<>();
+    private final Timer timer = new Timer(FRAME_INTERVAL_MILLIS, this::runFrame);
+    private boolean behind;
+
+    public static UiUpdateScheduler getInstance() {
+        return ApplicationManager.getApplication().getService(UiUpdateScheduler.class);
+    }
+
+    /**
+     * Schedules the update to be executed on the EDT in one of the upcoming frames, replacing any
+     * update of the same owner not executed yet.
+     *
+     * @param owner the owner of the update, e.g. the component being updated
+     * @param update the update to execute
+     */
+    public void schedule(Object owner, Runnable update) {
+        synchronized (pendingUpdates) {
+            pendingUpdates.put(owner, update);
+        }
+        if (!timer.isRunning())
+            timer.start();
+    }
+
+    /**
+     * Executes the given callback as soon as the scheduler keeps up with the pending updates,
+     * i.e. immediately if it's not behind, or at the end of the first frame which executes all of
+     * the carried over updates.
+     *
+     * @param callback the callback to execute
+     */
+    public void whenCaughtUp(Runnable callback) {
+        synchronized (pendingUpdates) {
+            if (behind) {
+                caughtUpCallbacks.add(callback);
+                return;
+            }
+        }
+        callback.run();
+    }
+
+    public boolean isBehind() {
+        synchronized (pendingUpdates) {
+            return behind;
+        }
+    }
+
+    private void runFrame(ActionEvent event) {
+        long deadline = System.nanoTime() + FRAME_BUDGET_NANOS;
+        Runnable update;
+        while ((update = pollUpdate(deadline)) != null) {
+            try {
+                update.run();
+            } catch (Exception e) {
+                LOG.error("Exception in UI update", e);
+            }
+        }
+
+        List<Runnable> callbacks = List.of();
+        synchronized (pendingUpdates) {
+            behind = !pendingUpdates.isEmpty();
+            if (!behind) {
+                timer.stop();
+                callbacks = List.copyOf(caughtUpCallbacks);
+                caughtUpCallbacks.clear();
+            }
+        }
+        callbacks.forEach(Runnable::run);
+    }
+
+    private Runnable pollUpdate(long deadline) {
+        synchronized (pendingUpdates) {
+            Iterator<Runnable> iter = pendingUpdates.values().iterator();
+            if (!iter.hasNext() || System.nanoTime() - deadline > 0)
+                return null;
+
+            Runnable update = iter.next();
+            iter.remove();
+            return update;
+        }
+    }
+}
@@ -4,22 +4,41 @@
  */
 package com.didalgo.intellij.chatgpt.ui.action.editor;
 
-import com.didalgo.gpt3.ModelType;
-import com.didalgo.gpt3.TokenCount;
+import com.didalgo.intellij.chatgpt.chat.ChatLink;
+import com.didalgo.intellij.chatgpt.chat.models.ModelType;
+import com.didalgo.intellij.chatgpt.chat.models.StandardModel;
+import com.didalgo.intellij.chatgpt.core.ParallelTokenCounter;
+import com.intellij.concurrency.JobLauncher;
 import com.intellij.openapi.actionSystem.ActionUpdateThread;
 import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.actionSystem.CommonDataKeys;
 import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.fileTypes.FileTypeRegistry;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectUtil;
 import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
 public class TokenCountAction extends AnAction {
 
+    private static final int MAX_LISTED_FILES = 30;
+
     public TokenCountAction() {
-        super("Token Count", "Count tokens in the selected text or the entire content", null);
+        super("Token Count", "Count tokens in the selected text, the entire content or the selected files", null);
     }
 
     @Override
@@ -29,8 +48,9 @@ public class TokenCountAction extends AnAction {
 
     @Override
     public void update(@NotNull AnActionEvent event) {
-        // Enable the action only when an editor is available
-        event.getPresentation().setEnabled(event.getDataContext().getData(CommonDataKeys.EDITOR) != null);
+        // Enable the action only when an editor or files are available
+        VirtualFile[] files = event.getData(CommonDataKeys.VIRTUAL_FILE_ARRAY);
+        event.getPresentation().setEnabled(event.getData(CommonDataKeys.EDITOR) != null || files != null && files.length > 0);
     }
 
     @Override
@@ -38,31 +58,154 @@ public class TokenCountAction extends AnAction {
         // Get the current editor and project
         Editor editor = event.getData(CommonDataKeys.EDITOR);
         Project project = event.getProject();
+        if (project == null)
+            return;
 
-        if (editor != null && project != null) {
+        if (editor != null) {
             // Get the selected text or the entire content if no text is selected
-            boolean inSelection = true;
-            String text = editor.getSelectionModel().getSelectedText();
-            if (text == null || text.isEmpty()) {
-                text = editor.getDocument().getText();
-                inSelection = false;
-            }
+            CharSequence text = editor.getSelectionModel().getSelectedText();
+            if (text == null || text.isEmpty())
+                text = editor.getDocument().getImmutableCharSequence();
 
             // Strip the text dropping leading and trailing whitespaces and newlines
-            text = text.strip();
+            countTokens(project, strip(text));
+        } else {
+            VirtualFile[] files = event.getData(CommonDataKeys.VIRTUAL_FILE_ARRAY);
+            if (files != null && files.length > 0)
+                countTokens(project, files);
+        }
+    }
+
+    private static ModelType getModelType(Project project) {
+        ChatLink chatLink = project.getUserData(ChatLink.KEY);
+        return (chatLink != null) ? chatLink.getConversationContext().getModelType() : StandardModel.GPT_3_5_TURBO;
+    }
+
+    private static CharSequence strip(CharSequence text) {
+        int start = 0, end = text.length();
+        while (start < end && Character.isWhitespace(text.charAt(start)))
+            start++;
+        while (end > start && Character.isWhitespace(text.charAt(end - 1)))
+            end--;
+        return text.subSequence(start, end);
+    }
+
+    private void countTokens(Project project, CharSequence text) {
+        ModelType model = getModelType(project);
+        new Task.Backgroundable(project, "Counting tokens", true) {
+            private int tokenCount;
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                indicator.setIndeterminate(false);
+                var processed = new AtomicLong();
+                tokenCount = new ParallelTokenCounter(model.getTokenEstimator()).countTokens(text, indicator,
+                        chars -> indicator.setFraction((double) processed.addAndGet(chars) / Math.max(1, text.length())));
+            }
+
+            @Override
+            public void onSuccess() {
+                int lineCount = 1 + StringUtil.countNewLines(text);
+                int charCount = text.length();
+
+                String message = "<html><body><table>" +
+                        row("Tokens:", tokenCount) +
+                        row("Lines:", lineCount) +
+                        row("Characters:", charCount) +
+                        "</table>" + modelNote(model) + "</body></html>";
+
+                Messages.showMessageDialog(project, message, "Token Count", Messages.getInformationIcon());
+            }
+        }.queue();
+    }
+
+    private void countTokens(Project project, VirtualFile[] roots) {
+        ModelType model = getModelType(project);
+        new Task.Backgroundable(project, "Counting tokens", true) {
+            private final List<FileTokenCount> counts = Collections.synchronizedList(new ArrayList<>());
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                indicator.setIndeterminate(true);
+                indicator.setText("Collecting files");
+                List<VirtualFile> files = collectFiles(roots, indicator);
 
-            // Count the number of tokens using TokenCount.getInstance().fromString(text)
-            int tokenCount = TokenCount.fromString(text, ModelType.GPT_3_5_TURBO.getTokenizer());
-            int lineCount = 1 + StringUtil.countNewLines(text);
-            int charCount = text.length();
+                long totalLength = 0;
+                for (VirtualFile file : files)
+                    totalLength += file.getLength();
 
-            String message = "<html><body><table>" +
-                    "<tr><td style=\"text-align:right;padding:1\">Tokens:</td><td style=\"padding:1\">" + tokenCount + "</td></tr>" +
-                    "<tr><td style=\"text-align:right;padding:1\">Lines:</td><td style=\"padding:1\">" + lineCount + "</td></tr>" +
-                    "<tr><td style=\"text-align:right;padding:1\">Characters:</td><td style=\"padding:1\">" + charCount + "</td></tr>" +
-                    "</table></body></html>";
+                indicator.setIndeterminate(false);
+                var counter = new ParallelTokenCounter(model.getTokenEstimator());
+                var processed = new AtomicLong();
+                long total = Math.max(1, totalLength);
+                // small files are counted concurrently, large ones are additionally split into chunks
+                JobLauncher.getInstance().invokeConcurrentlyUnderProgress(files, indicator, file -> {
+                    try {
+                        CharSequence text = VfsUtilCore.loadText(file);
+                        int tokenCount = counter.countTokens(text, indicator,
+                                chars -> indicator.setFraction(Math.min(1.0, (double) processed.addAndGet(chars) / total)));
+                        counts.add(new FileTokenCount(file, tokenCount, text.length()));
+                    } catch (IOException e) {
+                        // unreadable files are skipped
+                    }
+                    return true;
+                });
+            }
+
+            @Override
+            public void onSuccess() {
+                counts.sort(Comparator.comparingInt(FileTokenCount::tokenCount).reversed());
+                int totalTokens = 0;
+                long totalChars = 0;
+                for (FileTokenCount count : counts) {
+                    totalTokens += count.tokenCount();
+                    totalChars += count.charCount();
+                }
 
-            Messages.showMessageDialog(project, message, "Token Count", Messages.getInformationIcon());
+                VirtualFile baseDir = ProjectUtil.guessProjectDir(project);
+                var message = new StringBuilder("<html><body><table>");
+                for (int i = 0; i < Math.min(counts.size(), MAX_LISTED_FILES); i++) {
+                    FileTokenCount count = counts.get(i);
+                    String path = (baseDir != null) ? VfsUtilCore.getRelativePath(count.file(), baseDir) : null;
+                    message.append(row(StringUtil.escapeXmlEntities((path != null) ? path : count.file().getName()), count.tokenCount()));
+                }
+                if (counts.size() > MAX_LISTED_FILES)
+                    message.append(row("... and " + (counts.size() - MAX_LISTED_FILES) + " more files", ""));
+                message.append(row("<b>Total tokens:</b>", "<b>" + totalTokens + "</b>"))
+                        .append(row("Files:", counts.size()))
+                        .append(row("Characters:", totalChars))
+                        .append("</table>").append(modelNote(model)).append("</body></html>");
+
+                Messages.showMessageDialog(project, message.toString(), "Token Count", Messages.getInformationIcon());
+            }
+        }.queue();
+    }
+
+    private static List<VirtualFile> collectFiles(VirtualFile[] roots, ProgressIndicator indicator) {
+        var fileTypes = FileTypeRegistry.getInstance();
+        var files = new ArrayList<VirtualFile>();
+        for (VirtualFile root : roots) {
+            VfsUtilCore.iterateChildrenRecursively(root,
+                    file -> !fileTypes.isFileIgnored(file),
+                    file -> {
+                        indicator.checkCanceled();
+                        if (!file.isDirectory() && !file.getFileType().isBinary() && !FileUtil.isTooLarge(file.getLength()))
+                            files.add(file);
+                        return true;
+                    });
         }
+        return files;
+    }
+
+    private static String row(String label, Object value) {
+        return "<tr><td style=\"text-align:right;padding:1\">" + label + "</td><td style=\"padding:1\">" + value + "</td></tr>";
     }
+
+    private static String modelNote(ModelType model) {
+        return model.getTokenEstimator().isExact()
+                ? "<p><small>Counted for " + model.id() + "</small></p>"
+                : "<p><small>Estimated for " + model.id() + "</small></p>";
+    }
+
+    private record FileTokenCount(VirtualFile file, int tokenCount, int charCount) { }
 }
@@ -8,6 +8,7 @@ import com.didalgo.intellij.chatgpt.ChatGptBundle;
 import com.didalgo.intellij.chatgpt.ChatGptIcons;
 import com.didalgo.intellij.chatgpt.chat.ChatLink;
 import com.didalgo.intellij.chatgpt.ui.ContextAwareSnippetizer;
+import com.didalgo.intellij.chatgpt.ui.tool.window.AssistantFanOut;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.OptionAction;
 import org.jetbrains.annotations.NotNull;
@@ -67,10 +68,17 @@ public class SubmitListener extends AbstractAction implements OptionAction, Hype
         chatLink.regenerateResponse();
     }
 
+    public void submitToAll(AssistantFanOut.Mode mode) {
+        Project project = chatLink.getProject();
+        AssistantFanOut.submit(chatLink, prompt.get(), snippetizer.fetchSnippets(project), mode);
+    }
+
     @Override
     public Action @NotNull [] getOptions() {
         return new Action[] {
-                OptionAction.create("Regenerate Response", this::regenerateResponse)
+                OptionAction.create(ChatGptBundle.message("fanout.all"), __ -> submitToAll(AssistantFanOut.Mode.ALL)),
+                OptionAction.create(ChatGptBundle.message("fanout.firstToken"), __ -> submitToAll(AssistantFanOut.Mode.FIRST_TOKEN)),
+                OptionAction.create(ChatGptBundle.message("fanout.firstComplete"), __ -> submitToAll(AssistantFanOut.Mode.FIRST_COMPLETE))
         };
     }
 
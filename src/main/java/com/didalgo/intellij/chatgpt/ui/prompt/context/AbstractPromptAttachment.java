@@ -5,7 +5,6 @@
 package com.didalgo.intellij.chatgpt.ui.prompt.context;
 
 import com.didalgo.intellij.chatgpt.chat.PromptAttachment;
-import com.intellij.openapi.application.ApplicationManager;
 
 import javax.swing.*;
 import java.util.function.ToIntFunction;
@@ -14,8 +13,6 @@ public abstract class AbstractPromptAttachment implements PromptAttachment {
     private final Icon icon;
     private final String name;
     private boolean pinned;
-    private volatile int tokenCount = -1;
-
 
     protected AbstractPromptAttachment(Icon icon, String name) {
         this.icon = icon;
@@ -44,18 +41,10 @@ public abstract class AbstractPromptAttachment implements PromptAttachment {
 
     @Override
     public int getEstimatedTokenCount(ToIntFunction<? super PromptAttachment> estimator) {
-        var tokenCount = this.tokenCount;
-        if (tokenCount < 0 && estimator != null) {
-            ApplicationManager.getApplication().executeOnPooledThread(() -> setTokenCount(estimateTokenCount(estimator)));
-        }
-        return tokenCount;
+        return (estimator != null) ? estimateTokenCount(estimator) : -1;
     }
 
     protected int estimateTokenCount(ToIntFunction<? super PromptAttachment> estimator) {
         return -1;
     }
-
-    public final void setTokenCount(int tokenCount) {
-        this.tokenCount = tokenCount;
-    }
 }
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.ui.tool.window;
+
+import com.didalgo.intellij.chatgpt.ChatGptBundle;
+import com.didalgo.intellij.chatgpt.Errors;
+import com.didalgo.intellij.chatgpt.chat.*;
+import com.didalgo.intellij.chatgpt.core.ChatCompletionParser;
+import com.didalgo.intellij.chatgpt.text.IncrementalHtmlFormatter;
+import com.didalgo.intellij.chatgpt.text.TextContent;
+import com.didalgo.intellij.chatgpt.ui.prompt.context.DefaultInputContext;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.ui.components.JBLabel;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.content.Content;
+import com.intellij.ui.content.ContentFactory;
+import com.intellij.util.ui.JBUI;
+import com.intellij.util.ui.UIUtil;
+import org.reactivestreams.Subscription;
+import org.springframework.ai.chat.messages.AssistantMessage;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Sends the same prompt to several assistants at once and streams their answers side by side
+ * in a separate tab of the tool window.
+ * <p>
+ * In the race modes, the first assistant to start answering, or to finish, wins and the others
+ * are stopped, as if their Stop buttons were clicked. The answers also arrive in each assistant's
+ * own tab, so that the conversation can be continued with any of them.
+ *
+ * @author Mariusz Bernacki
+ */
+public class AssistantFanOut {
+
+    public enum Mode {
+        /** All assistants answer in full. */
+        ALL,
+        /** The first assistant to produce a token wins. */
+        FIRST_TOKEN,
+        /** The first assistant to finish answering wins. */
+        FIRST_COMPLETE
+    }
+
+    private static final Key<Content> FAN_OUT_CONTENT = Key.create("didalgo.ChatToolWindow.FAN_OUT_CONTENT");
+
+    private final Mode mode;
+    private final List<Participant> participants = new ArrayList<>();
+    private final AtomicReference<Participant> winner = new AtomicReference<>();
+    private final long startTime = System.nanoTime();
+
+    private AssistantFanOut(Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Sends the prompt to all assistants of the project which are not answering already. The prompt
+     * goes to the source assistant alone if there is no other one to send it to.
+     *
+     * @param source the chat link the prompt was typed into, providing the prompt attachments
+     * @param prompt the prompt
+     * @param snippets the code snippets to be sent along with the prompt
+     * @param mode whether all assistants answer in full, or just the first one
+     */
+    public static void submit(ChatLink source, String prompt, List<? extends TextContent> snippets, Mode mode) {
+        Project project = source.getProject();
+        var chatPanels = ChatToolWindowFactory.getChatPanels(project).stream()
+                .filter(chatPanel -> !chatPanel.isGenerating() && chatPanel.getChatLink() instanceof ChatLinkService)
+                .toList();
+        if (chatPanels.size() < 2) {
+            source.pushMessage(prompt, snippets);
+            return;
+        }
+
+        var attachments = List.copyOf(source.getInputContext().getAttachments());
+        source.getInputContext().clear();
+
+        var fanOut = new AssistantFanOut(mode);
+        for (var chatPanel : chatPanels)
+            fanOut.participants.add(fanOut.new Participant(chatPanel));
+        fanOut.show(project);
+
+        for (var participant : fanOut.participants) {
+            var inputContext = new DefaultInputContext();
+            attachments.forEach(inputContext::addAttachment);
+            participant.push(prompt, snippets, inputContext);
+        }
+    }
+
+    private void show(Project project) {
+        var columns = new JPanel(new GridLayout(1, participants.size(), JBUI.scale(8), 0));
+        columns.setBorder(JBUI.Borders.empty(8));
+        participants.forEach(participant -> columns.add(participant.createComponent()));
+
+        var toolWindow = ChatToolWindow.locate(project);
+        var contentManager = toolWindow.getContentManager();
+        var previous = project.getUserData(FAN_OUT_CONTENT);
+        if (previous != null && contentManager.getIndexOfContent(previous) >= 0)
+            contentManager.removeContent(previous, true);
+
+        var title = ChatGptBundle.message((mode == Mode.ALL) ? "fanout.tab.all" : "fanout.tab.race");
+        var content = ContentFactory.getInstance().createContent(columns, title, false);
+        content.setCloseable(true);
+        contentManager.addContent(content);
+        contentManager.setSelectedContent(content);
+        project.putUserData(FAN_OUT_CONTENT, content);
+    }
+
+    private void race(Participant candidate) {
+        if (winner.compareAndSet(null, candidate)) {
+            candidate.setStatus(candidate.statusText);
+            for (var participant : participants)
+                if (participant != candidate)
+                    participant.stop();
+        }
+    }
+
+    private String elapsedSeconds() {
+        return String.format(Locale.ROOT, "%.1f", (System.nanoTime() - startTime) / 1e9);
+    }
+
+    private class Participant implements ChatMessageListener {
+        private final ChatPanel chatPanel;
+        private final ChatLinkService chatLink;
+        private final ConversationTurnPanel answer;
+        private final IncrementalHtmlFormatter answerFormatter = new IncrementalHtmlFormatter();
+        private final JBLabel statusLabel = new JBLabel();
+        private volatile String statusText = "";
+        private volatile Subscription subscription;
+        private volatile boolean starting;
+        private volatile boolean answering;
+        private volatile boolean stopped;
+        private volatile boolean finished;
+
+        Participant(ChatPanel chatPanel) {
+            this.chatPanel = chatPanel;
+            this.chatLink = (ChatLinkService) chatPanel.getChatLink();
+            this.answer = new ConversationTurnPanel(new AssistantMessage("Thinking..."), chatPanel.getModelType());
+        }
+
+        JComponent createComponent() {
+            var name = new JBLabel(chatLink.getConversationContext().getAssistantType().displayName());
+            name.setFont(JBUI.Fonts.label().asBold());
+            statusLabel.setFont(JBUI.Fonts.smallFont());
+            statusLabel.setForeground(UIUtil.getContextHelpForeground());
+            setStatus(ChatGptBundle.message("fanout.status.waiting"));
+
+            var header = new JPanel(new BorderLayout(JBUI.scale(8), 0));
+            header.setBorder(JBUI.Borders.emptyBottom(4));
+            header.add(name, BorderLayout.WEST);
+            header.add(statusLabel, BorderLayout.EAST);
+
+            var column = new JPanel(new BorderLayout());
+            column.add(header, BorderLayout.NORTH);
+            column.add(new JBScrollPane(answer), BorderLayout.CENTER);
+            return column;
+        }
+
+        void push(String prompt, List<? extends TextContent> snippets, InputContext inputContext) {
+            chatLink.addChatMessageListener(this);
+            ApplicationManager.getApplication().executeOnPooledThread(() -> {
+                try {
+                    chatLink.pushMessage(prompt, snippets, inputContext);
+                } finally {
+                    if (!starting)
+                        finish(ChatGptBundle.message("fanout.status.stopped"));
+                }
+            });
+        }
+
+        void setStatus(String text) {
+            statusText = text;
+            var displayText = (winner.get() == this) ? ChatGptBundle.message("fanout.status.winner", text) : text;
+            SwingUtilities.invokeLater(() -> statusLabel.setText(displayText));
+        }
+
+        void stop() {
+            if (winner.get() == this || finished || stopped)
+                return;
+            stopped = true;
+            var subscription = this.subscription;
+            if (subscription != null) {
+                subscription.cancel();
+                SwingUtilities.invokeLater(chatPanel::stopGenerating);
+                finish(ChatGptBundle.message("fanout.status.stopped"));
+            }
+        }
+
+        private void finish(String status) {
+            finished = true;
+            chatLink.removeChatMessageListener(this);
+            setStatus(status);
+        }
+
+        @Override
+        public void exchangeStarting(ChatMessageEvent.Starting event) {
+            starting = true;
+        }
+
+        @Override
+        public void exchangeStarted(ChatMessageEvent.Started event) {
+            subscription = event.getSubscription();
+            if (stopped) {
+                subscription.cancel();
+                SwingUtilities.invokeLater(chatPanel::stopGenerating);
+                finish(ChatGptBundle.message("fanout.status.stopped"));
+            }
+        }
+
+        @Override
+        public void responseArriving(ChatMessageEvent.ResponseArriving event) {
+            if (stopped)
+                return;
+            if (!answering) {
+                answering = true;
+                setStatus(ChatGptBundle.message("fanout.status.firstToken", elapsedSeconds()));
+                if (mode == Mode.FIRST_TOKEN)
+                    race(this);
+            }
+            var partialResponse = event.getPartialResponse();
+            answer.setPartialContent(partialResponse, ChatCompletionParser.parseTextContent(partialResponse, answerFormatter));
+        }
+
+        @Override
+        public void responseArrived(ChatMessageEvent.ResponseArrived event) {
+            if (stopped)
+                return;
+            if (!event.getGenerations().isEmpty()) {
+                var output = event.getGenerations().get(0).getOutput();
+                if (output != null && output.getText() != null)
+                    answer.setContent(output, ChatCompletionParser.parseTextContent(output.getText(), answerFormatter));
+            }
+            finish(ChatGptBundle.message("fanout.status.done", elapsedSeconds()));
+            if (mode == Mode.FIRST_COMPLETE)
+                race(this);
+        }
+
+        @Override
+        public void exchangeFailed(ChatMessageEvent.Failed event) {
+            stopped = true;
+            answer.setErrorContent(Errors.getWebClientErrorMessage(event.getCause()));
+            finish(ChatGptBundle.message("fanout.status.failed"));
+        }
+
+        @Override
+        public void exchangeCancelled(ChatMessageEvent.Cancelled event) {
+            stopped = true;
+            finish(ChatGptBundle.message("fanout.status.stopped"));
+        }
+    }
+}
@@ -6,16 +6,25 @@ package com.didalgo.intellij.chatgpt.ui.tool.window;
 
 import com.didalgo.intellij.chatgpt.Errors;
 import com.didalgo.intellij.chatgpt.chat.*;
+import com.didalgo.intellij.chatgpt.chat.client.HedgedCall;
+import com.didalgo.intellij.chatgpt.chat.client.RateLimitScheduler;
+import com.didalgo.intellij.chatgpt.chat.client.ResponseCache;
+import com.didalgo.intellij.chatgpt.chat.journal.ConversationJournal;
+import com.didalgo.intellij.chatgpt.chat.journal.ConversationJournalService;
+import com.didalgo.intellij.chatgpt.chat.journal.JournalRecord;
+import com.didalgo.intellij.chatgpt.chat.metadata.ImmutableUsage;
+import com.didalgo.intellij.chatgpt.chat.models.ConnectionPrewarmer;
 import com.didalgo.intellij.chatgpt.chat.models.ModelFamily;
 import com.didalgo.intellij.chatgpt.chat.models.ModelType;
 import com.didalgo.intellij.chatgpt.core.ChatCompletionParser;
+import com.didalgo.intellij.chatgpt.core.TokenizationService;
+import com.didalgo.intellij.chatgpt.text.IncrementalHtmlFormatter;
 import com.didalgo.intellij.chatgpt.text.TextContent;
 import com.didalgo.intellij.chatgpt.ui.ContextAwareSnippetizer;
 import com.didalgo.intellij.chatgpt.ui.text.ExpandableTextFieldExt;
 import com.didalgo.intellij.chatgpt.ui.InputContextPromptAttachmentHandler;
 import com.didalgo.intellij.chatgpt.ui.MainConversationHandler;
 import com.didalgo.intellij.chatgpt.ui.text.NewlineFilter;
-import com.didalgo.intellij.chatgpt.ui.prompt.context.AbstractPromptAttachment;
 import com.didalgo.intellij.chatgpt.ui.prompt.context.ListStack;
 import com.didalgo.intellij.chatgpt.ui.prompt.context.ListStackFactory;
 import com.didalgo.intellij.chatgpt.settings.GeneralSettings;
@@ -29,26 +38,35 @@ import com.intellij.notification.NotificationType;
 import com.intellij.notification.Notifications;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.Project;
+import com.intellij.ui.DocumentAdapter;
 import com.intellij.ui.OnePixelSplitter;
+import com.intellij.ui.components.JBOptionButton;
 import com.didalgo.intellij.chatgpt.ChatGptBundle;
 import com.intellij.util.ui.JBUI;
 import lombok.Getter;
 import org.jetbrains.annotations.NotNull;
 import org.reactivestreams.Subscription;
 import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.metadata.Usage;
 import org.springframework.ai.chat.model.Generation;
 import reactor.core.Disposable;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
 import javax.swing.event.HyperlinkListener;
 import javax.swing.event.ListDataEvent;
 import javax.swing.event.ListDataListener;
 import javax.swing.text.AbstractDocument;
 import java.awt.*;
+import java.awt.event.FocusAdapter;
+import java.awt.event.FocusEvent;
 import java.awt.event.KeyEvent;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 import static java.awt.event.InputEvent.*;
 import static org.apache.commons.lang3.StringUtils.isEmpty;
@@ -60,13 +78,23 @@ public class ChatPanel implements ChatMessageListener, ChatLinkProvider {
     private final JButton stopGenerating;
     private final @Getter ConversationPanel contentPanel;
     private final JProgressBar progressBar;
+    private final Timer queueStatusTimer;
     private final OnePixelSplitter splitter;
     private final Project myProject;
     private JPanel actionPanel;
     private volatile Object requestHolder;
+    private volatile boolean generating;
     private final MainConversationHandler conversationHandler;
     private ListStack contextStack;
+    private final Set<PromptAttachment> countedAttachments = Collections.newSetFromMap(new IdentityHashMap<>());
     private final ChatLink chatLink;
+    private final ConversationJournal journal;
+
+    /** The number of messages restored at once from the conversation journal. */
+    private static final int RESTORED_MESSAGES = 20;
+
+    /** The interval of refreshing the status of the prompts waiting for the rate limits. */
+    private static final int QUEUE_STATUS_INTERVAL_MS = 500;
 
     public static final KeyStroke SUBMIT_KEYSTROKE = KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, CTRL_DOWN_MASK);
 
@@ -91,23 +119,29 @@ public class ChatPanel implements ChatMessageListener, ChatLinkProvider {
         userMessageTextField.addActionListener(submitAction);
         userMessageTextField.registerKeyboardAction(submitAction, SUBMIT_KEYSTROKE, JComponent.WHEN_FOCUSED);
         userMessageTextField.getEmptyText().setText("Type a prompt here");
-        submitButton = new JButton(submitAction);
-        submitButton.setUI(new DarculaButtonUI());
-
-        stopGenerating = new JButton("Stop", AllIcons.Actions.Suspend);
-        stopGenerating.addActionListener(e -> {
-            aroundRequest(false);
-            if (requestHolder instanceof Disposable disposable) {
-                disposable.dispose();
-            } else if (requestHolder instanceof Subscription subscription) {
-                subscription.cancel();
+        userMessageTextField.addFocusListener(new FocusAdapter() {
+            @Override
+            public void focusGained(FocusEvent e) {
+                prewarmConnection();
             }
         });
+        searchTextDocument.addDocumentListener(new DocumentAdapter() {
+            @Override
+            protected void textChanged(@NotNull DocumentEvent e) {
+                if (e.getType() == DocumentEvent.EventType.INSERT && e.getLength() == e.getDocument().getLength())
+                    prewarmConnection();
+            }
+        });
+        submitButton = new JBOptionButton(submitAction, submitAction.getOptions());
+
+        stopGenerating = new JButton("Stop", AllIcons.Actions.Suspend);
+        stopGenerating.addActionListener(e -> stopGenerating());
         stopGenerating.setUI(new DarculaButtonUI());
 
         actionPanel = new JPanel(new BorderLayout());
         progressBar = new JProgressBar();
         progressBar.setVisible(false);
+        queueStatusTimer = new Timer(QUEUE_STATUS_INTERVAL_MS, e -> updateQueueStatus());
         actionPanel.add(createContextSnippetsComponent(), BorderLayout.NORTH);
         actionPanel.add(userMessageTextField, BorderLayout.CENTER);
         actionPanel.add(submitButton, BorderLayout.EAST);
@@ -115,10 +149,48 @@ public class ChatPanel implements ChatMessageListener, ChatLinkProvider {
         contentPanel.add(progressBar, BorderLayout.SOUTH);
         contentPanel.onChatMemoryCleared(userMessageTextField::requestFocusInWindow);
 
+        journal = GeneralSettings.getInstance().isEnableConversationJournal()
+                ? ConversationJournalService.getInstance(project).getJournal(configuration.getAssistantType())
+                : null;
+        if (journal != null) {
+            contentPanel.onChatMemoryCleared(() -> journal.append(JournalRecord.newConversation(), false));
+            ApplicationManager.getApplication().executeOnPooledThread(this::restoreConversation);
+        }
+
         splitter.setFirstComponent(contentPanel);
         splitter.setSecondComponent(actionPanel);
     }
 
+    private void restoreConversation() {
+        ConversationJournal.Page page = journal.readTail(RESTORED_MESSAGES);
+        if (page.records().isEmpty())
+            return;
+
+        var messages = new ArrayList<Message>();
+        for (JournalRecord record : page.records())
+            messages.add(record.toMessage());
+        if (!(chatLink.getConversationContext() instanceof ChatLinkState state) || !state.restoreHistory(messages))
+            return;
+
+        addRestoredTurns(page);
+        page.records().stream()
+                .filter(record -> record.kind() == JournalRecord.Kind.ASSISTANT)
+                .reduce((first, second) -> second)
+                .ifPresent(record -> SwingUtilities.invokeLater(() -> contentPanel.updateUsage(
+                        new ImmutableUsage(record.promptTokens(), record.completionTokens(), null, record.cachedTokens()), getModelType())));
+    }
+
+    private void addRestoredTurns(ConversationJournal.Page page) {
+        var turns = new ArrayList<ConversationTurnPanel>();
+        ApplicationManager.getApplication().invokeAndWait(() -> {
+            for (JournalRecord record : page.records())
+                turns.add(new ConversationTurnPanel(record.toMessage(), (record.kind() == JournalRecord.Kind.USER) ? null : getModelType()));
+        });
+        contentPanel.addRestoredTurns(turns, page.hasEarlier()
+                ? () -> ApplicationManager.getApplication().executeOnPooledThread(() -> addRestoredTurns(journal.readEarlier(page, RESTORED_MESSAGES)))
+                : null);
+    }
+
     private JComponent createContextSnippetsComponent() {
         // Creating an instance of ListPopupShower for testing
         ListStackFactory listStackFactory = new ListStackFactory();
@@ -135,6 +207,7 @@ public class ChatPanel implements ChatMessageListener, ChatLinkProvider {
         contextStack.beforeShow();
 
         chatInputContext.addListener(event -> {
+            cancelTokenCountsOfRemovedAttachments(chatInputContext);
             contextStack.getListModel().syncModel();
             userMessageTextField.requestFocusInWindow();
             actionPanel.revalidate();
@@ -144,18 +217,26 @@ public class ChatPanel implements ChatMessageListener, ChatLinkProvider {
     }
 
     private int computeTokenCount(PromptAttachment info) {
-        var tokenCount = 0;
-        if (info.getTextContentIfPresent().isPresent())
-            tokenCount = getModelType().getTokenizer().encode(TextContent.toString(info.getTextContentIfPresent().get())).size();
-        if (info instanceof AbstractPromptAttachment aInfo)
-            aInfo.setTokenCount(tokenCount);
+        var textContent = info.getTextContentIfPresent();
+        if (textContent.isEmpty())
+            return 0;
 
-        SwingUtilities.invokeLater(() -> {
+        countedAttachments.add(info);
+        return TokenizationService.getInstance().getTokenCount(info, () -> TextContent.toString(textContent.get()), getModelType(), () -> {
             contextStack.getListModel().syncModel();
-
             actionPanel.revalidate();
         });
-        return tokenCount;
+    }
+
+    private void cancelTokenCountsOfRemovedAttachments(InputContext inputContext) {
+        var attachments = Collections.newSetFromMap(new IdentityHashMap<PromptAttachment, Boolean>());
+        attachments.addAll(inputContext.getAttachments());
+        countedAttachments.removeIf(attachment -> {
+            if (attachments.contains(attachment))
+                return false;
+            TokenizationService.getInstance().cancel(attachment);
+            return true;
+        });
     }
 
     private class ContextStackHandler implements ListDataListener {
@@ -199,6 +280,7 @@ public class ChatPanel implements ChatMessageListener, ChatLinkProvider {
 
         ApplicationManager.getApplication().invokeAndWait(() -> {
             answer = new ConversationTurnPanel(new AssistantMessage("Thinking..."), getModelType());
+            answerFormatter = new IncrementalHtmlFormatter();
         });
         SwingUtilities.invokeLater(() -> {
             setSearchText("");
@@ -211,12 +293,11 @@ public class ChatPanel implements ChatMessageListener, ChatLinkProvider {
     }
 
     private volatile ConversationTurnPanel answer;
+    private volatile IncrementalHtmlFormatter answerFormatter;
 
     @Override
     public void exchangeStarted(ChatMessageEvent.Started event) {
         setRequestHolder(event.getSubscription());
-
-        SwingUtilities.invokeLater(contentPanel::updateLayout);
     }
 
     protected boolean presetCheck() {
@@ -268,7 +349,8 @@ public class ChatPanel implements ChatMessageListener, ChatLinkProvider {
 
     @Override
     public void responseArriving(ChatMessageEvent.ResponseArriving event) {
-        setContent(event.getPartialResponseChoices());
+        var partialResponse = event.getPartialResponse();
+        answer.setPartialContent(partialResponse, ChatCompletionParser.parseTextContent(partialResponse, answerFormatter));
     }
 
     @Override
@@ -276,16 +358,40 @@ public class ChatPanel implements ChatMessageListener, ChatLinkProvider {
         setContent(event.getGenerations());
 
         Usage usage = event.getResponse().getMetadata().getUsage();
+        if (journal != null) {
+            journal.append(JournalRecord.userMessage(event.getUserMessage()), false);
+            AssistantMessage output = event.getGenerations().isEmpty() ? null : event.getGenerations().get(0).getOutput();
+            if (output != null && output.getText() != null) {
+                journal.append(JournalRecord.assistantMessage(output, getModelType().id(), usage), true);
+                ConversationJournalService.getInstance(myProject).getSearchIndex().add(
+                        chatLink.getConversationContext().getAssistantType().displayName(), event.getUserMessage().getText(), output.getText());
+            }
+        }
+        Object cachedResponse = event.getResponse().getMetadata().get(ResponseCache.CACHED_RESPONSE);
+        Object answeredBy = event.getResponse().getMetadata().get(HedgedCall.ANSWERED_BY);
+        ConversationTurnPanel answer = this.answer;
         SwingUtilities.invokeLater(() -> {
             aroundRequest(false);
             contentPanel.updateUsage(usage, getChatLink().getConversationContext().getModelType());
+            if (cachedResponse instanceof ResponseCache.CacheHit hit && answer != null) {
+                answer.setNote(hit.exact()
+                        ? ChatGptBundle.message("response.cached")
+                        : ChatGptBundle.message("response.cached.similar", Math.round(hit.similarity() * 100)));
+            }
+            if (answeredBy != null && answer != null) {
+                answer.setNote(ChatGptBundle.message("response.hedged", answeredBy));
+            }
         });
     }
 
     public void setContent(List<Generation> content) {
         if (!content.isEmpty()) {
             var generation = content.get(0);
-            answer.setContent(generation.getOutput(), ChatCompletionParser.parseTextContent(generation));
+            var output = generation.getOutput();
+            var formatter = answerFormatter;
+            answer.setContent(output, (formatter != null && output != null && output.getText() != null)
+                    ? ChatCompletionParser.parseTextContent(output.getText(), formatter)
+                    : ChatCompletionParser.parseTextContent(generation));
         }
     }
 
@@ -323,13 +429,17 @@ public class ChatPanel implements ChatMessageListener, ChatLinkProvider {
     }
 
     public void aroundRequest(boolean status) {
+        generating = status;
         progressBar.setIndeterminate(status);
         progressBar.setVisible(status);
+        progressBar.setStringPainted(false);
         submitButton.setEnabled(!status);
         if (status) {
+            queueStatusTimer.start();
             actionPanel.remove(submitButton);
             actionPanel.add(stopGenerating, BorderLayout.EAST);
         } else {
+            queueStatusTimer.stop();
             actionPanel.remove(stopGenerating);
             actionPanel.add(submitButton, BorderLayout.EAST);
         }
@@ -337,6 +447,32 @@ public class ChatPanel implements ChatMessageListener, ChatLinkProvider {
         actionPanel.repaint();
     }
 
+    private void updateQueueStatus() {
+        var status = RateLimitScheduler.getInstance().getQueueStatus(chatLink.getConversationContext().getAssistantType());
+        progressBar.setStringPainted(status.queued() > 0);
+        if (status.queued() > 0) {
+            long seconds = (status.expectedWait().toMillis() + 999) / 1000;
+            progressBar.setString(ChatGptBundle.message("ratelimit.queued", status.queued(), seconds));
+        }
+    }
+
+    private void prewarmConnection() {
+        ConnectionPrewarmer.getInstance().prewarm(chatLink.getConversationContext().getAssistantType());
+    }
+
+    public boolean isGenerating() {
+        return generating;
+    }
+
+    public void stopGenerating() {
+        aroundRequest(false);
+        if (requestHolder instanceof Disposable disposable) {
+            disposable.dispose();
+        } else if (requestHolder instanceof Subscription subscription) {
+            subscription.cancel();
+        }
+    }
+
     public void setRequestHolder(Object eventSource) {
         this.requestHolder = eventSource;
     }
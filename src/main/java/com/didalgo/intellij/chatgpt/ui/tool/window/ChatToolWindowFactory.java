@@ -43,6 +43,21 @@ public class ChatToolWindowFactory implements ToolWindowFactory, DumbAware {
         return toolWindow.getProject().getUserData(CONTENT_MAP);
     }
 
+    /**
+     * Gives the chat panels of the assistants enabled in the project's tool window, in tab order.
+     */
+    public static List<ChatPanel> getChatPanels(Project project) {
+        var contentMap = project.getUserData(CONTENT_MAP);
+        if (contentMap == null)
+            return List.of();
+
+        var chatPanels = new ArrayList<ChatPanel>();
+        for (var type : AssistantType.System.values())
+            if (contentMap.get(type) instanceof AssistantTool tool && tool.provider() instanceof ChatPanel chatPanel)
+                chatPanels.add(chatPanel);
+        return chatPanels;
+    }
+
     public static void addToolWindowContent(ToolWindow toolWindow, AssistantType type, GeneralSettings settings) {
         var contentFactory = new AssistantToolFactory(toolWindow.getProject(), settings, ContentFactory.getInstance());
         var contentMap = getContentMap(toolWindow);
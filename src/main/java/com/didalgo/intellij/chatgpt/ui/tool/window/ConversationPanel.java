@@ -35,25 +35,36 @@ import com.intellij.util.ui.JBUI;
 import com.intellij.util.ui.UIUtil;
 import com.didalgo.intellij.chatgpt.settings.GeneralSettings;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.metadata.Usage;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.util.List;
 
 import static com.didalgo.intellij.chatgpt.settings.GeneralSettings.BASE_PROMPT;
 
 public class ConversationPanel extends JBPanel<ConversationPanel> implements NullableComponent, SystemMessageHolder {
+    /** The number of viewport heights above and below the visible area, in which turns are kept materialized. */
+    private static final int TURN_OVERSCAN = 1;
+    /** The number of trailing turns which are always kept materialized, as they may still be updated. */
+    private static final int LIVE_TAIL_TURNS = 2;
+    private static final int SCROLLED_TO_BOTTOM_LEEWAY = 20;
+
     private final JPanel myList = new JPanel(new VerticalLayout(0));
     private final JBScrollPane myScrollPane = new JBScrollPane(myList, ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED,
                                       ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
     private int myScrollValue = 0;
+    private boolean myVisibleTurnsUpdatePending;
     private UsagePanel usagePanel;
     private JBTextField systemRole;
     private final Project project;
     private final ChatLink chatLink;
     private final ListenerList<Runnable> onChatMemoryCleared = ListenerList.of(Runnable.class);
+    private JComponent earlierTurnsLink;
 
     public ConversationPanel(ChatLink chatLink, @NotNull Project project) {
         this.chatLink = chatLink;
@@ -121,6 +132,7 @@ public class ConversationPanel extends JBPanel<ConversationPanel> implements Nul
             @Override
             public void mouseClicked(MouseEvent e) {
                 myList.removeAll();
+                earlierTurnsLink = null;
                 addAssistantTipsIfEnabled(false);
                 myList.updateUI();
                 chatLink.getConversationContext().clear();
@@ -131,7 +143,17 @@ public class ConversationPanel extends JBPanel<ConversationPanel> implements Nul
 
         newChat.setFont(JBFont.label());
         newChat.setBorder(JBUI.Borders.emptyRight(20));
-        panel.add(newChat, BorderLayout.EAST);
+
+        LinkLabel<String> search = new LinkLabel<>("Search", null, (source, data) ->
+                new ConversationSearchPopup(project, chatLink.getConversationContext().getModelType()).show(source));
+        search.setFont(JBFont.label());
+        search.setBorder(JBUI.Borders.emptyRight(12));
+        search.setVisible(GeneralSettings.getInstance().isEnableConversationJournal());
+
+        JPanel links = new NonOpaquePanel(new FlowLayout(FlowLayout.RIGHT, 0, 0));
+        links.add(search);
+        links.add(newChat);
+        panel.add(links, BorderLayout.EAST);
         panel.add(usagePanel, BorderLayout.WEST);
         mainPanel.add(panel, BorderLayout.NORTH);
 
@@ -145,6 +167,7 @@ public class ConversationPanel extends JBPanel<ConversationPanel> implements Nul
         myScrollPane.getVerticalScrollBar().addAdjustmentListener(e -> {
             myScrollValue = e.getValue();
         });
+        myScrollPane.getViewport().addChangeListener(e -> scheduleVisibleTurnsUpdate());
 
         addAssistantTipsIfEnabled(true);
     }
@@ -168,7 +191,7 @@ public class ConversationPanel extends JBPanel<ConversationPanel> implements Nul
         if (!firstUse && introEnabled == null)
             GeneralSettings.getInstance().setEnableInitialMessage(introEnabled = false);
         if (!Boolean.FALSE.equals(introEnabled))
-            myList.add(createAssistantTips());
+            myList.add(new TurnSlot(createAssistantTips()));
     }
 
     protected ConversationTurnPanel createAssistantTips() {
@@ -187,8 +210,7 @@ public class ConversationPanel extends JBPanel<ConversationPanel> implements Nul
 
     public void add(ConversationTurnPanel conversationTurnPanel) {
         SwingUtilities.invokeLater(() -> {
-            myList.add(conversationTurnPanel);
-            updateLayout();
+            myList.add(new TurnSlot(conversationTurnPanel));
             scrollToBottom();
             invalidate();
             validate();
@@ -196,15 +218,54 @@ public class ConversationPanel extends JBPanel<ConversationPanel> implements Nul
         });
     }
 
+    /**
+     * Adds the turns restored from a previous session. The first restored turns are added at the
+     * end of the list, the ones restored later are inserted above them, in place of the link
+     * which loaded them.
+     *
+     * @param turns the restored turns, oldest first
+     * @param loadEarlierTurns the action loading the turns preceding these, or {@code null} if there are none
+     */
+    public void addRestoredTurns(List<ConversationTurnPanel> turns, @Nullable Runnable loadEarlierTurns) {
+        SwingUtilities.invokeLater(() -> {
+            int index = myList.getComponentCount();
+            boolean initial = (earlierTurnsLink == null);
+            if (!initial) {
+                index = myList.getComponentZOrder(earlierTurnsLink);
+                myList.remove(earlierTurnsLink);
+                earlierTurnsLink = null;
+            }
+            for (int i = 0; i < turns.size(); i++)
+                myList.add(new TurnSlot(turns.get(i)), index + i);
+            if (loadEarlierTurns != null)
+                myList.add(earlierTurnsLink = createEarlierTurnsLink(loadEarlierTurns), index);
+
+            if (initial)
+                scrollToBottom();
+            myList.revalidate();
+            myList.repaint();
+        });
+    }
+
+    private JComponent createEarlierTurnsLink(Runnable loadEarlierTurns) {
+        LinkLabel<String> link = new LinkLabel<>("Show earlier messages", null, (source, data) -> {
+            source.setEnabled(false);
+            loadEarlierTurns.run();
+        });
+        link.setFont(JBFont.label());
+        link.setBorder(JBUI.Borders.empty(6, 10));
+        return link;
+    }
+
     public Subscription onChatMemoryCleared(Runnable action) {
         return onChatMemoryCleared.addListener(action);
     }
 
     public ConversationTurnPanel getConversationTurnPanel(int n) {
         if (n >= 0)
-            return (ConversationTurnPanel) myList.getComponent(n);
+            return ((TurnSlot) myList.getComponent(n)).getTurnPanel();
         else
-            return (ConversationTurnPanel) myList.getComponent(myList.getComponentCount() + n);
+            return ((TurnSlot) myList.getComponent(myList.getComponentCount() + n)).getTurnPanel();
     }
 
     public void scrollToBottom() {
@@ -220,6 +281,111 @@ public class ConversationPanel extends JBPanel<ConversationPanel> implements Nul
         }
     }
 
+    private void scheduleVisibleTurnsUpdate() {
+        if (!myVisibleTurnsUpdatePending) {
+            myVisibleTurnsUpdatePending = true;
+            SwingUtilities.invokeLater(this::updateVisibleTurns);
+        }
+    }
+
+    /**
+     * Materializes the turns in and around the visible area and releases components of the
+     * remaining turns, leaving placeholders of the same height in their place. The topmost visible
+     * turn is kept in place, unless the conversation is scrolled to the bottom.
+     */
+    private void updateVisibleTurns() {
+        myVisibleTurnsUpdatePending = false;
+        Rectangle viewRect = myScrollPane.getViewport().getViewRect();
+        if (viewRect.height <= 0)
+            return;
+
+        int top = viewRect.y - viewRect.height * TURN_OVERSCAN;
+        int bottom = viewRect.y + viewRect.height * (1 + TURN_OVERSCAN);
+        boolean scrolledToBottom = viewRect.y + viewRect.height >= myList.getHeight() - SCROLLED_TO_BOTTOM_LEEWAY;
+        Component focusOwner = KeyboardFocusManager.getCurrentKeyboardFocusManager().getFocusOwner();
+
+        Component anchor = null;
+        int anchorOffset = 0;
+        boolean changed = false;
+        int count = myList.getComponentCount();
+        for (int i = 0; i < count; i++) {
+            if (!(myList.getComponent(i) instanceof TurnSlot slot))
+                continue;
+
+            if (anchor == null && slot.getY() + slot.getHeight() > viewRect.y) {
+                anchor = slot;
+                anchorOffset = slot.getY() - viewRect.y;
+            }
+            if (slot.getY() < bottom && slot.getY() + slot.getHeight() > top)
+                changed |= slot.materialize();
+            else if (i < count - LIVE_TAIL_TURNS && (focusOwner == null || !SwingUtilities.isDescendingFrom(focusOwner, slot)))
+                changed |= slot.release();
+        }
+
+        if (changed) {
+            myList.revalidate();
+            myScrollPane.validate();
+            if (anchor != null && !scrolledToBottom) {
+                int y = Math.max(0, Math.min(anchor.getY() - anchorOffset, myList.getHeight() - viewRect.height));
+                myScrollPane.getViewport().setViewPosition(new Point(viewRect.x, y));
+            }
+            myList.repaint();
+        }
+    }
+
+    /**
+     * Holds a single conversation turn in the list. The turn component is created only while the
+     * turn is near the visible area; otherwise just the message, its note and the last known height are kept.
+     */
+    private static final class TurnSlot extends JPanel {
+        private ConversationTurnPanel turnPanel;
+        private Message message;
+        private ModelType model;
+        private String note;
+        private int releasedHeight;
+
+        TurnSlot(ConversationTurnPanel turnPanel) {
+            super(new BorderLayout());
+            setOpaque(false);
+            add(this.turnPanel = turnPanel);
+        }
+
+        ConversationTurnPanel getTurnPanel() {
+            materialize();
+            return turnPanel;
+        }
+
+        boolean materialize() {
+            if (turnPanel != null)
+                return false;
+
+            add(turnPanel = new ConversationTurnPanel(message, model));
+            if (note != null)
+                turnPanel.setNote(note);
+            message = null;
+            note = null;
+            return true;
+        }
+
+        boolean release() {
+            if (turnPanel == null)
+                return false;
+
+            message = turnPanel.getMessage();
+            model = turnPanel.getModelType();
+            note = turnPanel.getNote();
+            releasedHeight = getHeight();
+            remove(turnPanel);
+            turnPanel = null;
+            return true;
+        }
+
+        @Override
+        public Dimension getPreferredSize() {
+            return (turnPanel == null) ? new Dimension(0, releasedHeight) : super.getPreferredSize();
+        }
+    }
+
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.ui.tool.window;
+
+import com.didalgo.intellij.chatgpt.chat.journal.ConversationJournalService;
+import com.didalgo.intellij.chatgpt.chat.journal.ConversationSearchIndex;
+import com.didalgo.intellij.chatgpt.chat.models.ModelType;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.popup.JBPopup;
+import com.intellij.openapi.ui.popup.JBPopupFactory;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.ui.ColoredListCellRenderer;
+import com.intellij.ui.DocumentAdapter;
+import com.intellij.ui.ScrollingUtil;
+import com.intellij.ui.SearchTextField;
+import com.intellij.ui.SimpleTextAttributes;
+import com.intellij.ui.awt.RelativePoint;
+import com.intellij.ui.components.JBList;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.components.panels.VerticalLayout;
+import com.intellij.util.text.DateFormatUtil;
+import com.intellij.util.ui.JBUI;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import java.awt.*;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Popup searching the conversation history of the project, showing the selected turn in full.
+ *
+ * @author Mariusz Bernacki
+ */
+public class ConversationSearchPopup {
+
+    private static final int MAX_HITS = 50;
+    private static final int MAX_PROMPT_PREVIEW = 120;
+
+    private final ModelType model;
+    private final ConversationSearchIndex searchIndex;
+    private final SearchTextField searchField = new SearchTextField(false);
+    private final DefaultListModel<ConversationSearchIndex.Hit> hits = new DefaultListModel<>();
+    private final JBList<ConversationSearchIndex.Hit> hitList = new JBList<>(hits);
+    private final AtomicInteger searchSequence = new AtomicInteger();
+    private JBPopup popup;
+
+    public ConversationSearchPopup(Project project, ModelType model) {
+        this.model = model;
+        this.searchIndex = ConversationJournalService.getInstance(project).getSearchIndex();
+    }
+
+    public void show(@NotNull JComponent owner) {
+        hitList.setCellRenderer(new HitRenderer());
+        hitList.getEmptyText().setText("Type to search conversations, e.g. stream lang:java");
+        hitList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2)
+                    showSelectedHit();
+            }
+        });
+        searchField.addDocumentListener(new DocumentAdapter() {
+            @Override
+            protected void textChanged(@NotNull DocumentEvent e) {
+                search(searchField.getText());
+            }
+        });
+        searchField.getTextEditor().addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == KeyEvent.VK_ENTER) {
+                    showSelectedHit();
+                    e.consume();
+                }
+            }
+        });
+        ScrollingUtil.installActions(hitList, searchField.getTextEditor());
+
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.add(searchField, BorderLayout.NORTH);
+        panel.add(new JBScrollPane(hitList), BorderLayout.CENTER);
+        panel.setPreferredSize(JBUI.size(600, 400));
+
+        popup = JBPopupFactory.getInstance()
+                .createComponentPopupBuilder(panel, searchField.getTextEditor())
+                .setTitle("Search Conversations")
+                .setFocusable(true)
+                .setRequestFocus(true)
+                .setResizable(true)
+                .setMovable(true)
+                .createPopup();
+        popup.show(RelativePoint.getSouthWestOf(owner));
+    }
+
+    private void search(String query) {
+        int sequence = searchSequence.incrementAndGet();
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            List<ConversationSearchIndex.Hit> result = searchIndex.search(query, MAX_HITS);
+            SwingUtilities.invokeLater(() -> {
+                if (sequence != searchSequence.get())
+                    return; // superseded by a newer search
+
+                hits.clear();
+                hits.addAll(result);
+                if (!result.isEmpty())
+                    hitList.setSelectedIndex(0);
+            });
+        });
+    }
+
+    private void showSelectedHit() {
+        ConversationSearchIndex.Hit hit = hitList.getSelectedValue();
+        if (hit == null)
+            return;
+
+        JPanel turns = new JPanel(new VerticalLayout(0));
+        turns.add(new ConversationTurnPanel(new UserMessage(hit.prompt()), null));
+        turns.add(new ConversationTurnPanel(new AssistantMessage(hit.answer()), model));
+        JBScrollPane scrollPane = new JBScrollPane(turns);
+        scrollPane.setPreferredSize(JBUI.size(700, 500));
+
+        JBPopupFactory.getInstance()
+                .createComponentPopupBuilder(scrollPane, turns)
+                .setTitle(hit.assistant() + " — " + DateFormatUtil.formatPrettyDateTime(hit.timestamp()))
+                .setFocusable(true)
+                .setResizable(true)
+                .setMovable(true)
+                .createPopup()
+                .showInFocusCenter();
+    }
+
+    private static class HitRenderer extends ColoredListCellRenderer<ConversationSearchIndex.Hit> {
+        @Override
+        protected void customizeCellRenderer(@NotNull JList<? extends ConversationSearchIndex.Hit> list, ConversationSearchIndex.Hit hit,
+                                             int index, boolean selected, boolean hasFocus) {
+            String prompt = StringUtil.first(hit.prompt().strip().replaceAll("\\s+", " "), MAX_PROMPT_PREVIEW, true);
+            append(prompt);
+            append("  " + hit.assistant() + ", " + DateFormatUtil.formatPrettyDateTime(hit.timestamp()), SimpleTextAttributes.GRAYED_ATTRIBUTES);
+        }
+    }
+}
@@ -8,6 +8,7 @@ import com.didalgo.intellij.chatgpt.ChatGptBundle;
 import com.didalgo.intellij.chatgpt.chat.models.ModelType;
 import com.didalgo.intellij.chatgpt.text.CodeSnippetManipulator;
 import com.didalgo.intellij.chatgpt.text.TextFragment;
+import com.didalgo.intellij.chatgpt.ui.UiUpdateScheduler;
 import com.intellij.icons.AllIcons;
 import com.intellij.notification.Notification;
 import com.intellij.notification.NotificationType;
@@ -31,12 +32,10 @@ import javax.swing.Icon;
 import javax.swing.JEditorPane;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
-import javax.swing.Timer;
 import java.awt.BorderLayout;
 import java.awt.Cursor;
 import java.awt.datatransfer.StringSelection;
 import java.awt.datatransfer.Transferable;
-import java.awt.event.ActionEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.util.concurrent.atomic.AtomicReference;
@@ -46,12 +45,18 @@ public class ConversationTurnPanel extends JBPanel<ConversationTurnPanel> {
     private static final Logger LOG = Logger.getInstance(ConversationTurnPanel.class);
 
     private final MessagePanel messagePanel;
+    private final JPanel centerPanel;
+    private final ModelType model;
 
     private volatile Message message;
+    private volatile CharSequence partialText;
+    private String note;
+    private JBLabel noteLabel;
 
 
     public ConversationTurnPanel(Message message, ModelType model) {
         this.message = message;
+        this.model = model;
         var fromUser = (model == null);
         setDoubleBuffered(true);
         setOpaque(true);
@@ -72,7 +77,7 @@ public class ConversationTurnPanel extends JBPanel<ConversationTurnPanel> {
             iconPanel.add(new JBLabel(IconUtil.scale(imageIcon, this, 1.25f)), BorderLayout.NORTH);
             add(iconPanel, BorderLayout.WEST);
         }
-        JPanel centerPanel = new JPanel(new VerticalLayout(JBUI.scale(0)));
+        centerPanel = new JPanel(new VerticalLayout(JBUI.scale(0)));
         centerPanel.setOpaque(false);
         centerPanel.setBorder(JBUI.Borders.emptyLeft(JBUI.scale(5)));
         centerPanel.add(messagePanel = createMessagePanel(message, fromUser));
@@ -99,8 +104,17 @@ public class ConversationTurnPanel extends JBPanel<ConversationTurnPanel> {
         add(actionPanel, BorderLayout.EAST);
     }
 
+    public Message getMessage() {
+        return message;
+    }
+
+    public ModelType getModelType() {
+        return model;
+    }
+
     public TextFragment getMessageText() {
-        return TextFragment.of(message.getText());
+        var partial = partialText;
+        return TextFragment.of((partial != null) ? partial.toString() : message.getText());
     }
 
     public String toDisplayText(TextFragment text, boolean fromUser) {
@@ -166,22 +180,52 @@ public class ConversationTurnPanel extends JBPanel<ConversationTurnPanel> {
     }
 
     private final AtomicReference<TextFragment> pendingTextContent = new AtomicReference<>();
-    private final Timer updateContentTimer = new Timer(20, this::updateContentIncrementally);
 
     public void setContent(AssistantMessage message, TextFragment textContent) {
         this.message = message;
+        this.partialText = null;
         this.pendingTextContent.set(textContent);
-        if (!updateContentTimer.isRunning()) {
-            updateContentTimer.setRepeats(false);
-            updateContentTimer.start();
+        UiUpdateScheduler.getInstance().schedule(this, this::updateContentIncrementally);
+    }
+
+    /**
+     * Shows the response still being streamed, without building its message until it is complete.
+     *
+     * @param partialText the text received so far, an immutable snapshot
+     * @param textContent the formatted text received so far
+     */
+    public void setPartialContent(CharSequence partialText, TextFragment textContent) {
+        this.partialText = partialText;
+        this.pendingTextContent.set(textContent);
+        UiUpdateScheduler.getInstance().schedule(this, this::updateContentIncrementally);
+    }
+
+    /**
+     * Shows the note below the message, replacing the previous one, if any.
+     */
+    public void setNote(String note) {
+        this.note = note;
+        if (noteLabel == null) {
+            noteLabel = new JBLabel(note, AllIcons.General.Information, JLabel.LEFT);
+            noteLabel.setFont(JBUI.Fonts.smallFont());
+            noteLabel.setForeground(UIUtil.getContextHelpForeground());
+            noteLabel.setBorder(JBUI.Borders.emptyTop(JBUI.scale(2)));
+            centerPanel.add(noteLabel);
+        } else {
+            noteLabel.setText(note);
         }
+        centerPanel.revalidate();
+    }
+
+    public String getNote() {
+        return note;
     }
 
     public void setErrorContent(String errorMessage) {
         setContent(new AssistantMessage(errorMessage), TextFragment.of(errorMessage));
     }
 
-    protected void updateContentIncrementally(ActionEvent event) {
+    protected void updateContentIncrementally() {
         TextFragment pending = null;
         try {
             pending = pendingTextContent.get();
@@ -9,6 +9,7 @@ import com.didalgo.intellij.chatgpt.text.TextFragment;
 import com.didalgo.intellij.chatgpt.ui.MessageRenderer;
 import com.didalgo.intellij.chatgpt.ui.view.*;
 import com.didalgo.intellij.chatgpt.util.StandardLanguage;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.ui.ColorUtil;
 import com.intellij.util.ui.ExtendableHTMLViewFactory;
 import com.intellij.util.ui.HTMLEditorKitBuilder;
@@ -20,14 +21,26 @@ import org.jetbrains.annotations.NotNull;
 import javax.swing.event.HyperlinkEvent;
 import javax.swing.text.*;
 import javax.swing.text.html.HTML;
+import javax.swing.text.html.HTMLDocument;
 import javax.swing.text.html.HTMLEditorKit;
 import java.awt.*;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class MessageTextPanel extends LegacyHtmlPanel implements MessageRenderer {
 
+    private static final Logger LOG = Logger.getInstance(MessageTextPanel.class);
+
     private final boolean fromUser;
     private volatile TextFragment text;
 
+    /** The HTML blocks currently present in the document body, and the number of body elements of each. */
+    private final List<String> bodyBlocks = new ArrayList<>();
+    private final List<Integer> bodyBlockSizes = new ArrayList<>();
+    private Document bodyDocument;
+    private boolean bodyPlaceholder;
+
     public MessageTextPanel(boolean fromUser) {
         setEditorKit(new HTMLEditorKitBuilder()
                 .withViewFactoryExtensions(this::createView, ExtendableHTMLViewFactory.Extensions.WORD_WRAP)
@@ -78,6 +91,84 @@ public class MessageTextPanel extends LegacyHtmlPanel implements MessageRenderer
         update();
     }
 
+    @Override
+    public void updateUI() {
+        bodyDocument = null; // force full rebuild with the new look and feel
+        super.updateUI();
+    }
+
+    @Override
+    public void update() {
+        if (text instanceof TextFragment.Blocks blocks && getDocument() instanceof HTMLDocument document) {
+            try {
+                patchBody(document, blocks.htmlBlocks());
+                revalidate();
+                repaint();
+                return;
+            } catch (BadLocationException | IOException | RuntimeException e) {
+                LOG.warn("Unable to patch message document, falling back to full update", e);
+            }
+        }
+        bodyDocument = null;
+        super.update();
+    }
+
+    /**
+     * Updates the document body to display the given HTML blocks, replacing only the blocks which
+     * differ from the ones already displayed. Elements, and thus views, of the unchanged leading
+     * blocks are left intact.
+     */
+    private void patchBody(HTMLDocument document, List<String> blocks) throws BadLocationException, IOException {
+        int common = 0, commonSize = 0;
+        if (document == bodyDocument) {
+            int max = Math.min(blocks.size(), bodyBlocks.size());
+            while (common < max && blocks.get(common).equals(bodyBlocks.get(common)))
+                commonSize += bodyBlockSizes.get(common++);
+
+            if (common == blocks.size() && common == bodyBlocks.size())
+                return;
+        }
+
+        Element body = (commonSize > 0) ? findBody(document) : null;
+        if (body == null) {
+            // the body element must never lose its last child, so start over with an empty body
+            bodyDocument = null;
+            setText(toDocumentText(""));
+            customizeLinksStyle();
+            if (getDocument() != document || (body = findBody(document)) == null)
+                throw new IllegalStateException("Missing document body");
+
+            bodyDocument = document;
+            bodyPlaceholder = true;
+            common = 0;
+        } else {
+            for (int i = body.getElementCount() - 1; i >= commonSize; i--)
+                document.removeElement(body.getElement(i));
+        }
+        bodyBlocks.subList(common, bodyBlocks.size()).clear();
+        bodyBlockSizes.subList(common, bodyBlockSizes.size()).clear();
+
+        for (int i = common; i < blocks.size(); i++) {
+            String block = blocks.get(i);
+            int size = 0;
+            if (!block.isBlank()) {
+                int elementCount = body.getElementCount();
+                document.insertBeforeEnd(body, block);
+                size = body.getElementCount() - elementCount;
+                if (bodyPlaceholder && size > 0) {
+                    document.removeElement(body.getElement(0));
+                    bodyPlaceholder = false;
+                }
+            }
+            bodyBlocks.add(block);
+            bodyBlockSizes.add(size);
+        }
+    }
+
+    private static Element findBody(HTMLDocument document) {
+        return document.getElement(document.getDefaultRootElement(), StyleConstants.NameAttribute, HTML.Tag.BODY);
+    }
+
     private static Color linkColor() {
         return JBUI.CurrentTheme.Link.Foreground.ENABLED;
     }
@@ -6,6 +6,7 @@ package com.didalgo.intellij.chatgpt.ui.tool.window;
 
 import com.didalgo.intellij.chatgpt.ChatGptBundle;
 import com.didalgo.intellij.chatgpt.chat.metadata.ImmutableUsage;
+import com.didalgo.intellij.chatgpt.chat.metadata.UsageAggregator;
 import com.didalgo.intellij.chatgpt.chat.models.ModelType;
 import com.intellij.icons.AllIcons;
 import com.intellij.ui.components.JBLabel;
@@ -53,13 +54,15 @@ public class UsagePanel extends JPanel {
 
     protected String createLabelText(Usage usage, ModelType model) {
         int inputTokenLimit = (model == null) ? Integer.MAX_VALUE : model.getInputTokenLimit();
-        return String.format("<html><small>%s</small></html>",
+        Integer cachedTokens = UsageAggregator.getCachedTokens(usage);
+        return String.format("<html><small>%s%s</small></html>",
                 ChatGptBundle.message(
                         (inputTokenLimit == Integer.MAX_VALUE) ? "usage.in.out" : "usage.in.out.max",
                         usage.getPromptTokens(),
                         usage.getCompletionTokens(),
                         inputTokenLimit
-                )
+                ),
+                (cachedTokens != null && cachedTokens > 0) ? ChatGptBundle.message("usage.cached", cachedTokens) : ""
         );
     }
 }
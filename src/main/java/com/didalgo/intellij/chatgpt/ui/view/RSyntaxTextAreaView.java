@@ -11,6 +11,8 @@ import javax.swing.text.*;
 import com.didalgo.intellij.chatgpt.ChatGptBundle;
 import com.didalgo.intellij.chatgpt.ui.action.editor.SelectedTextEditorTargetedAction;
 import com.didalgo.intellij.chatgpt.ui.action.editor.DiffAction;
+import com.didalgo.intellij.chatgpt.ui.view.rsyntaxtextarea.CodeBlockPreview;
+import com.didalgo.intellij.chatgpt.ui.view.rsyntaxtextarea.CodeTokenModel;
 import com.didalgo.intellij.chatgpt.ui.view.rsyntaxtextarea.RSyntaxTextAreaUIEx;
 import com.didalgo.intellij.chatgpt.util.Language;
 import com.intellij.icons.AllIcons.Actions;
@@ -55,6 +57,7 @@ public class RSyntaxTextAreaView extends ComponentView {
     private static Theme defaultTheme;
 
     private Language language;
+    private CodeTokenModel tokenModel;
 
     public RSyntaxTextAreaView(Element element, Language language) {
         super(element);
@@ -81,7 +84,12 @@ public class RSyntaxTextAreaView extends ComponentView {
 
     protected void updateText() {
         Component comp = getComponent();
-        if (comp instanceof RTextScrollPane scrollPane && scrollPane.getTextArea() instanceof RSyntaxTextArea textArea)
+        if (comp instanceof Container holder && holder.getComponentCount() > 0)
+            comp = holder.getComponent(0);
+
+        if (comp instanceof CodeBlockPreview preview)
+            preview.setModel(getTokenModel());
+        else if (comp instanceof RTextScrollPane scrollPane && scrollPane.getTextArea() instanceof RSyntaxTextArea textArea)
             updateText(scrollPane, textArea);
     }
 
@@ -103,13 +111,47 @@ public class RSyntaxTextAreaView extends ComponentView {
         return text;
     }
 
+    /**
+     * Creates a placeholder panel showing the painted {@link CodeBlockPreview} of the code block.
+     * The full editor is created by {@link #createComponent0()} only when the preview is activated.
+     */
     @Override
     protected Component createComponent() {
+        JPanel holder = new JPanel(new BorderLayout());
+        holder.setOpaque(false);
+
+        CodeBlockPreview preview = new CodeBlockPreview(getTokenModel(), getDefaultTheme(), CodeBlockActionPanel.getIcons(), this::getContainerWidth);
+        preview.onActivation(() -> activateEditor(holder, preview));
+        holder.add(preview);
+        return holder;
+    }
+
+    protected void activateEditor(JPanel holder, CodeBlockPreview preview) {
+        boolean focused = preview.isFocusOwner();
+        Component editor = createComponent0();
+        holder.remove(preview);
+        holder.add(editor);
+        holder.revalidate();
+        holder.repaint();
+        if (focused && editor instanceof RTextScrollPane scrollPane)
+            scrollPane.getTextArea().requestFocusInWindow();
+    }
+
+    protected CodeTokenModel getTokenModel() {
+        String text;
         try {
-            return createComponent0();
-        } catch (RuntimeException | Error e) {
-            throw e;
+            text = getText();
+        } catch (BadLocationException e) {
+            text = "";
         }
+        if (tokenModel == null || !tokenModel.getText().equals(text))
+            tokenModel = CodeTokenModel.create(text, language.mimeType());
+        return tokenModel;
+    }
+
+    private int getContainerWidth() {
+        Container cont = getContainer();
+        return (cont == null) ? 0 : cont.getWidth();
     }
 
     protected static class MyRSyntaxTextArea extends RSyntaxTextArea implements DataProvider {
@@ -212,6 +254,13 @@ public class RSyntaxTextAreaView extends ComponentView {
 
         private final RSyntaxTextArea textArea;
 
+        /**
+         * Gives icons of the panel buttons, in the order of their appearance.
+         */
+        public static List<Icon> getIcons() {
+            return List.of(COPY_ICON_16x16_DARK, INSERT_COPY_ICON_16x16_DARK, Actions.More);
+        }
+
         public CodeBlockActionPanel(RSyntaxTextArea textArea) {
             super(new GridLayout(1, 0));
             this.textArea = textArea;
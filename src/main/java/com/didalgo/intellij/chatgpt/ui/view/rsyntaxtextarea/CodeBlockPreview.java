@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.ui.view.rsyntaxtextarea;
+
+import org.fife.ui.rsyntaxtextarea.RSyntaxTextArea;
+import org.fife.ui.rsyntaxtextarea.Style;
+import org.fife.ui.rsyntaxtextarea.SyntaxScheme;
+import org.fife.ui.rsyntaxtextarea.Theme;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.FocusAdapter;
+import java.awt.event.FocusEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntSupplier;
+
+/**
+ * Lightweight, read-only stand-in for a code block editor.
+ * <p>
+ * The preview paints the syntax highlighted text straight from a {@link CodeTokenModel}, wrapping
+ * lines at the component width, and doesn't hold any text component. As soon as the user shows
+ * interest in the block, i.e. clicks in it or focuses it, the activation callback is invoked, which
+ * is expected to replace the preview with a real editor. Merely moving the mouse over the block,
+ * e.g. while scrolling the conversation, leaves the preview in place.
+ *
+ * @author Mariusz Bernacki
+ */
+public class CodeBlockPreview extends JComponent {
+
+    private static final int TAB_SIZE = 4;
+    private static final int CORNER_BUTTON_SIZE = 20;
+    private static final int CORNER_PADDING = 2;
+
+    private final SyntaxScheme scheme;
+    private final Color background;
+    private final Font baseFont;
+    private final List<Icon> cornerIcons;
+    private final IntSupplier availableWidth;
+    private Runnable activation;
+    private CodeTokenModel model;
+
+    private int layoutWidth = -1;
+    private int rowCount;
+    private int[] rowLines = new int[0], rowStarts = new int[0], rowEnds = new int[0];
+
+    public CodeBlockPreview(CodeTokenModel model, Theme theme, List<Icon> cornerIcons, IntSupplier availableWidth) {
+        this.model = model;
+        this.scheme = (theme != null && theme.scheme != null) ? theme.scheme : new SyntaxScheme(true);
+        this.background = (theme != null) ? theme.bgColor : null;
+        this.baseFont = (theme != null && theme.baseFont != null) ? theme.baseFont : RSyntaxTextArea.getDefaultFont();
+        this.cornerIcons = List.copyOf(cornerIcons);
+        this.availableWidth = availableWidth;
+        setOpaque(background != null);
+        setBackground(background);
+        setFont(baseFont);
+        setFocusable(true);
+        setBorder(BorderFactory.createEmptyBorder(6, 0, 5, 0));
+        addMouseListener(new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                // activated once focused, for the editor to take over the focus
+                if (!requestFocusInWindow())
+                    activate();
+            }
+        });
+        addFocusListener(new FocusAdapter() {
+            @Override
+            public void focusGained(FocusEvent e) {
+                activate();
+            }
+        });
+    }
+
+    public void onActivation(Runnable activation) {
+        this.activation = activation;
+    }
+
+    protected void activate() {
+        Runnable callback = activation;
+        activation = null;
+        if (callback != null)
+            callback.run();
+    }
+
+    public CodeTokenModel getModel() {
+        return model;
+    }
+
+    public void setModel(CodeTokenModel model) {
+        this.model = model;
+        this.layoutWidth = -1;
+        revalidate();
+        repaint();
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        if (isPreferredSizeSet())
+            return super.getPreferredSize();
+
+        int available = availableWidth.getAsInt();
+        int width = (getWidth() == 0 || available > 0 && getWidth() > available) ? available : getWidth();
+        Insets insets = getInsets();
+        layoutRows(width - insets.left - insets.right);
+        return new Dimension(width, insets.top + insets.bottom + rowCount * getLineHeight());
+    }
+
+    @Override
+    public void reshape(int x, int y, int w, int h) {
+        boolean widthChanged = (w != getWidth());
+        super.reshape(x, y, w, h);
+        if (widthChanged)
+            revalidate();
+    }
+
+    protected int getLineHeight() {
+        return getFontMetrics(baseFont).getHeight();
+    }
+
+    /**
+     * Splits the model lines into rows fitting in the given width, wrapping at character boundaries
+     * as the text area does with line wrapping enabled.
+     */
+    private void layoutRows(int width) {
+        if (width == layoutWidth)
+            return;
+
+        layoutWidth = width;
+        rowCount = 0;
+        char[] chars = model.getChars();
+        FontMetrics metrics = getFontMetrics(baseFont);
+        int tabWidth = TAB_SIZE * metrics.charWidth(' ');
+        for (int line = 0; line < model.getLineCount(); line++) {
+            int start = model.getLineStart(line), end = model.getLineEnd(line);
+            int rowStart = start, x = 0;
+            for (int i = start; i < end; i++) {
+                int charWidth = (chars[i] == '\t') ? tabWidth - x % Math.max(tabWidth, 1) : metrics.charWidth(chars[i]);
+                if (width > 0 && x + charWidth > width && i > rowStart) {
+                    addRow(line, rowStart, i);
+                    rowStart = i;
+                    x = 0;
+                    charWidth = (chars[i] == '\t') ? tabWidth : charWidth;
+                }
+                x += charWidth;
+            }
+            addRow(line, rowStart, end);
+        }
+    }
+
+    private void addRow(int line, int start, int end) {
+        if (rowCount == rowLines.length) {
+            int capacity = Math.max(16, rowCount * 2);
+            rowLines = Arrays.copyOf(rowLines, capacity);
+            rowStarts = Arrays.copyOf(rowStarts, capacity);
+            rowEnds = Arrays.copyOf(rowEnds, capacity);
+        }
+        rowLines[rowCount] = line;
+        rowStarts[rowCount] = start;
+        rowEnds[rowCount] = end;
+        rowCount++;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        if (isOpaque()) {
+            g.setColor(getBackground());
+            g.fillRect(0, 0, getWidth(), getHeight());
+        }
+        Insets insets = getInsets();
+        layoutRows(getWidth() - insets.left - insets.right);
+
+        Graphics2D g2 = (Graphics2D) g.create();
+        try {
+            g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            paintRows(g2, insets);
+        } finally {
+            g2.dispose();
+        }
+        paintCornerIcons(g, insets);
+    }
+
+    private void paintRows(Graphics2D g, Insets insets) {
+        Rectangle clip = g.getClipBounds();
+        int lineHeight = getLineHeight();
+        int ascent = getFontMetrics(baseFont).getAscent();
+        int firstRow = 0, lastRow = rowCount - 1;
+        if (clip != null) {
+            firstRow = Math.max(0, (clip.y - insets.top) / lineHeight);
+            lastRow = Math.min(lastRow, (clip.y + clip.height - insets.top) / lineHeight);
+        }
+
+        char[] chars = model.getChars();
+        for (int row = firstRow; row <= lastRow; row++) {
+            int line = rowLines[row], rowStart = rowStarts[row], rowEnd = rowEnds[row];
+            int x = insets.left, y = insets.top + row * lineHeight + ascent;
+            for (int token = 0; token < model.getTokenCount(line); token++) {
+                int start = Math.max(model.getTokenStart(line, token), rowStart);
+                int end = Math.min(model.getTokenEnd(line, token), rowEnd);
+                if (start >= end)
+                    continue;
+
+                Style style = scheme.getStyle(model.getTokenType(line, token));
+                Font font = (style != null && style.font != null) ? style.font : baseFont;
+                g.setFont(font);
+                g.setColor((style != null && style.foreground != null) ? style.foreground : getForeground());
+                x = drawChars(g, chars, start, end, x, y, insets.left);
+            }
+        }
+    }
+
+    private int drawChars(Graphics2D g, char[] chars, int start, int end, int x, int y, int left) {
+        FontMetrics metrics = g.getFontMetrics();
+        int tabWidth = TAB_SIZE * metrics.charWidth(' ');
+        int runStart = start;
+        for (int i = start; i < end; i++) {
+            if (chars[i] == '\t') {
+                if (i > runStart) {
+                    g.drawChars(chars, runStart, i - runStart, x, y);
+                    x += metrics.charsWidth(chars, runStart, i - runStart);
+                }
+                x += tabWidth - (x - left) % Math.max(tabWidth, 1);
+                runStart = i + 1;
+            }
+        }
+        if (end > runStart) {
+            g.drawChars(chars, runStart, end - runStart, x, y);
+            x += metrics.charsWidth(chars, runStart, end - runStart);
+        }
+        return x;
+    }
+
+    private void paintCornerIcons(Graphics g, Insets insets) {
+        int x = getWidth() - insets.right - CORNER_PADDING - cornerIcons.size() * CORNER_BUTTON_SIZE;
+        int y = insets.top + CORNER_PADDING;
+        for (Icon icon : cornerIcons) {
+            icon.paintIcon(this, g, x + (CORNER_BUTTON_SIZE - icon.getIconWidth()) / 2, y + (CORNER_BUTTON_SIZE - icon.getIconHeight()) / 2);
+            x += CORNER_BUTTON_SIZE;
+        }
+    }
+}
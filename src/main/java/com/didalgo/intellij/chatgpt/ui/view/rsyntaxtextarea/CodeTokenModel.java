@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.ui.view.rsyntaxtextarea;
+
+import org.fife.ui.rsyntaxtextarea.Token;
+import org.fife.ui.rsyntaxtextarea.TokenMaker;
+import org.fife.ui.rsyntaxtextarea.TokenMakerFactory;
+import org.fife.ui.rsyntaxtextarea.TokenTypes;
+
+import javax.swing.text.Segment;
+import java.util.Arrays;
+
+/**
+ * Immutable, syntax highlighted representation of a code snippet, split into lines and tokens.
+ * <p>
+ * The model is computed once with the {@link TokenMaker} of the given syntax style and then
+ * serves painting of the snippet without the need of a backing text component.
+ *
+ * @author Mariusz Bernacki
+ */
+public final class CodeTokenModel {
+
+    private static final int[] NO_TOKENS = new int[0];
+
+    private final String text;
+    private final char[] chars;
+    private final int[] lineStarts;
+    private final int[][] tokenStarts;
+    private final int[][] tokenTypes;
+
+    private CodeTokenModel(String text, char[] chars, int[] lineStarts, int[][] tokenStarts, int[][] tokenTypes) {
+        this.text = text;
+        this.chars = chars;
+        this.lineStarts = lineStarts;
+        this.tokenStarts = tokenStarts;
+        this.tokenTypes = tokenTypes;
+    }
+
+    public static CodeTokenModel create(String text, String syntaxStyle) {
+        TokenMaker tokenMaker = TokenMakerFactory.getDefaultInstance().getTokenMaker(syntaxStyle);
+        char[] chars = text.toCharArray();
+
+        int lineCount = 1;
+        for (char ch : chars)
+            if (ch == '\n')
+                lineCount++;
+
+        int[] lineStarts = new int[lineCount];
+        int[][] tokenStarts = new int[lineCount][];
+        int[][] tokenTypes = new int[lineCount][];
+        int lastTokenType = TokenTypes.NULL;
+        int[] starts = new int[16], types = new int[16];
+        for (int line = 0, lineStart = 0; line < lineCount; line++) {
+            int lineEnd = lineStart;
+            while (lineEnd < chars.length && chars[lineEnd] != '\n')
+                lineEnd++;
+
+            lineStarts[line] = lineStart;
+            Segment segment = new Segment(chars, lineStart, lineEnd - lineStart);
+            int count = 0;
+            for (Token token = tokenMaker.getTokenList(segment, lastTokenType, lineStart); token != null && token.isPaintable(); token = token.getNextToken()) {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                    types = Arrays.copyOf(types, count * 2);
+                }
+                starts[count] = token.getTextOffset();
+                types[count] = token.getType();
+                count++;
+            }
+            tokenStarts[line] = (count == 0) ? NO_TOKENS : Arrays.copyOf(starts, count);
+            tokenTypes[line] = (count == 0) ? NO_TOKENS : Arrays.copyOf(types, count);
+
+            lastTokenType = tokenMaker.getLastTokenTypeOnLine(segment, lastTokenType);
+            lineStart = lineEnd + 1;
+        }
+        return new CodeTokenModel(text, chars, lineStarts, tokenStarts, tokenTypes);
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    char[] getChars() {
+        return chars;
+    }
+
+    public int getLineCount() {
+        return lineStarts.length;
+    }
+
+    public int getLineStart(int line) {
+        return lineStarts[line];
+    }
+
+    /**
+     * Gives the end offset of the line, excluding the line terminator.
+     */
+    public int getLineEnd(int line) {
+        return (line + 1 < lineStarts.length) ? lineStarts[line + 1] - 1 : chars.length;
+    }
+
+    public int getTokenCount(int line) {
+        return tokenStarts[line].length;
+    }
+
+    public int getTokenStart(int line, int token) {
+        return tokenStarts[line][token];
+    }
+
+    public int getTokenEnd(int line, int token) {
+        return (token + 1 < tokenStarts[line].length) ? tokenStarts[line][token + 1] : getLineEnd(line);
+    }
+
+    public int getTokenType(int line, int token) {
+        return tokenTypes[line][token];
+    }
+}
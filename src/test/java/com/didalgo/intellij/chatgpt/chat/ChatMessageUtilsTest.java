@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat;
+
+import com.didalgo.gpt3.ModelType;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.List;
+
+import static com.didalgo.intellij.chatgpt.chat.ChatMessageUtils.countTokens;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChatMessageUtilsTest {
+
+    final ModelType model = ModelType.GPT_4;
+
+    @Test
+    void countMessageTokens_sums_up_to_conversation_token_count() {
+        List<Message> messages = List.of(new SystemMessage("Be brief."), new UserMessage("Hello there!"), new AssistantMessage("Hi."));
+        int sum = ChatMessageUtils.countReplyPrimingTokens(model.getTokenizer(), model.getChatFormatDescriptor());
+        for (Message message : messages)
+            sum += ChatMessageUtils.countMessageTokens(message, model.getTokenizer(), model.getChatFormatDescriptor());
+
+        assertEquals(countTokens(messages, model.getTokenizer(), model.getChatFormatDescriptor()), sum);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat;
+
+import com.didalgo.intellij.chatgpt.chat.models.TokenEstimator;
+import com.didalgo.intellij.chatgpt.chat.models.TokenizerRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContextWindowPackerTest {
+
+    final TokenEstimator tokenEstimator = TokenizerRegistry.getTokenizer("gpt-4");
+    final ContextWindowPacker packer = new ContextWindowPacker(tokenEstimator);
+
+    int countTokens(List<Message> messages) {
+        int count = tokenEstimator.countReplyPrimingTokens();
+        for (Message message : messages)
+            count += tokenEstimator.countMessageTokens(message);
+        return count;
+    }
+
+    @Test
+    void pack_keeps_the_longest_fitting_suffix() {
+        var messages = new ArrayList<Message>();
+        messages.add(new SystemMessage("You are a helpful assistant."));
+        for (int i = 0; i < 20; i++) {
+            messages.add(new UserMessage("Question number " + i + " " + "word ".repeat(i * 3)));
+            messages.add(new AssistantMessage("Answer number " + i + " " + "text ".repeat(i * 2)));
+        }
+        messages.add(new UserMessage("Final question"));
+        int fullCount = countTokens(messages);
+
+        for (int tokenBudget = 40; tokenBudget < fullCount + 20; tokenBudget += 11) {
+            var actual = new ArrayList<>(messages);
+            int removed = packer.pack(actual, tokenBudget);
+
+            var expected = new ArrayList<>(messages);
+            int expectedRemoved = 0;
+            while (countTokens(expected) > tokenBudget && expected.size() > 2) {
+                expected.remove(1);
+                expectedRemoved++;
+            }
+            assertEquals(expectedRemoved, removed, "tokenBudget: " + tokenBudget);
+            assertEquals(expected, actual, "tokenBudget: " + tokenBudget);
+            assertTrue(countTokens(actual) <= tokenBudget, "tokenBudget: " + tokenBudget);
+        }
+    }
+
+    @Test
+    void pack_truncates_oversized_last_message_to_exact_budget() {
+        var prompt = "Some attached file content line.\n".repeat(500) + "---\n\nWhat does it do?";
+        var messages = new ArrayList<Message>(List.of(new SystemMessage("Be brief."), new AssistantMessage("Old answer"), new UserMessage(prompt)));
+
+        int removed = packer.pack(messages, 300);
+
+        assertEquals(1, removed);
+        assertEquals(2, messages.size());
+        int count = countTokens(messages);
+        assertTrue(count <= 300 && count > 280, "count: " + count);
+        assertTrue(messages.get(1).getText().startsWith("[...] "));
+        assertTrue(messages.get(1).getText().endsWith("What does it do?"));
+    }
+
+    @Test
+    void pack_keeps_all_fixed_leading_messages() {
+        var messages = new ArrayList<Message>(List.of(
+                new SystemMessage("Be brief."),
+                new SystemMessage("Summary of the earlier conversation:\nThe user asked about monads."),
+                new UserMessage("Old question " + "word ".repeat(100)),
+                new AssistantMessage("Old answer " + "text ".repeat(100)),
+                new UserMessage("What about functors?")));
+        int[] messageTokens = messages.stream().mapToInt(tokenEstimator::countMessageTokens).toArray();
+
+        int removed = packer.pack(messages, messageTokens, 2, 80);
+
+        assertEquals(2, removed);
+        assertEquals(3, messages.size());
+        assertTrue(messages.get(1).getText().startsWith("Summary of the earlier conversation:"));
+        assertEquals("What about functors?", messages.get(2).getText());
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat;
+
+import com.didalgo.intellij.chatgpt.chat.models.TokenEstimator;
+import com.didalgo.intellij.chatgpt.core.TextSubstitutor;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConversationHistoryTest {
+
+    static ConversationHistory historyOf(Message... messages) {
+        var history = ConversationHistory.EMPTY;
+        for (Message message : messages)
+            history = history.append(message);
+        return history;
+    }
+
+    static List<String> texts(ConversationHistory history) {
+        return history.messages().stream().map(Message::getText).toList();
+    }
+
+    @Test
+    void append_shares_the_previous_history() {
+        var history = historyOf(new UserMessage("Q1"), new AssistantMessage("A1"));
+        var longer = history.append(new UserMessage("Q2"));
+
+        assertEquals(List.of("Q1", "A1"), texts(history));
+        assertEquals(List.of("Q1", "A1", "Q2"), texts(longer));
+        assertSame(history.entries().get(1), longer.entries().get(1));
+    }
+
+    @Test
+    void append_replaces_the_newest_message_of_the_same_type() {
+        var history = historyOf(new UserMessage("Q1"), new AssistantMessage("A1"), new AssistantMessage("A1 regenerated"));
+
+        assertEquals(List.of("Q1", "A1 regenerated"), texts(history));
+    }
+
+    @Test
+    void dropOldest_drops_the_given_entries_only_if_still_oldest() {
+        var history = historyOf(new UserMessage("Q1"), new AssistantMessage("A1"), new UserMessage("Q2"));
+        var dropped = history.entries().subList(0, 2);
+
+        var trimmed = history.dropOldest(dropped);
+        assertEquals(List.of("Q2"), texts(trimmed));
+        assertSame(trimmed, trimmed.dropOldest(dropped));
+        assertSame(ConversationHistory.EMPTY, ConversationHistory.EMPTY.dropOldest(dropped));
+        assertEquals(List.of("Q2", "A2"), texts(trimmed.append(new AssistantMessage("A2"))));
+    }
+
+    @Test
+    void append_to_a_history_branched_off_keeps_both_branches_intact() {
+        var history = historyOf(new UserMessage("Q1"), new AssistantMessage("A1"));
+        var first = history.append(new UserMessage("Q2"));
+        var second = history.append(new UserMessage("Q3"));
+
+        assertEquals(List.of("Q1", "A1", "Q2"), texts(first));
+        assertEquals(List.of("Q1", "A1", "Q3"), texts(second));
+        assertEquals(List.of("Q1", "A1"), texts(history));
+    }
+
+    @Test
+    void append_grows_the_history_beyond_its_initial_capacity() {
+        var history = ConversationHistory.EMPTY;
+        for (int i = 0; i < 100; i++)
+            history = history.append((i % 2 == 0) ? new UserMessage("Q" + i) : new AssistantMessage("A" + i));
+
+        assertEquals(100, history.size());
+        assertEquals("Q0", history.entries().get(0).getMessage().getText());
+        assertEquals("A99", history.entries().get(99).getMessage().getText());
+
+        var trimmed = history.dropOldest(history.entries().subList(0, 98));
+        assertEquals(List.of("Q98", "A99"), texts(trimmed));
+        assertSame(ConversationHistory.EMPTY, trimmed.dropOldest(trimmed.entries()));
+    }
+
+    @Test
+    void entry_resolves_placeholders_and_counts_tokens_once() {
+        var substitutions = new AtomicInteger();
+        TextSubstitutor substitutor = text -> {
+            substitutions.incrementAndGet();
+            return text.replace("${{NAME}}", "World");
+        };
+        var entry = historyOf(new UserMessage("Hello ${{NAME}}")).entries().get(0);
+
+        Message resolved = entry.getResolvedMessage(substitutor);
+        assertEquals("Hello World", resolved.getText());
+        assertSame(resolved, entry.getResolvedMessage(substitutor));
+        assertEquals(1, substitutions.get());
+
+        var counts = new AtomicInteger();
+        assertEquals(11, entry.countTokens(resolved, new LengthEstimator(counts)));
+        assertEquals(11, entry.countTokens(resolved, new LengthEstimator(counts)));
+        assertEquals(1, counts.get());
+    }
+
+    record LengthEstimator(AtomicInteger counts) implements TokenEstimator {
+        @Override
+        public int countTokens(CharSequence text) {
+            return text.length();
+        }
+
+        @Override
+        public int countMessageTokens(Message message) {
+            counts.incrementAndGet();
+            return message.getText().length();
+        }
+
+        @Override
+        public int countReplyPrimingTokens() {
+            return 0;
+        }
+    }
+}
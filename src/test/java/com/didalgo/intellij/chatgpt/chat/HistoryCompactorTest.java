@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistoryCompactorTest {
+
+    final List<String> transcripts = new ArrayList<>();
+    final HistoryCompactor compactor = new HistoryCompactor(Runnable::run, prompt -> {
+        transcripts.add(prompt.get(1).getText());
+        return "summary " + transcripts.size() + " of " + prompt.get(1).getText().hashCode();
+    });
+
+    @Test
+    void compact_summarizes_dropped_messages_together_with_previous_summary() {
+        compactor.compact(List.of(new UserMessage("What is a monad?"), new AssistantMessage("A burrito.")));
+        String firstSummary = compactor.getSummary();
+        compactor.compact(List.of(new UserMessage("And a functor?"), new AssistantMessage("A box.")));
+
+        assertEquals(2, transcripts.size());
+        assertEquals("User: What is a monad?\n\nAssistant: A burrito.", transcripts.get(0));
+        assertTrue(transcripts.get(1).startsWith("Summary of the earlier conversation:\n" + firstSummary + "\n\nUser: And a functor?"));
+        assertTrue(compactor.getSummary().startsWith("summary 2"));
+    }
+
+    @Test
+    void compact_reuses_cached_summary_of_the_same_history() {
+        List<Message> dropped = List.of(new UserMessage("Cached question " + System.nanoTime()), new AssistantMessage("Cached answer"));
+        compactor.compact(dropped);
+        String summary = compactor.getSummary();
+
+        var otherCompactor = new HistoryCompactor(Runnable::run, prompt -> fail("should use cached summary"));
+        otherCompactor.compact(dropped);
+
+        assertEquals(summary, otherCompactor.getSummary());
+    }
+
+    @Test
+    void clear_forgets_summary() {
+        compactor.compact(List.of(new UserMessage("Question"), new AssistantMessage("Answer")));
+        compactor.clear();
+
+        assertNull(compactor.getSummary());
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat.client;
+
+import com.didalgo.intellij.chatgpt.chat.AssistantType;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FirstTokenLatencyTest {
+
+    final FirstTokenLatency latency = new FirstTokenLatency();
+
+    @Test
+    void hedge_delay_is_the_default_until_enough_responses_are_seen() {
+        for (int i = 0; i < FirstTokenLatency.MIN_SAMPLES - 1; i++)
+            latency.record(AssistantType.System.CLAUDE, Duration.ofSeconds(1));
+
+        assertTrue(latency.percentile(AssistantType.System.CLAUDE, 95).isEmpty());
+        assertEquals(FirstTokenLatency.DEFAULT_HEDGE_DELAY, latency.hedgeDelay(AssistantType.System.CLAUDE));
+    }
+
+    @Test
+    void hedge_delay_is_the_95th_percentile_of_recent_responses() {
+        for (int i = 1; i <= 100; i++)
+            latency.record(AssistantType.System.GPT_4, Duration.ofMillis(i * 100L));
+
+        // only the last 50 responses count, taking 5.1 to 10 seconds
+        assertEquals(Duration.ofMillis(9_800), latency.hedgeDelay(AssistantType.System.GPT_4));
+        assertEquals(Duration.ofMillis(5_100), latency.percentile(AssistantType.System.GPT_4, 0).orElseThrow());
+        assertTrue(latency.percentile(AssistantType.System.GEMINI, 95).isEmpty());
+    }
+
+    @Test
+    void hedge_delay_is_not_shorter_than_the_minimum() {
+        for (int i = 0; i < FirstTokenLatency.MIN_SAMPLES; i++)
+            latency.record(AssistantType.System.OLLAMA, Duration.ofMillis(10));
+
+        assertEquals(FirstTokenLatency.MIN_HEDGE_DELAY, latency.hedgeDelay(AssistantType.System.OLLAMA));
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat.client;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HedgedCallTest {
+
+    static ChatResponse chunk(String text) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+    }
+
+    static String text(List<ChatResponse> chunks) {
+        return String.join("", chunks.stream().map(chunk -> chunk.getResult().getOutput().getText()).toList());
+    }
+
+    @Test
+    void fast_call_is_not_hedged() {
+        var fallbackMade = new AtomicBoolean();
+        var fallback = Flux.just(chunk("Fallback")).doOnSubscribe(__ -> fallbackMade.set(true));
+
+        var chunks = HedgedCall.withFallback(Flux.just(chunk(""), chunk("Hello"), chunk(" world")), fallback, "Claude", Duration.ofSeconds(5))
+                .collectList().block();
+        assertEquals("Hello world", text(chunks));
+        assertFalse(fallbackMade.get());
+    }
+
+    @Test
+    void slow_call_is_cancelled_when_the_fallback_answers_first() {
+        var cancelled = new AtomicBoolean();
+        var slow = Flux.just(chunk("Late")).delaySubscription(Duration.ofSeconds(5)).doOnCancel(() -> cancelled.set(true));
+
+        var chunks = HedgedCall.withFallback(slow, Flux.just(chunk("Hedged")), "Claude", Duration.ofMillis(50))
+                .collectList().block();
+        assertEquals("Hedged", text(chunks));
+        assertEquals("Claude", chunks.get(0).getMetadata().get(HedgedCall.ANSWERED_BY));
+        assertTrue(cancelled.get());
+    }
+
+    @Test
+    void fallback_is_made_as_soon_as_the_call_fails_or_ends_without_content() {
+        var chunks = HedgedCall.withFallback(Flux.error(new IllegalStateException("503")), Flux.just(chunk("Hedged")), "Claude", Duration.ofHours(1))
+                .collectList().block(Duration.ofSeconds(10));
+        assertEquals("Hedged", text(chunks));
+
+        chunks = HedgedCall.withFallback(Flux.just(chunk("")), Flux.just(chunk("Hedged")), "Claude", Duration.ofHours(1))
+                .collectList().block(Duration.ofSeconds(10));
+        assertEquals("Hedged", text(chunks));
+    }
+
+    @Test
+    void fallback_answers_when_the_call_fails() {
+        var chunks = HedgedCall.withFallback(Flux.error(new IllegalStateException("503")), Flux.just(chunk("Hedged")), "Claude", Duration.ofMillis(50))
+                .collectList().block();
+        assertEquals("Hedged", text(chunks));
+
+        var failure = assertThrows(IllegalStateException.class, () -> HedgedCall.withFallback(
+                Flux.error(new IllegalStateException("503")), Flux.error(new IllegalArgumentException("401")), "Claude", Duration.ofMillis(50))
+                .blockLast());
+        assertEquals("503", failure.getMessage());
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat.client;
+
+import com.didalgo.intellij.chatgpt.chat.AssistantType;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.metadata.RateLimit;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimitSchedulerTest {
+
+    static final Duration MAX_WAIT = Duration.ofMinutes(10);
+
+    final AtomicLong now = new AtomicLong(1_000_000_000L);
+    final RateLimitScheduler scheduler = new RateLimitScheduler(now::get, () -> 0.0);
+
+    @Test
+    void prompts_are_not_delayed_until_the_limits_are_known() {
+        for (int i = 0; i < 10; i++)
+            assertEquals(Duration.ZERO, scheduler.reserve(AssistantType.System.GPT_4, 1_000));
+
+        assertEquals(RateLimitScheduler.QueueStatus.EMPTY, scheduler.getQueueStatus(AssistantType.System.GPT_4));
+    }
+
+    @Test
+    void prompts_wait_for_the_reset_once_no_requests_remain() {
+        scheduler.update(AssistantType.System.GPT_4, rateLimit(1, Duration.ofSeconds(20), 10_000, Duration.ofSeconds(5)));
+
+        assertEquals(Duration.ZERO, scheduler.reserve(AssistantType.System.GPT_4, 100));
+        assertEquals(Duration.ofSeconds(20), scheduler.reserve(AssistantType.System.GPT_4, 100));
+        assertEquals(Duration.ofSeconds(20), scheduler.reserve(AssistantType.System.GPT_4, 100));
+        assertEquals(Duration.ZERO, scheduler.reserve(AssistantType.System.CLAUDE, 100));
+
+        now.addAndGet(Duration.ofSeconds(5).toNanos());
+        assertEquals(new RateLimitScheduler.QueueStatus(2, Duration.ofSeconds(15)), scheduler.getQueueStatus(AssistantType.System.GPT_4));
+    }
+
+    @Test
+    void prompts_wait_for_the_reset_when_not_enough_tokens_remain() {
+        scheduler.update(AssistantType.System.CLAUDE, rateLimit(100, Duration.ofSeconds(60), 1_000, Duration.ofSeconds(3)));
+
+        assertEquals(Duration.ZERO, scheduler.reserve(AssistantType.System.CLAUDE, 800));
+        assertEquals(Duration.ofSeconds(3), scheduler.reserve(AssistantType.System.CLAUDE, 800));
+
+        // the limits are unknown again once they reset
+        now.addAndGet(Duration.ofSeconds(3).toNanos());
+        assertEquals(Duration.ZERO, scheduler.reserve(AssistantType.System.CLAUDE, 800));
+    }
+
+    @Test
+    void throttling_honors_the_retry_after_time_and_backs_off_exponentially() {
+        scheduler.throttle(AssistantType.System.GEMINI, 0, Duration.ofSeconds(7));
+        assertEquals(Duration.ofSeconds(7), scheduler.reserve(AssistantType.System.GEMINI, 0));
+
+        now.addAndGet(Duration.ofSeconds(7).toNanos());
+        scheduler.throttle(AssistantType.System.GEMINI, 2, null);
+        assertEquals(Duration.ofSeconds(4), scheduler.reserve(AssistantType.System.GEMINI, 0));
+
+        now.addAndGet(Duration.ofSeconds(4).toNanos());
+        scheduler.throttle(AssistantType.System.GEMINI, 20, null);
+        assertEquals(RateLimitScheduler.MAX_BACKOFF, scheduler.reserve(AssistantType.System.GEMINI, 0));
+    }
+
+    @Test
+    void too_many_requests_are_recognized_with_their_retry_after_time() {
+        var headers = new HttpHeaders();
+        headers.add("retry-after", "12");
+        var tooManyRequests = new WebClientResponseException(429, "Too Many Requests", headers, null, null);
+        var unauthorized = new WebClientResponseException(401, "Unauthorized", new HttpHeaders(), null, null);
+
+        assertTrue(RateLimitScheduler.isTooManyRequests(tooManyRequests));
+        assertTrue(RateLimitScheduler.isTooManyRequests(new RuntimeException(tooManyRequests)));
+        assertFalse(RateLimitScheduler.isTooManyRequests(unauthorized));
+        assertEquals(Duration.ofSeconds(12), RateLimitScheduler.retryAfter(tooManyRequests));
+        assertEquals(Duration.ofSeconds(12), RateLimitScheduler.retryAfter(new RuntimeException(tooManyRequests)));
+        assertNull(RateLimitScheduler.retryAfter(unauthorized));
+    }
+
+    @Test
+    void transient_failures_are_retried_until_the_response_starts() {
+        // the clock passes any backoff between the attempts
+        var scheduler = new RateLimitScheduler(() -> now.addAndGet(MAX_WAIT.toNanos()), () -> 0.0);
+        var prompt = new Prompt(new UserMessage("Hello"));
+        var unavailable = new WebClientResponseException(503, "Service Unavailable", new HttpHeaders(), null, null);
+        var attempts = new AtomicInteger();
+
+        var call = Flux.defer(() -> (attempts.incrementAndGet() == 1) ? Flux.<ChatResponse>error(unavailable) : Flux.just(chunk("Hi")));
+        assertEquals(1, scheduler.schedule(AssistantType.System.GPT_4, prompt, call).collectList().block().size());
+        assertEquals(2, attempts.get());
+
+        attempts.set(0);
+        var failingMidway = Flux.defer(() -> {
+            attempts.incrementAndGet();
+            return Flux.just(chunk("Hi")).concatWith(Flux.error(unavailable));
+        });
+        assertThrows(WebClientResponseException.class, () -> scheduler.schedule(AssistantType.System.GPT_4, prompt, failingMidway).blockLast());
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void server_and_connection_errors_are_transient() {
+        assertTrue(RateLimitScheduler.isTransient(new WebClientResponseException(503, "Service Unavailable", new HttpHeaders(), null, null)));
+        assertTrue(RateLimitScheduler.isTransient(new RuntimeException(new WebClientResponseException(529, "Overloaded", new HttpHeaders(), null, null))));
+        assertTrue(RateLimitScheduler.isTransient(new TransientAiException("500 - Internal Server Error")));
+        assertTrue(RateLimitScheduler.isTransient(new ResourceAccessException("Connection reset")));
+        assertFalse(RateLimitScheduler.isTransient(new WebClientResponseException(401, "Unauthorized", new HttpHeaders(), null, null)));
+        assertFalse(RateLimitScheduler.isTransient(new NonTransientAiException("400 - Bad Request")));
+    }
+
+    @Test
+    void prompt_tokens_are_estimated_from_its_length() {
+        var prompt = new Prompt(new UserMessage("x".repeat(400)));
+
+        assertEquals(100, RateLimitScheduler.estimateTokens(prompt));
+    }
+
+    private static ChatResponse chunk(String text) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+    }
+
+    private static RateLimit rateLimit(long requestsRemaining, Duration requestsReset, long tokensRemaining, Duration tokensReset) {
+        return new RateLimit() {
+            @Override public Long getRequestsLimit() { return null; }
+            @Override public Long getRequestsRemaining() { return requestsRemaining; }
+            @Override public Duration getRequestsReset() { return requestsReset; }
+            @Override public Long getTokensLimit() { return null; }
+            @Override public Long getTokensRemaining() { return tokensRemaining; }
+            @Override public Duration getTokensReset() { return tokensReset; }
+        };
+    }
+}
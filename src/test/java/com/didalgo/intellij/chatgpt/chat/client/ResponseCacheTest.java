@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat.client;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseCacheTest {
+
+    @TempDir
+    Path directory;
+
+    Clock clock = Clock.fixed(Instant.parse("2024-06-01T12:00:00Z"), ZoneOffset.UTC);
+
+    ResponseCache cache(long maxSize) {
+        return new ResponseCache(directory, maxSize, Duration.ofHours(1), Runnable::run, clock);
+    }
+
+    static Prompt prompt(String question) {
+        return new Prompt(List.of(new SystemMessage("You are a helpful assistant."), new UserMessage(question)));
+    }
+
+    @Test
+    void key_depends_on_messages_model_and_options() {
+        var key = ResponseCache.key(prompt("Explain this code"), "gpt-4o", "GPT_4|0.4");
+
+        assertEquals(key, ResponseCache.key(prompt("Explain this code"), "gpt-4o", "GPT_4|0.4"));
+        assertNotEquals(key, ResponseCache.key(prompt("Explain this code!"), "gpt-4o", "GPT_4|0.4"));
+        assertNotEquals(key, ResponseCache.key(prompt("Explain this code"), "gpt-4o-mini", "GPT_4|0.4"));
+        assertNotEquals(key, ResponseCache.key(prompt("Explain this code"), "gpt-4o", "GPT_4|0.7"));
+        assertNotEquals(key, ResponseCache.key(new Prompt(prompt("Explain this code").getInstructions(),
+                ChatOptions.builder().temperature(1.0).build()), "gpt-4o", "GPT_4|0.4"));
+    }
+
+    @Test
+    void cached_response_survives_restart_and_is_replayed_in_chunks() {
+        var text = "Line of the answer.\n".repeat(40);
+        cache(1024 * 1024).put("key", "gpt-4o", text);
+
+        var cached = cache(1024 * 1024).get("key").orElseThrow();
+        assertEquals("gpt-4o", cached.modelId());
+        var chunks = ResponseCache.replay(cached).collectList().block();
+        assertTrue(chunks.size() > 1);
+        assertEquals(text, String.join("", chunks.stream().map(chunk -> chunk.getResult().getOutput().getText()).toList()));
+        assertTrue(chunks.stream().map(ChatResponse::getMetadata).allMatch(metadata -> ResponseCache.CacheHit.EXACT.equals(metadata.get(ResponseCache.CACHED_RESPONSE))));
+    }
+
+    @Test
+    void expired_response_is_not_returned() {
+        cache(1024 * 1024).put("key", "gpt-4o", "Answer");
+
+        clock = Clock.offset(clock, Duration.ofHours(2));
+        assertTrue(cache(1024 * 1024).get("key").isEmpty());
+    }
+
+    @Test
+    void response_expires_after_its_time_to_live_since_cached_even_if_used() {
+        cache(1024 * 1024).put("key", "gpt-4o", "Answer");
+        clock = Clock.offset(clock, Duration.ofMinutes(50));
+        assertTrue(cache(1024 * 1024).get("key").isPresent());
+
+        clock = Clock.offset(clock, Duration.ofMinutes(20));
+        assertTrue(cache(1024 * 1024).get("other").isEmpty());
+        assertFalse(Files.exists(directory.resolve("key.response")));
+    }
+
+    @Test
+    void least_recently_used_responses_are_evicted_over_the_size_limit() {
+        var cache = cache(300);
+        cache.put("first", "gpt-4o", "a".repeat(100));
+        cache.put("second", "gpt-4o", "b".repeat(100));
+        assertTrue(cache.get("first").isPresent());
+
+        cache.put("third", "gpt-4o", "c".repeat(100));
+        assertTrue(cache.get("first").isPresent());
+        assertTrue(cache.get("second").isEmpty());
+        assertTrue(cache.get("third").isPresent());
+    }
+
+    @Test
+    void chunks_are_split_at_line_ends() {
+        var text = "x".repeat(200) + "\n" + "y".repeat(300);
+
+        assertEquals(List.of("x".repeat(200) + "\n", "y".repeat(256), "y".repeat(44)), ResponseCache.chunks(text));
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat.client;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.prompt.Prompt;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SimilarPromptIndexTest {
+
+    static final String CODE = """
+            Explain the following code:
+            ```java
+            public int sum(List<Integer> values) {
+                int total = 0;
+                for (int value : values) {
+                    total += value;
+                }
+                return total;
+            }
+            ```
+            """;
+
+    @TempDir
+    Path directory;
+
+    SimilarPromptIndex index() {
+        return new SimilarPromptIndex(directory.resolve("similar-prompts.log"), 1000, Runnable::run);
+    }
+
+    static SimilarPromptIndex.Fingerprint fingerprint(String question) {
+        var prompt = new Prompt(List.of(new SystemMessage("You are a helpful assistant."), new UserMessage(question)));
+        return SimilarPromptIndex.fingerprint(prompt, "gpt-4o", "GPT_4|0.4");
+    }
+
+    @Test
+    void prompts_differing_in_formatting_are_nearly_identical() {
+        var reformatted = CODE.replace("    ", "\t").replace("int total = 0;", "int total=0 ;");
+
+        assertEquals(1f, SimilarPromptIndex.similarity(fingerprint(CODE).signature(), fingerprint(reformatted).signature()));
+        assertTrue(SimilarPromptIndex.similarity(fingerprint(CODE).signature(), fingerprint(CODE.replace("total", "sum")).signature()) < 0.9f);
+        assertTrue(SimilarPromptIndex.similarity(fingerprint(CODE).signature(), fingerprint("Write a haiku about autumn").signature()) < 0.1f);
+    }
+
+    @Test
+    void find_gives_the_most_similar_prompt_above_the_threshold() {
+        var index = index();
+        index.add(fingerprint(CODE), "code");
+        index.add(fingerprint("Write a haiku about autumn"), "haiku");
+
+        var edited = CODE.replace("Explain the following code:", "Explain the following code, please:");
+        var match = index.find(fingerprint(edited), 0.7f).orElseThrow();
+        assertEquals("code", match.responseKey());
+        assertTrue(match.similarity() >= 0.7f && match.similarity() < 1f);
+        assertTrue(index.find(fingerprint(edited), 0.99f).isEmpty());
+        assertTrue(index.find(fingerprint("Write a limerick about spring"), 0.7f).isEmpty());
+    }
+
+    @Test
+    void earlier_conversation_must_match_exactly() {
+        var index = index();
+        index.add(fingerprint(CODE), "code");
+
+        var prompt = new Prompt(List.of(new SystemMessage("You are a helpful assistant."),
+                new UserMessage("Hi"), new AssistantMessage("Hello!"), new UserMessage(CODE)));
+        assertTrue(index.find(SimilarPromptIndex.fingerprint(prompt, "gpt-4o", "GPT_4|0.4"), 0.5f).isEmpty());
+        assertNull(SimilarPromptIndex.fingerprint(new Prompt(List.of(new AssistantMessage("Hello!"))), "gpt-4o", ""));
+    }
+
+    @Test
+    void index_is_restored_from_disk_keeping_the_most_recent_entries() {
+        var index = new SimilarPromptIndex(directory.resolve("similar-prompts.log"), 10, Runnable::run);
+        for (int i = 0; i < 30; i++)
+            index.add(fingerprint("Question number " + i + " about the code"), "key-" + i);
+
+        var restored = new SimilarPromptIndex(directory.resolve("similar-prompts.log"), 10, Runnable::run);
+        assertEquals("key-29", restored.find(fingerprint("Question number 29 about the code"), 1f).orElseThrow().responseKey());
+        assertTrue(restored.find(fingerprint("Question number 3 about the code"), 1f).isEmpty());
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat.client;
+
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+    final Sinks.Many<String> upstream = Sinks.many().unicast().onBackpressureBuffer();
+
+    @Test
+    void identical_requests_in_flight_share_one_call() {
+        var calls = new AtomicInteger();
+        var call = upstream.asFlux().doOnSubscribe(__ -> calls.incrementAndGet());
+        var first = new ArrayList<String>();
+        var second = new ArrayList<String>();
+        var completed = new AtomicInteger();
+
+        singleFlight.share("key", call).doOnComplete(completed::incrementAndGet).subscribe(first::add);
+        upstream.tryEmitNext("Hello");
+        singleFlight.share("key", Flux.error(new AssertionError("second call made")))
+                .doOnComplete(completed::incrementAndGet).subscribe(second::add);
+        upstream.tryEmitNext(" world");
+        upstream.tryEmitComplete();
+
+        assertEquals(1, calls.get());
+        assertEquals(List.of("Hello", " world"), first);
+        assertEquals(List.of("Hello", " world"), second);
+        assertEquals(2, completed.get());
+        assertEquals(0, singleFlight.size());
+    }
+
+    @Test
+    void request_after_completion_makes_a_new_call() {
+        assertEquals(List.of("first"), singleFlight.share("key", Flux.just("first")).collectList().block());
+        assertEquals(List.of("second"), singleFlight.share("key", Flux.just("second")).collectList().block());
+    }
+
+    @Test
+    void call_is_cancelled_only_when_all_requests_cancel() {
+        var cancelled = new AtomicBoolean();
+        var call = upstream.asFlux().doOnCancel(() -> cancelled.set(true));
+
+        var first = singleFlight.share("key", call).subscribe();
+        var second = singleFlight.share("key", call).subscribe();
+        first.dispose();
+        assertFalse(cancelled.get());
+        assertEquals(1, singleFlight.size());
+
+        second.dispose();
+        assertTrue(cancelled.get());
+        assertEquals(0, singleFlight.size());
+    }
+
+    @Test
+    void each_request_gets_chunks_no_faster_than_it_requests() {
+        var first = new PacedSubscriber();
+        var second = new PacedSubscriber();
+
+        singleFlight.share("key", upstream.asFlux()).subscribe(first);
+        upstream.tryEmitNext("a");
+        upstream.tryEmitNext("b");
+        singleFlight.share("key", upstream.asFlux()).subscribe(second);
+        upstream.tryEmitNext("c");
+        assertEquals(List.of("a"), first.received);
+        assertEquals(List.of("a"), second.received);
+
+        first.request(1);
+        assertEquals(List.of("a", "b"), first.received);
+        assertEquals(List.of("a"), second.received);
+
+        upstream.tryEmitComplete();
+        second.request(2);
+        assertEquals(List.of("a", "b", "c"), second.received);
+        assertTrue(second.completed);
+        assertFalse(first.completed);
+    }
+
+    static class PacedSubscriber extends BaseSubscriber<String> {
+        final List<String> received = new ArrayList<>();
+        boolean completed;
+
+        @Override
+        protected void hookOnSubscribe(Subscription subscription) {
+            request(1);
+        }
+
+        @Override
+        protected void hookOnNext(String value) {
+            received.add(value);
+        }
+
+        @Override
+        protected void hookOnComplete() {
+            completed = true;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat.journal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConversationJournalTest {
+
+    @TempDir
+    Path directory;
+
+    ConversationJournal journal(long segmentSize, int maxSegments) {
+        return new ConversationJournal(directory, segmentSize, maxSegments, Runnable::run);
+    }
+
+    static void appendTurns(ConversationJournal journal, int from, int to) {
+        for (int i = from; i < to; i++) {
+            journal.append(JournalRecord.userMessage(new UserMessage("Question " + i)), false);
+            journal.append(JournalRecord.assistantMessage(new AssistantMessage("Answer " + i), "gpt-4o", null), true);
+        }
+    }
+
+    static List<String> texts(ConversationJournal.Page page) {
+        return page.records().stream().map(JournalRecord::text).toList();
+    }
+
+    @Test
+    void readTail_gives_the_newest_records_of_the_latest_conversation() {
+        try (var journal = journal(ConversationJournal.DEFAULT_SEGMENT_SIZE, 4)) {
+            appendTurns(journal, 0, 3);
+            journal.append(JournalRecord.newConversation(), false);
+            appendTurns(journal, 3, 5);
+
+            var page = journal.readTail(10);
+            assertEquals(List.of("Question 3", "Answer 3", "Question 4", "Answer 4"), texts(page));
+            assertFalse(page.hasEarlier());
+        }
+    }
+
+    @Test
+    void readEarlier_pages_back_across_segments() {
+        try (var journal = journal(256, 1000)) {
+            appendTurns(journal, 0, 50);
+        }
+        try (var journal = journal(256, 1000)) {
+            var page = journal.readTail(7);
+            var texts = new ArrayList<>(texts(page));
+            while (page.hasEarlier()) {
+                page = journal.readEarlier(page, 7);
+                texts.addAll(0, texts(page));
+            }
+            assertEquals(100, texts.size());
+            assertEquals("Question 0", texts.get(0));
+            assertEquals("Answer 49", texts.get(99));
+        }
+    }
+
+    @Test
+    void readTail_starts_with_a_user_record() {
+        try (var journal = journal(ConversationJournal.DEFAULT_SEGMENT_SIZE, 4)) {
+            appendTurns(journal, 0, 5);
+
+            var page = journal.readTail(3);
+            assertEquals(List.of("Question 3", "Answer 3", "Question 4", "Answer 4"), texts(page));
+            assertEquals(List.of("Question 1", "Answer 1", "Question 2", "Answer 2"), texts(journal.readEarlier(page, 3)));
+        }
+    }
+
+    @Test
+    void record_survives_round_trip() {
+        var record = new JournalRecord(JournalRecord.Kind.ASSISTANT, 42L, "Zażółć gęślą jaźń", "claude-3-5-sonnet",
+                10, 20, 5, List.of("image/png"));
+        try (var journal = journal(ConversationJournal.DEFAULT_SEGMENT_SIZE, 4)) {
+            journal.append(record, true);
+            assertEquals(List.of(record), journal.readTail(1).records());
+        }
+    }
+
+    @Test
+    void torn_record_is_ignored_and_truncated() throws IOException {
+        try (var journal = journal(ConversationJournal.DEFAULT_SEGMENT_SIZE, 4)) {
+            appendTurns(journal, 0, 2);
+        }
+        Path segment = segments().get(0);
+        try (var channel = Files.newByteChannel(segment, StandardOpenOption.APPEND)) {
+            ByteBuffer frame = ConversationJournal.frame(JournalRecord.userMessage(new UserMessage("Torn")).encode());
+            channel.write(frame.limit(frame.limit() - 3));
+        }
+
+        try (var journal = journal(ConversationJournal.DEFAULT_SEGMENT_SIZE, 4)) {
+            assertEquals(List.of("Question 0", "Answer 0", "Question 1", "Answer 1"), texts(journal.readTail(10)));
+            appendTurns(journal, 2, 3);
+            assertEquals(List.of("Question 1", "Answer 1", "Question 2", "Answer 2"), texts(journal.readTail(4)));
+        }
+    }
+
+    @Test
+    void old_segments_are_deleted_except_of_the_current_conversation() throws IOException {
+        try (var journal = journal(256, 3)) {
+            appendTurns(journal, 0, 20);
+            assertTrue(segments().size() <= 3);
+
+            journal.append(JournalRecord.newConversation(), false);
+            appendTurns(journal, 20, 40);
+            assertTrue(segments().size() > 3);
+
+            var page = journal.readTail(1000);
+            assertEquals(40, page.records().size());
+            assertEquals("Question 20", page.records().get(0).text());
+        }
+    }
+
+    @Test
+    void segments_of_a_conversation_continued_after_reopening_are_kept() throws IOException {
+        try (var journal = journal(256, 3)) {
+            appendTurns(journal, 0, 20);
+            journal.append(JournalRecord.newConversation(), false);
+            appendTurns(journal, 20, 22);
+        }
+        try (var journal = journal(256, 3)) {
+            appendTurns(journal, 22, 40);
+            assertTrue(segments().size() > 3);
+
+            var page = journal.readTail(1000);
+            assertEquals(40, page.records().size());
+            assertEquals("Question 20", page.records().get(0).text());
+        }
+    }
+
+    List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().toList();
+        }
+    }
+}
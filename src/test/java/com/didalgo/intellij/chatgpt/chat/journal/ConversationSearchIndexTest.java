@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat.journal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConversationSearchIndexTest {
+
+    @TempDir
+    Path directory;
+
+    ConversationSearchIndex index() {
+        return new ConversationSearchIndex(directory, Runnable::run);
+    }
+
+    static List<String> prompts(List<ConversationSearchIndex.Hit> hits) {
+        return hits.stream().map(ConversationSearchIndex.Hit::prompt).toList();
+    }
+
+    @Test
+    void terms_include_identifier_parts_and_fenced_block_languages() {
+        var terms = ConversationSearchIndex.terms("""
+                Use parseToken or MAX_TOKEN_COUNT:
+                ```java
+                var x = 1;
+                ```
+                """);
+
+        assertTrue(terms.containsAll(List.of("lang:java", "use", "parsetoken", "parse", "token", "max_token_count", "max", "count", "var")));
+    }
+
+    @Test
+    void search_ranks_the_most_relevant_turns_first() {
+        var index = index();
+        index.add("GPT-4", "How to read a file in Java?", "Use Files.readString(path).");
+        index.add("GPT-4", "What is a Java record?", "A record is a transparent data carrier.");
+        index.add("Claude", "Explain the record pattern in a Java switch", "Record patterns deconstruct records in a switch.\n```java\nif (o instanceof Point(int x, int y))\n```");
+
+        assertEquals(List.of("Explain the record pattern in a Java switch", "What is a Java record?"),
+                prompts(index.search("lang:java record ", 10)));
+        assertEquals(List.of("What is a Java record?", "Explain the record pattern in a Java switch"),
+                prompts(index.search("transparent record ", 10)));
+        assertEquals(List.of("How to read a file in Java?"), prompts(index.search("readStr", 10)));
+        assertEquals(List.of(), index.search("kotlin ", 10));
+    }
+
+    @Test
+    void index_is_restored_from_disk() {
+        index().add("Gemini", "Fix the NullPointerException in OrderService", "Check `customer` for null first.");
+
+        var hits = index().search("OrderService", 10);
+        assertEquals(1, hits.size());
+        assertEquals("Gemini", hits.get(0).assistant());
+        assertEquals("Check `customer` for null first.", hits.get(0).answer());
+    }
+
+    @Test
+    void log_is_compacted_to_the_newest_turns_once_too_large() throws IOException {
+        var index = new ConversationSearchIndex(directory, 4096, Runnable::run);
+        for (int i = 0; i < 100; i++)
+            index.add("GPT-4", "Question number" + i + " about records", "Answer " + i + " about records");
+
+        assertTrue(Files.size(directory.resolve(ConversationSearchIndex.LOG_FILE_NAME)) <= 4096);
+        var hits = index.search("records ", 1000);
+        assertFalse(hits.isEmpty());
+        assertTrue(hits.size() < 100);
+        assertEquals(List.of("Question number99 about records"), prompts(index.search("number99", 10)));
+        assertEquals(List.of(), index.search("number0 ", 10));
+        assertEquals(hits.size(), new ConversationSearchIndex(directory, 4096, Runnable::run).search("records ", 1000).size());
+    }
+}
@@ -9,6 +9,8 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 import org.springframework.ai.chat.metadata.Usage;
 
+import java.util.Map;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class UsageAggregatorTest {
@@ -48,6 +50,23 @@ class UsageAggregatorTest {
         assertUsageEquals(0, 1);
     }
 
+    @Test
+    void accept_accumulates_cached_tokens_from_native_usage() {
+        aggregator.accept(new ImmutableUsage(100, 0, Map.of("prompt_tokens_details", Map.of("cached_tokens", 64))));
+        aggregator.accept(new ImmutableUsage(100, 5, Map.of("cache_read_input_tokens", 80)));
+        aggregator.accept(usage(100, 10));
+
+        assertEquals(80, aggregator.getCachedTokens());
+        assertEquals(80, aggregator.toImmutableUsage().getCachedTokens());
+    }
+
+    @Test
+    void getCachedTokens_is_null_when_not_reported() {
+        assertNull(UsageAggregator.getCachedTokens(usage(10, 20)));
+        assertNull(UsageAggregator.getCachedTokens(new ImmutableUsage(10, 20, Map.of("prompt_tokens", 10))));
+        assertEquals(0, aggregator.getCachedTokens());
+    }
+
     private static Usage usage(Integer promptTokens, Integer completionTokens) {
         return new ImmutableUsage(promptTokens, completionTokens, null);
     }
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat.models;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnthropicPromptCachingTest {
+
+    final ObjectMapper objectMapper = new ObjectMapper();
+    final String large = "x".repeat(AnthropicPromptCaching.MIN_CACHEABLE_TOKENS * AnthropicPromptCaching.CHARS_PER_TOKEN);
+
+    @Test
+    void breakpoints_are_placed_after_a_large_system_prompt_and_large_user_messages() throws IOException {
+        var body = """
+                {"model":"claude","system":"%s","messages":[
+                  {"role":"user","content":[{"type":"text","text":"%s"}]},
+                  {"role":"assistant","content":[{"type":"text","text":"%s"}]},
+                  {"role":"user","content":[{"type":"text","text":"Thanks"}]}]}
+                """.formatted(large, large, large);
+
+        JsonNode request = objectMapper.readTree(AnthropicPromptCaching.addBreakpoints(body.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(large, request.at("/system/0/text").asText());
+        assertEquals("ephemeral", request.at("/system/0/cache_control/type").asText());
+        assertEquals("ephemeral", request.at("/messages/0/content/0/cache_control/type").asText());
+        assertTrue(request.at("/messages/1/content/0/cache_control").isMissingNode());
+        assertTrue(request.at("/messages/2/content/0/cache_control").isMissingNode());
+    }
+
+    @Test
+    void small_request_is_left_as_it_is() {
+        var body = """
+                {"model":"claude","system":"Be brief.","messages":[{"role":"user","content":"Hello"}]}
+                """.getBytes(StandardCharsets.UTF_8);
+
+        assertSame(body, AnthropicPromptCaching.addBreakpoints(body));
+    }
+
+    @Test
+    void at_most_four_breakpoints_are_placed() throws IOException {
+        var messages = new StringBuilder();
+        for (int i = 0; i < 5; i++)
+            messages.append(i == 0 ? "" : ",").append("{\"role\":\"user\",\"content\":\"").append(large).append("\"}");
+        var body = "{\"system\":\"" + large + "\",\"messages\":[" + messages + "]}";
+
+        JsonNode request = objectMapper.readTree(AnthropicPromptCaching.addBreakpoints(body.getBytes(StandardCharsets.UTF_8)));
+        assertEquals("ephemeral", request.at("/system/0/cache_control/type").asText());
+        assertTrue(request.at("/messages/0/content").isTextual());
+        assertTrue(request.at("/messages/1/content").isTextual());
+        for (int i = 2; i < 5; i++)
+            assertEquals("ephemeral", request.at("/messages/" + i + "/content/0/cache_control/type").asText());
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat.models;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConnectionPrewarmerTest {
+
+    final List<String> warmedUp = new ArrayList<>();
+    long now = 0;
+
+    @Test
+    void endpoint_is_warmed_up_at_most_once_per_interval() {
+        var prewarmer = new ConnectionPrewarmer(baseUrl -> {
+            warmedUp.add(baseUrl);
+            return Mono.empty();
+        }, () -> now);
+
+        prewarmer.prewarm("https://api.openai.com");
+        prewarmer.prewarm("https://api.openai.com/v1");
+        prewarmer.prewarm("https://api.anthropic.com");
+        now += ConnectionPrewarmer.MIN_INTERVAL.toNanos();
+        prewarmer.prewarm("https://api.openai.com");
+
+        assertEquals(List.of("https://api.openai.com", "https://api.anthropic.com", "https://api.openai.com"), warmedUp);
+        assertEquals(0, prewarmer.inFlight());
+    }
+
+    @Test
+    void warm_up_in_flight_is_not_repeated_and_can_be_cancelled() {
+        var cancelled = new AtomicBoolean();
+        var prewarmer = new ConnectionPrewarmer(baseUrl -> {
+            warmedUp.add(baseUrl);
+            return Sinks.empty().asMono().doOnCancel(() -> cancelled.set(true));
+        }, () -> now);
+
+        prewarmer.prewarm("https://api.openai.com");
+        now += ConnectionPrewarmer.MIN_INTERVAL.toNanos();
+        prewarmer.prewarm("https://api.openai.com");
+        assertEquals(1, warmedUp.size());
+        assertEquals(1, prewarmer.inFlight());
+
+        prewarmer.cancel();
+        assertTrue(cancelled.get());
+        assertEquals(0, prewarmer.inFlight());
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat.models;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HttpConnectionRegistryTest {
+
+    final HttpConnectionRegistry registry = new HttpConnectionRegistry();
+
+    @AfterEach
+    void dispose() {
+        registry.dispose();
+    }
+
+    @Test
+    void endpoint_is_identified_by_scheme_host_and_port() {
+        assertEquals("https://api.openai.com:443", HttpConnectionRegistry.endpointKey("https://api.openai.com"));
+        assertEquals("https://api.openai.com:443", HttpConnectionRegistry.endpointKey("https://API.openai.com:443/v1/"));
+        assertEquals("http://localhost:11434", HttpConnectionRegistry.endpointKey("http://localhost:11434"));
+        assertEquals("http://localhost:80", HttpConnectionRegistry.endpointKey("http://localhost/api"));
+    }
+
+    @Test
+    void connections_are_shared_by_models_of_the_same_endpoint() {
+        var openAi = registry.connectionProvider("https://api.openai.com");
+
+        assertSame(openAi, registry.connectionProvider("https://api.openai.com/v1"));
+        assertNotSame(openAi, registry.connectionProvider("https://generativelanguage.googleapis.com/v1beta/openai"));
+    }
+}
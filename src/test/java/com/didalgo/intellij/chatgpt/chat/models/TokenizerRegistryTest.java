@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.chat.models;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenizerRegistryTest {
+
+    @Test
+    void getTokenizer_caches_tokenizer_per_model_and_falls_back_for_unknown_ids() {
+        var gpt4 = TokenizerRegistry.getTokenizer("gpt-4");
+
+        assertSame(gpt4, TokenizerRegistry.getTokenizer("gpt-4"));
+        assertSame(gpt4.getTokenizer(), StandardModel.GPT_4.getTokenizer());
+        assertSame(gpt4, TokenizerRegistry.getTokenizer("some-unknown-model"));
+        assertSame(gpt4, TokenizerRegistry.getTokenizer(null));
+    }
+
+    @Test
+    void getTokenEstimator_gives_exact_counts_only_for_openai_models() {
+        assertTrue(StandardModel.GPT_4_O.getTokenEstimator().isExact());
+        assertSame(CalibratedTokenEstimator.ANTHROPIC, StandardModel.CLAUDE_3_5_SONNET.getTokenEstimator());
+        assertSame(CalibratedTokenEstimator.GEMINI, StandardModel.GEMINI_2_0_FLASH.getTokenEstimator());
+        assertSame(CalibratedTokenEstimator.GENERIC, new CustomModel("llama3", ModelFamily.OLLAMA, 8192).getTokenEstimator());
+    }
+
+    @Test
+    void calibrated_estimate_grows_with_text() {
+        var estimator = CalibratedTokenEstimator.ANTHROPIC;
+
+        assertEquals(0, estimator.countTokens(""));
+        int sentence = estimator.countTokens("The quick brown fox jumps over the lazy dog.");
+        assertTrue(sentence >= 9 && sentence <= 16, "estimate: " + sentence);
+        assertTrue(estimator.countTokens("The quick brown fox jumps over the lazy dog.\n".repeat(10)) >= sentence * 10);
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrozenTextSubstitutorTest {
+
+    final AtomicInteger resolutions = new AtomicInteger();
+    final FrozenTextSubstitutor substitutor = new FrozenTextSubstitutor(
+            text -> text.replace("${{NOW}}", "t" + resolutions.incrementAndGet()));
+
+    @Test
+    void placeholders_keep_their_first_resolved_value() {
+        assertEquals("Time: t1", substitutor.resolvePlaceholders("Time: ${{NOW}}"));
+        assertEquals("Time: t1", substitutor.resolvePlaceholders("Time: ${{NOW}}"));
+        assertEquals(1, resolutions.get());
+    }
+
+    @Test
+    void texts_without_placeholders_are_returned_as_they_are() {
+        var text = "No placeholders here";
+
+        assertSame(text, substitutor.resolvePlaceholders(text));
+        assertEquals(0, resolutions.get());
+    }
+}
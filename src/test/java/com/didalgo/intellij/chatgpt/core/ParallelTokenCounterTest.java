@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.core;
+
+import com.didalgo.intellij.chatgpt.chat.models.TokenEstimator;
+import com.didalgo.intellij.chatgpt.chat.models.TokenizerRegistry;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelTokenCounterTest {
+
+    final TokenEstimator tokenizer = TokenizerRegistry.getTokenizer("gpt-4");
+
+    @Test
+    void countTokens_gives_same_count_as_whole_text_encoding() {
+        var text = new StringBuilder();
+        for (int i = 0; i < 200; i++)
+            text.append("    public int method").append(i).append("(String arg) { return arg.length() * ").append(i).append("; }\n\n");
+        var processed = new AtomicLong();
+
+        int count = new ParallelTokenCounter(tokenizer, 256, ForkJoinPool.commonPool())
+                .countTokens(text, new EmptyProgressIndicator(), processed::addAndGet);
+
+        assertEquals(tokenizer.countTokens(text), count);
+        assertEquals(text.length(), processed.get());
+    }
+
+    @Test
+    void findSplitPosition_prefers_line_start_then_word_boundary() {
+        var text = "first line\nsecond line and some more words";
+
+        assertEquals(11, ParallelTokenCounter.findSplitPosition(text, 0, text.length()));
+        assertEquals(26, ParallelTokenCounter.findSplitPosition(text, 12, text.length()));
+    }
+}
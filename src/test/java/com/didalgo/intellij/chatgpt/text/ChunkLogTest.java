@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.text;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkLogTest {
+
+    private final ChunkLog log = new ChunkLog();
+
+    @Test
+    void append_gives_offset_of_appended_chunk() {
+        assertEquals(0, log.append("Hello"));
+        assertEquals(5, log.append(""));
+        assertEquals(5, log.append(", "));
+        assertEquals(7, log.append("World"));
+
+        assertEquals(12, log.length());
+        assertEquals(3, log.getChunkCount());
+        assertEquals("Hello, World", log.toString());
+    }
+
+    @Test
+    void charAt_and_substring_span_chunk_boundaries() {
+        log.append("abc");
+        log.append("def");
+        log.append("ghi");
+
+        assertEquals('c', log.charAt(2));
+        assertEquals('d', log.charAt(3));
+        assertEquals("cdefg", log.substring(2, 7));
+        assertEquals("", log.substring(4, 4));
+        assertThrows(IndexOutOfBoundsException.class, () -> log.charAt(9));
+    }
+
+    @Test
+    void snapshot_is_not_affected_by_later_appends() {
+        log.append("some");
+        var snapshot = log.snapshot();
+        log.append("thing");
+
+        assertEquals(4, snapshot.length());
+        assertEquals("some", snapshot.toString());
+        assertEquals("something", log.snapshot().toString());
+    }
+
+    @Test
+    void toString_reuses_materialized_prefix() {
+        log.append("some");
+        var first = log.toString();
+        assertSame(first, log.toString());
+
+        log.append("thing");
+        assertEquals("something", log.toString());
+        assertEquals("ome", log.substring(1, 4));
+    }
+}
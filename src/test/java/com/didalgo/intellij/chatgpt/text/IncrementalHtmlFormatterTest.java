@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.text;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IncrementalHtmlFormatterTest {
+
+    private static final String MARKDOWN = """
+            Intro paragraph
+            with soft break.
+
+            ```java
+            int x = 1;
+
+            int y = 2;
+            ```
+            After fence.
+
+            | a | b |
+            |---|---|
+            | 1 | 2 |
+
+            - item one
+
+            - item two
+
+            Closing words.
+            """;
+
+    TextFragmentToHtmlFormatter formatter = new TextFragmentToHtmlFormatter();
+    IncrementalHtmlFormatter incrementalFormatter = new IncrementalHtmlFormatter(formatter);
+
+    @Test
+    void format_gives_same_html_as_full_formatting_while_text_is_streamed() {
+        for (int i = 0; i <= MARKDOWN.length(); i++) {
+            String prefix = MARKDOWN.substring(0, i);
+            assertEquals(formatter.format(TextFragment.of(prefix)), incrementalFormatter.format(prefix), "at length: " + i);
+        }
+    }
+
+    @Test
+    void format_caches_closed_blocks_only() {
+        incrementalFormatter.format("First paragraph.\n\n```\ncode\n\nmore code\n");
+        assertEquals("First paragraph.\n\n".length(), incrementalFormatter.getClosedLength());
+
+        incrementalFormatter.format("First paragraph.\n\n```\ncode\n\nmore code\n```\nSecond");
+        assertEquals("First paragraph.\n\n".length(), incrementalFormatter.getClosedLength());
+
+        incrementalFormatter.format("First paragraph.\n\n```\ncode\n\nmore code\n```\nSecond\n");
+        assertEquals("First paragraph.\n\n```\ncode\n\nmore code\n```\n".length(), incrementalFormatter.getClosedLength());
+        assertEquals(2, incrementalFormatter.getClosedBlocks().size());
+    }
+
+    @Test
+    void format_keeps_list_open_until_it_is_certainly_finished() {
+        incrementalFormatter.format("Steps:\n\n1. one\n\n2. two\n");
+        assertEquals(0, incrementalFormatter.getClosedLength());
+
+        incrementalFormatter.format("Steps:\n\n1. one\n\n2. two\n\nDone.\n");
+        assertEquals("Steps:\n\n1. one\n\n2. two\n\n".length(), incrementalFormatter.getClosedLength());
+    }
+
+    @Test
+    void formatBlocks_reuses_closed_blocks_and_appends_open_one() {
+        var first = incrementalFormatter.formatBlocks("First.\n\nSecond\n");
+        var second = incrementalFormatter.formatBlocks("First.\n\nSecond\nand more");
+
+        assertEquals(2, second.size());
+        assertSame(first.get(0), second.get(0));
+        assertEquals(formatter.format(TextFragment.of("Second\nand more")), second.get(1));
+        assertEquals(incrementalFormatter.format("First.\n\nSecond\nand more"), String.join("", second));
+    }
+
+    @Test
+    void formatBlocks_formats_chunk_log_snapshots_like_strings() {
+        var log = new ChunkLog();
+        for (var line : MARKDOWN.split("(?<=\n)")) {
+            log.append(line);
+            var snapshot = log.snapshot();
+            assertEquals(new IncrementalHtmlFormatter(formatter).format(snapshot.toString()),
+                    String.join("", incrementalFormatter.formatBlocks(snapshot)));
+        }
+    }
+
+    @Test
+    void format_resets_when_text_is_replaced_with_shorter_one() {
+        incrementalFormatter.format("First.\n\nSecond.\n");
+        assertEquals(formatter.format(TextFragment.of("Other")), incrementalFormatter.format("Other"));
+    }
+}
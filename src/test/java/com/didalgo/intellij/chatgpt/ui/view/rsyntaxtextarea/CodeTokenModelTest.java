@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2024 Mariusz Bernacki <consulting@didalgo.com>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.didalgo.intellij.chatgpt.ui.view.rsyntaxtextarea;
+
+import org.fife.ui.rsyntaxtextarea.SyntaxConstants;
+import org.fife.ui.rsyntaxtextarea.TokenTypes;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CodeTokenModelTest {
+
+    @Test
+    void create_gives_tokens_covering_each_line() {
+        var model = CodeTokenModel.create("int x = 1;\n\nif (x > 0) x++;", SyntaxConstants.SYNTAX_STYLE_JAVA);
+
+        assertEquals(3, model.getLineCount());
+        assertEquals(0, model.getTokenCount(1));
+        for (int line = 0; line < model.getLineCount(); line++) {
+            int count = model.getTokenCount(line);
+            if (count > 0) {
+                assertEquals(model.getLineStart(line), model.getTokenStart(line, 0));
+                assertEquals(model.getLineEnd(line), model.getTokenEnd(line, count - 1));
+            }
+        }
+        assertEquals(TokenTypes.DATA_TYPE, model.getTokenType(0, 0));
+        assertEquals(TokenTypes.RESERVED_WORD, model.getTokenType(2, 0));
+    }
+
+    @Test
+    void create_carries_multiline_comment_over_lines() {
+        var model = CodeTokenModel.create("/* first\nsecond */ int y;", SyntaxConstants.SYNTAX_STYLE_JAVA);
+
+        assertEquals(TokenTypes.COMMENT_MULTILINE, model.getTokenType(1, 0));
+        assertEquals(model.getLineStart(1), model.getTokenStart(1, 0));
+    }
+}